@@ -2,9 +2,13 @@ package com.squareup.cascading2.function;
 
 import cascading.operation.BaseOperation;
 import cascading.operation.Function;
+import cascading.operation.FunctionCall;
 import cascading.tuple.Fields;
 import com.google.protobuf.Descriptors;
+import com.google.protobuf.DynamicMessage;
 import com.google.protobuf.Message;
+import com.squareup.cascading2.util.DynamicMessageType;
+import com.squareup.cascading2.util.LazyMessage;
 import com.squareup.cascading2.util.Util;
 import com.squareup.cascading_helpers.operation.KnowsEmittedClasses;
 
@@ -16,21 +20,37 @@ import java.util.List;
 import java.util.Set;
 
 public abstract class AbstractExpandProto<T extends Message> extends BaseOperation implements Function, KnowsEmittedClasses {
+  // exactly one of these is set
   protected final String messageClassName;
+  protected final DynamicMessageType dynamicType;
   protected final String[] fieldsToExtract;
   protected transient Descriptors.FieldDescriptor[] fieldDescriptorsToExtract;
 
   protected AbstractExpandProto(Class<T> messageClass, Fields fieldDeclaration, String[] fieldsToExtract) {
     super(1, fieldDeclaration);
     this.messageClassName = messageClass.getName();
+    this.dynamicType = null;
+    this.fieldsToExtract = fieldsToExtract;
+  }
+
+  protected AbstractExpandProto(DynamicMessageType messageType, Fields fieldDeclaration, String[] fieldsToExtract) {
+    super(1, fieldDeclaration);
+    this.messageClassName = null;
+    this.dynamicType = messageType;
     this.fieldsToExtract = fieldsToExtract;
   }
 
   protected static <T extends Message> String[] getAllFields(Class<T> messageClass) {
-    Message.Builder builder = Util.builderFromMessageClass(messageClass.getName());
+    return getAllFields(Util.builderFromMessageClass(messageClass.getName()).getDescriptorForType());
+  }
 
+  protected static String[] getAllFields(DynamicMessageType messageType) {
+    return getAllFields(messageType.getDescriptor());
+  }
+
+  private static String[] getAllFields(Descriptors.Descriptor descriptor) {
     List<String> fieldNames = new ArrayList<String>();
-    for (Descriptors.FieldDescriptor fieldDesc : builder.getDescriptorForType().getFields()) {
+    for (Descriptors.FieldDescriptor fieldDesc : descriptor.getFields()) {
       fieldNames.add(fieldDesc.getName());
     }
     return fieldNames.toArray(new String[fieldNames.size()]);
@@ -38,7 +58,7 @@ public abstract class AbstractExpandProto<T extends Message> extends BaseOperati
 
   protected Descriptors.FieldDescriptor[] getFieldDescriptorsToExtract() {
     if (fieldDescriptorsToExtract == null) {
-      Message.Builder builder = Util.builderFromMessageClass(messageClassName);
+      Message.Builder builder = newBuilder();
 
       List <Descriptors.FieldDescriptor> fieldDescriptors = new ArrayList<Descriptors.FieldDescriptor>();
       for (String fieldName : fieldsToExtract) {
@@ -51,13 +71,48 @@ public abstract class AbstractExpandProto<T extends Message> extends BaseOperati
     return fieldDescriptorsToExtract;
   }
 
+  protected Message.Builder newBuilder() {
+    if (dynamicType != null) {
+      return dynamicType.newBuilder();
+    }
+    return Util.builderFromMessageClass(messageClassName);
+  }
+
+  /** The name of the expected message type, for error messages. */
+  protected String getMessageTypeName() {
+    return dynamicType != null ? dynamicType.getMessageTypeName() : messageClassName;
+  }
+
+  /**
+   * Returns the message passed as the function's argument, making sure it's of the expected type.
+   * A {@link LazyMessage} is parsed and unwrapped.
+   */
+  protected T getMessageArgument(FunctionCall functionCall) {
+    Object arg = functionCall.getArguments().getObject(0);
+    if (arg instanceof LazyMessage) {
+      arg = ((LazyMessage) arg).getMessage();
+    }
+    if (dynamicType != null) {
+      if (!dynamicType.isInstance(arg)) {
+        throw new IllegalArgumentException("Expected argument of type " + dynamicType + ", found " + arg.getClass().getName());
+      }
+    } else if (!arg.getClass().getName().equals(messageClassName)) {
+      throw new IllegalArgumentException("Expected argument of type " + messageClassName + ", found " + arg.getClass().getName());
+    }
+    return (T) arg;
+  }
+
   @Override
   public final Set<Class> getEmittedClasses() {
     Set<Class> results = new HashSet<Class>();
     for (Descriptors.FieldDescriptor fieldDesc : getFieldDescriptorsToExtract()) {
       Descriptors.FieldDescriptor.Type type = fieldDesc.getType();
       if (type.getJavaType() == Descriptors.FieldDescriptor.JavaType.MESSAGE) {
-        results.add(Util.messageClassFromFieldDesc(messageClassName, fieldDesc));
+        if (dynamicType != null) {
+          results.add(DynamicMessage.class);
+        } else {
+          results.add(Util.messageClassFromFieldDesc(messageClassName, fieldDesc));
+        }
       }
     }
 
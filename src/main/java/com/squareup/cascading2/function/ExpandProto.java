@@ -8,7 +8,7 @@ import cascading.tuple.Fields;
 import cascading.tuple.Tuple;
 import com.google.protobuf.Descriptors;
 import com.google.protobuf.Message;
-import com.squareup.cascading2.util.Util;
+import com.squareup.cascading2.util.DynamicMessageType;
 import com.squareup.cascading_helpers.operation.KnowsEmittedClasses;
 
 import java.lang.reflect.InvocationTargetException;
@@ -44,16 +44,42 @@ public class ExpandProto<T extends Message> extends AbstractExpandProto<T> {
    */
   public ExpandProto(Class<T> messageClass, Fields fieldDeclaration, String... fieldsToExtract) {
     super(messageClass, fieldDeclaration, fieldsToExtract);
+    checkFields(fieldDeclaration, fieldsToExtract);
+  }
+
+  /**
+   * Expand only the fields listed in fieldsToExtract of a {@link com.google.protobuf.DynamicMessage},
+   * or the entire struct if none are listed.
+   */
+  public ExpandProto(DynamicMessageType messageType, String... fieldsToExtract) {
+    this(messageType, new Fields(orAllFields(messageType, fieldsToExtract)),
+        orAllFields(messageType, fieldsToExtract));
+  }
+
+  /**
+   * Expand only the fields listed in fieldsToExtract of a DynamicMessage, naming them with the
+   * corresponding field names in fieldDeclaration.
+   */
+  public ExpandProto(DynamicMessageType messageType, Fields fieldDeclaration, String... fieldsToExtract) {
+    super(messageType, fieldDeclaration, fieldsToExtract);
+    checkFields(fieldDeclaration, fieldsToExtract);
+  }
+
+  private static String[] orAllFields(DynamicMessageType messageType, String[] fieldsToExtract) {
+    return fieldsToExtract.length == 0 ? getAllFields(messageType) : fieldsToExtract;
+  }
+
+  private void checkFields(Fields fieldDeclaration, String[] fieldsToExtract) {
     if (fieldDeclaration.size() != fieldsToExtract.length) {
       throw new IllegalArgumentException("Fields "
           + fieldDeclaration
           + " doesn't have enough field names to identify all "
           + fieldsToExtract.length
           + " fields in "
-          + messageClass.getName());
+          + getMessageTypeName());
     }
 
-    Message.Builder builder = Util.builderFromMessageClass(messageClass.getName());
+    Message.Builder builder = newBuilder();
 
     for (int i = 0; i < fieldsToExtract.length; i++) {
       Descriptors.FieldDescriptor field = builder.getDescriptorForType().findFieldByName(fieldsToExtract[i]);
@@ -61,7 +87,7 @@ public class ExpandProto<T extends Message> extends AbstractExpandProto<T> {
         throw new IllegalArgumentException("Could not find a field named '"
             + fieldsToExtract[i]
             + "' in message class "
-            + messageClass.getName());
+            + getMessageTypeName());
       } else if (field.isRepeated()) {
         throw new IllegalArgumentException("field "  + fieldsToExtract[i]
             + " is repeated. Please use ExpandRepeatedProto instead.");
@@ -70,10 +96,7 @@ public class ExpandProto<T extends Message> extends AbstractExpandProto<T> {
   }
 
   @Override public void operate(FlowProcess flowProcess, FunctionCall functionCall) {
-    T arg = (T) functionCall.getArguments().getObject(0);
-    if (!arg.getClass().getName().equals(messageClassName)) {
-      throw new IllegalArgumentException("Expected argument of type " + messageClassName + ", found " + arg.getClass().getName());
-    }
+    T arg = getMessageArgument(functionCall);
     Tuple result = new Tuple();
 
     for (Descriptors.FieldDescriptor fieldDescriptor : getFieldDescriptorsToExtract()) {
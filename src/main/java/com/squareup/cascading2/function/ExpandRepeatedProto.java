@@ -8,7 +8,7 @@ import cascading.operation.FunctionCall;
 import cascading.tuple.Fields;
 import cascading.tuple.Tuple;
 import com.google.protobuf.Descriptors;
-import com.squareup.cascading2.util.Util;
+import com.squareup.cascading2.util.DynamicMessageType;
 import com.squareup.cascading_helpers.operation.KnowsEmittedClasses;
 
 import java.util.HashSet;
@@ -27,19 +27,31 @@ public class ExpandRepeatedProto<T extends Message> extends AbstractExpandProto<
   public ExpandRepeatedProto(Class<T> messageClass, String fieldName) {
     // Set up fields and perform basic checks
     super(messageClass, new Fields(fieldName), new String[]{fieldName});
+    checkField(fieldName);
+  }
+
+  /**
+   * Expand the specified repeated field of a {@link com.google.protobuf.DynamicMessage}, keeping the
+   * same field name for the Tuple.
+   */
+  public ExpandRepeatedProto(DynamicMessageType messageType, String fieldName) {
+    super(messageType, new Fields(fieldName), new String[]{fieldName});
+    checkField(fieldName);
+  }
 
-    Message.Builder builder = Util.builderFromMessageClass(messageClass.getName());
+  private void checkField(String fieldName) {
+    Message.Builder builder = newBuilder();
 
     Descriptors.FieldDescriptor field = builder.getDescriptorForType().findFieldByName(fieldName);
     if (field == null) {
       throw new IllegalArgumentException("No field named '"
           + fieldName
           + "' in message class "
-          + messageClass.getName());
+          + getMessageTypeName());
     }
 
     if (!field.isRepeated()) {
-      throw new IllegalArgumentException("Field " + fieldName + " is not a repeated field in message class " + messageClass.getName() + ".");
+      throw new IllegalArgumentException("Field " + fieldName + " is not a repeated field in message class " + getMessageTypeName() + ".");
     }
   }
 
@@ -53,10 +65,7 @@ public class ExpandRepeatedProto<T extends Message> extends AbstractExpandProto<
    * @param functionCall
    */
   @Override public void operate(FlowProcess flowProcess, FunctionCall functionCall) {
-    T arg = (T) functionCall.getArguments().getObject(0);
-    if (!arg.getClass().getName().equals(messageClassName)) {
-      throw new IllegalArgumentException("Expected argument of type " + messageClassName + ", found " + arg.getClass().getName());
-    }
+    T arg = getMessageArgument(functionCall);
 
     Descriptors.FieldDescriptor fieldDescriptor = getFieldDescriptorsToExtract()[0];
 
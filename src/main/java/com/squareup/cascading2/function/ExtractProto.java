@@ -9,6 +9,7 @@ import cascading.tuple.Fields;
 import cascading.tuple.Tuple;
 import com.google.protobuf.Descriptors;
 import com.google.protobuf.Message;
+import com.squareup.cascading2.util.DynamicMessageType;
 import com.squareup.cascading2.util.Util;
 import com.squareup.cascading_helpers.operation.KnowsEmittedClasses;
 
@@ -25,20 +26,31 @@ import java.util.Set;
  * Repeated fields are NOT supported with this function.
  */
 public class ExtractProto extends BaseOperation implements Function, KnowsEmittedClasses {
+  // exactly one of these is set
   private final String messageClassName;
+  private final DynamicMessageType dynamicType;
   private transient List<List<Descriptors.FieldDescriptor>> paths;
   private final String[] stringPaths;
 
   public ExtractProto(Class<? extends Message> messageClass, String... paths) {
+    this(messageClass.getName(), null, paths);
+  }
+
+  /** Extract fields from {@link com.google.protobuf.DynamicMessage}s of the given type. */
+  public ExtractProto(DynamicMessageType messageType, String... paths) {
+    this(null, messageType, paths);
+  }
+
+  private ExtractProto(String messageClassName, DynamicMessageType dynamicType, String[] paths) {
     super(1, deriveFieldNames(paths));
     stringPaths = paths;
-    messageClassName = messageClass.getName();
+    this.messageClassName = messageClassName;
+    this.dynamicType = dynamicType;
 
     for (String path : paths) {
       String[] segments = path.split("\\.");
 
-      Descriptors.Descriptor
-          cur = Util.builderFromMessageClass(messageClass.getName()).getDescriptorForType();
+      Descriptors.Descriptor cur = newBuilder().getDescriptorForType();
 
       List<Descriptors.FieldDescriptor> descriptors = new ArrayList<Descriptors.FieldDescriptor>();
 
@@ -69,6 +81,13 @@ public class ExtractProto extends BaseOperation implements Function, KnowsEmitte
     }
   }
 
+  private Message.Builder newBuilder() {
+    if (dynamicType != null) {
+      return dynamicType.newBuilder();
+    }
+    return Util.builderFromMessageClass(messageClassName);
+  }
+
   private static Fields deriveFieldNames(String[] paths) {
     return new Fields(paths);
   }
@@ -80,7 +99,7 @@ public class ExtractProto extends BaseOperation implements Function, KnowsEmitte
     for (String path : stringPaths) {
       String[] segments = path.split("\\.");
 
-      Descriptors.Descriptor cur = Util.builderFromMessageClass(messageClassName).getDescriptorForType();
+      Descriptors.Descriptor cur = newBuilder().getDescriptorForType();
 
       List<Descriptors.FieldDescriptor> descriptors = new ArrayList<Descriptors.FieldDescriptor>();
 
@@ -165,7 +184,7 @@ public class ExtractProto extends BaseOperation implements Function, KnowsEmitte
     // load the memoized descriptor list
     prepare(null, null);
 
-    Message defaultInstance = Util.builderFromMessageClass(messageClassName).build();
+    Message defaultInstance = newBuilder().build();
     Set<Class> results = new HashSet<Class>();
     for(List<Descriptors.FieldDescriptor> path : paths) {
       Descriptors.FieldDescriptor last = path.get(path.size() - 1);
@@ -0,0 +1,152 @@
+package com.squareup.cascading2.scheme;
+
+import cascading.scheme.hadoop.SequenceFile;
+import cascading.tuple.Fields;
+import com.google.protobuf.ExtensionRegistryLite;
+import com.google.protobuf.Message;
+import com.squareup.cascading2.serialization.ProtobufSerialization;
+import com.squareup.cascading2.util.DynamicMessageType;
+import com.squareup.cascading2.util.ExtensionRegistries;
+import com.squareup.cascading2.util.Util;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import org.apache.hadoop.mapred.JobConf;
+
+/**
+ * The options shared by the Hadoop schemes that read one protobuf message type into a single
+ * field: the message type, its extensions, and how parsed messages are built. Subclasses decide
+ * what a record is and how it's framed. Setters return {@code S}, the concrete scheme, so they can
+ * be chained with the subclass's own options.
+ */
+public abstract class BaseProtobufScheme<S extends BaseProtobufScheme<S>> extends SequenceFile {
+  private final String fieldName;
+  // exactly one of these is set
+  private final String messageClassName;
+  private final DynamicMessageType dynamicType;
+  // only set by the deprecated constructors; see setExtensions
+  private final ExtensionRegistryLite registry;
+  private String[] extensionClassNames;
+  private boolean partial;
+  private boolean discardUnknownFields;
+
+  BaseProtobufScheme(String fieldName, Class<? extends Message> messageClass,
+      ExtensionRegistryLite registry) {
+    super(new Fields(fieldName));
+    this.fieldName = fieldName;
+    messageClassName = messageClass.getName();
+    dynamicType = null;
+    this.registry = registry;
+  }
+
+  BaseProtobufScheme(String fieldName, DynamicMessageType messageType,
+      ExtensionRegistryLite registry) {
+    super(new Fields(fieldName));
+    this.fieldName = fieldName;
+    messageClassName = null;
+    dynamicType = messageType;
+    this.registry = registry;
+  }
+
+  /**
+   * Parse the extensions declared in {@code extensionClasses}, the outer classes generated for
+   * .proto files. Only the class names are shipped with the scheme; each task JVM builds the
+   * registry once and shares it between all schemes that use the same classes. The classes are
+   * also added to {@link ProtobufSerialization#EXTENSIONS}, so messages keep their extensions
+   * through a GroupBy or CoGroup.
+   */
+  public S setExtensions(Class<?>... extensionClasses) {
+    if (registry != null) {
+      throw new IllegalStateException("This scheme already has an ExtensionRegistry");
+    }
+    String[] classNames = new String[extensionClasses.length];
+    for (int i = 0; i < extensionClasses.length; i++) {
+      classNames[i] = extensionClasses[i].getName();
+    }
+    ExtensionRegistries.forClassNames(classNames);
+    extensionClassNames = classNames;
+    return self();
+  }
+
+  /**
+   * When set, decoded messages are built with {@code buildPartial()}, so missing required fields
+   * aren't checked for. Use this for data that's already known to be valid, or that's allowed not
+   * to be. Lazy and pass-through messages are built the same way when they're parsed.
+   */
+  public S setPartial(boolean partial) {
+    this.partial = partial;
+    return self();
+  }
+
+  /**
+   * When set, fields that the reader's message type doesn't know about are dropped from decoded
+   * messages rather than kept around in their UnknownFieldSets. They still have to be parsed to be
+   * skipped, but aren't held in memory or written back out. Doesn't apply to lazy messages.
+   */
+  public S setDiscardUnknownFields(boolean discardUnknownFields) {
+    this.discardUnknownFields = discardUnknownFields;
+    return self();
+  }
+
+  /** A new builder for the scheme's message type. */
+  protected Message.Builder newBuilder() {
+    if (dynamicType != null) {
+      return dynamicType.newBuilder();
+    }
+    return Util.builderFromMessageClass(messageClassName);
+  }
+
+  /** The extensions to parse with, or null. */
+  ExtensionRegistryLite getRegistry() {
+    if (extensionClassNames != null) {
+      return ExtensionRegistries.forClassNames(extensionClassNames);
+    }
+    return registry;
+  }
+
+  String getFieldName() {
+    return fieldName;
+  }
+
+  boolean isPartial() {
+    return partial;
+  }
+
+  boolean isDiscardUnknownFields() {
+    return discardUnknownFields;
+  }
+
+  /** Builds a message that has just been parsed into {@code builder}, as the options say. */
+  Message build(Message.Builder builder) {
+    if (discardUnknownFields) {
+      Util.discardUnknownFields(builder);
+    }
+    return partial ? builder.buildPartial() : builder.build();
+  }
+
+  /**
+   * Lets messages that go through a GroupBy or CoGroup in this job keep their extensions, and lets
+   * dynamic messages go through at all.
+   */
+  void configureSerialization(JobConf conf) {
+    if (dynamicType != null) {
+      ProtobufSerialization.addMessageTypes(conf, dynamicType);
+    }
+    if (extensionClassNames == null) {
+      return;
+    }
+    Set<String> classNames = new LinkedHashSet<String>();
+    String[] existing = conf.getStrings(ProtobufSerialization.EXTENSIONS);
+    if (existing != null) {
+      classNames.addAll(Arrays.asList(existing));
+    }
+    classNames.addAll(Arrays.asList(extensionClassNames));
+    conf.setStrings(ProtobufSerialization.EXTENSIONS,
+        classNames.toArray(new String[classNames.size()]));
+  }
+
+  @SuppressWarnings("unchecked")
+  S self() {
+    return (S) this;
+  }
+}
@@ -0,0 +1,409 @@
+package com.squareup.cascading2.scheme;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.Message;
+import com.google.protobuf.WireFormat;
+import com.squareup.cascading2.util.WireFields;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * How messages of one type are striped into columns by {@link ProtobufColumnarScheme}.
+ *
+ * Singular message fields are flattened: each of their fields gets its own column, named by its
+ * field1.field2.field3 path, plus a presence column named after the message field itself that
+ * records whether the message was set at all. Every other field, including repeated ones, is a leaf
+ * column holding the field's encoded occurrences for each row. Message types that contain
+ * themselves stop being flattened at the first repetition. Fields that the descriptor doesn't know
+ * about, including extensions, are kept as they were encoded in one more column per flattened
+ * message, named by the message's path followed by {@code *}; {@code *} alone for the top level.
+ *
+ * A row group is written as a directory of column paths and chunk lengths, and then the column
+ * chunks; see {@link ColumnarProtobufFile}. A chunk holds one length-prefixed cell per row.
+ */
+final class ColumnLayout {
+  private static final String OTHER_FIELDS = "*";
+
+  private final Node root;
+  private final List<Column> columns = new ArrayList<Column>();
+  private final Map<String, Column> columnsByPath = new HashMap<String, Column>();
+
+  ColumnLayout(Descriptors.Descriptor descriptor) {
+    root = build(descriptor, "", new int[0], new HashSet<Descriptors.Descriptor>());
+  }
+
+  private Node build(Descriptors.Descriptor descriptor, String prefix, int[] enclosing,
+      Set<Descriptors.Descriptor> ancestors) {
+    List<Descriptors.FieldDescriptor> fields =
+        new ArrayList<Descriptors.FieldDescriptor>(descriptor.getFields());
+    Collections.sort(fields, new Comparator<Descriptors.FieldDescriptor>() {
+      @Override public int compare(Descriptors.FieldDescriptor lhs, Descriptors.FieldDescriptor rhs) {
+        return lhs.getNumber() - rhs.getNumber();
+      }
+    });
+
+    Node node = new Node(fields.size());
+    ancestors.add(descriptor);
+    for (int i = 0; i < fields.size(); i++) {
+      Descriptors.FieldDescriptor field = fields.get(i);
+      int[] fieldNumbers = Arrays.copyOf(enclosing, enclosing.length + 1);
+      fieldNumbers[enclosing.length] = field.getNumber();
+
+      boolean flatten = !field.isRepeated()
+          && field.getType() == Descriptors.FieldDescriptor.Type.MESSAGE
+          && !ancestors.contains(field.getMessageType());
+      Column column = new Column(columns.size(), prefix + field.getName(), fieldNumbers, flatten,
+          false);
+      columns.add(column);
+      columnsByPath.put(column.path, column);
+
+      node.fieldNumbers[i] = field.getNumber();
+      node.columns[i] = column;
+      if (flatten) {
+        node.children[i] = build(field.getMessageType(), column.path + ".", fieldNumbers, ancestors);
+      }
+    }
+    ancestors.remove(descriptor);
+
+    node.otherFields = new Column(columns.size(), prefix + OTHER_FIELDS, enclosing, false, true);
+    columns.add(node.otherFields);
+    columnsByPath.put(node.otherFields.path, node.otherFields);
+    return node;
+  }
+
+  List<Column> getColumns() {
+    return columns;
+  }
+
+  /**
+   * Resolves field1.field2.field3 style paths to the columns needed to rebuild them. A path that
+   * reaches into a leaf column, for example a field of a repeated message, needs the whole column.
+   */
+  List<Column> select(Descriptors.Descriptor descriptor, String... paths) {
+    Set<Column> selected = new LinkedHashSet<Column>();
+    for (String path : paths) {
+      String[] segments = path.split("\\.");
+
+      Descriptors.Descriptor cur = descriptor;
+      for (int i = 0; i < segments.length; i++) {
+        if (cur == null) {
+          throw new IllegalArgumentException("Field " + segments[i - 1]
+              + " is not a message, so it has no fields to select. Full path: " + path);
+        }
+        Descriptors.FieldDescriptor fieldDesc = cur.findFieldByName(segments[i]);
+        if (fieldDesc == null) {
+          throw new IllegalArgumentException("Can't find a field named " + segments[i]
+              + " in struct " + cur.getName() + ". Full path: " + path);
+        }
+        cur = fieldDesc.getJavaType() == Descriptors.FieldDescriptor.JavaType.MESSAGE
+            ? fieldDesc.getMessageType() : null;
+      }
+
+      String columnPath = "";
+      for (int i = 0; i < segments.length; i++) {
+        columnPath += (i == 0 ? "" : ".") + segments[i];
+        Column column = columnsByPath.get(columnPath);
+        // enclosing messages come back set even when the selected fields aren't, as with a parse
+        selected.add(column);
+        if (!column.presence) {
+          break;
+        }
+        if (i == segments.length - 1) {
+          // the whole message: its presence and everything flattened out of it
+          for (Column c : columns) {
+            if (c.path.equals(columnPath) || c.path.startsWith(columnPath + ".")) {
+              selected.add(c);
+            }
+          }
+        }
+      }
+    }
+    return new ArrayList<Column>(selected);
+  }
+
+  static final class Column {
+    final int index;
+    final String path;
+    // field numbers from the top-level field down to this one, or down to the enclosing message
+    // for other fields
+    final int[] fieldNumbers;
+    // true for flattened message fields, whose cells only record whether the message was set
+    final boolean presence;
+    // true for the fields of a message that aren't in its descriptor
+    final boolean otherFields;
+
+    Column(int index, String path, int[] fieldNumbers, boolean presence, boolean otherFields) {
+      this.index = index;
+      this.path = path;
+      this.fieldNumbers = fieldNumbers;
+      this.presence = presence;
+      this.otherFields = otherFields;
+    }
+  }
+
+  private static final class Node {
+    // sorted field numbers, with the matching column and flattened child at the same index
+    final int[] fieldNumbers;
+    final Column[] columns;
+    final Node[] children;
+    // the fields that aren't in the descriptor
+    Column otherFields;
+
+    Node(int size) {
+      fieldNumbers = new int[size];
+      columns = new Column[size];
+      children = new Node[size];
+    }
+  }
+
+  /** Buffers rows and encodes them as a row group. */
+  final class Writer {
+    private final Buffer[] chunks = new Buffer[columns.size()];
+    private final Buffer[] cells = new Buffer[columns.size()];
+    private final boolean[] present = new boolean[columns.size()];
+    private int rowCount;
+    private long bufferedBytes;
+
+    Writer() {
+      for (int i = 0; i < chunks.length; i++) {
+        chunks[i] = new Buffer();
+        cells[i] = new Buffer();
+      }
+    }
+
+    int getRowCount() {
+      return rowCount;
+    }
+
+    /** The encoded size of the current row group's column chunks. */
+    long getBufferedBytes() {
+      return bufferedBytes;
+    }
+
+    /** Stripes the message serialized in {@code bytes[0, length)} into the current row group. */
+    void add(byte[] bytes, int length) throws IOException {
+      for (int i = 0; i < cells.length; i++) {
+        cells[i].reset();
+        present[i] = false;
+      }
+
+      stripe(root, bytes, 0, length);
+
+      for (Column column : columns) {
+        Buffer chunk = chunks[column.index];
+        int before = chunk.length;
+        if (column.presence) {
+          chunk.writeVarint(present[column.index] ? 1 : 0);
+        } else {
+          Buffer cell = cells[column.index];
+          chunk.writeVarint(cell.length);
+          chunk.write(cell.bytes, 0, cell.length);
+        }
+        bufferedBytes += chunk.length - before;
+      }
+      rowCount++;
+    }
+
+    private void stripe(Node node, byte[] bytes, int pos, int end) throws IOException {
+      while (pos < end) {
+        int start = pos;
+        int tag = WireFields.readTag(bytes, pos, end);
+        pos += WireFields.varintSize(bytes, pos, end);
+        int valueEnd = WireFields.skipValue(bytes, pos, end, tag);
+
+        int index = Arrays.binarySearch(node.fieldNumbers, WireFormat.getTagFieldNumber(tag));
+        Column column = index >= 0 ? node.columns[index] : node.otherFields;
+        if (column.presence && (tag & 7) == WireFormat.WIRETYPE_LENGTH_DELIMITED) {
+          present[column.index] = true;
+          int length = WireFields.readLength(bytes, pos, end);
+          int nestedStart = pos + WireFields.varintSize(bytes, pos, end);
+          stripe(node.children[index], bytes, nestedStart, nestedStart + length);
+        } else if (column.presence) {
+          // a message field with the wrong wire type, which parsers keep as an unknown field
+          cells[node.otherFields.index].write(bytes, start, valueEnd - start);
+        } else {
+          cells[column.index].write(bytes, start, valueEnd - start);
+        }
+
+        pos = valueEnd;
+      }
+    }
+
+    /** Encodes the buffered rows as a row group, and starts a new one. */
+    byte[] finishRowGroup() throws IOException {
+      String[] paths = new String[columns.size()];
+      int[] lengths = new int[columns.size()];
+      for (Column column : columns) {
+        paths[column.index] = column.path;
+        lengths[column.index] = chunks[column.index].length;
+      }
+      ColumnarProtobufFile.Directory directory =
+          new ColumnarProtobufFile.Directory(rowCount, paths, lengths);
+
+      byte[] rowGroup = new byte[(int) (directory.getSerializedSize() + bufferedBytes)];
+      CodedOutputStream output = CodedOutputStream.newInstance(rowGroup);
+      directory.writeTo(output);
+      for (Column column : columns) {
+        Buffer chunk = chunks[column.index];
+        output.writeRawBytes(chunk.bytes, 0, chunk.length);
+        chunk.reset();
+      }
+      output.checkNoSpaceLeft();
+      rowCount = 0;
+      bufferedBytes = 0;
+      return rowGroup;
+    }
+  }
+
+  /** Rebuilds the selected columns of each row of a row group into partial messages. */
+  final class Reader {
+    private final List<Column> selected;
+    // per selected column, where its next cell starts in the current row group, or -1 if the
+    // row group doesn't have it
+    private final int[] positions;
+    private final int[] ends;
+    private final int[] scratch;
+    private final Buffer row = new Buffer();
+    private byte[] bytes;
+    private int rowCount;
+    private int rowIndex;
+
+    Reader(List<Column> selected) {
+      this.selected = selected;
+      positions = new int[selected.size()];
+      ends = new int[selected.size()];
+      int maxDepth = 0;
+      for (Column column : selected) {
+        maxDepth = Math.max(maxDepth, column.fieldNumbers.length);
+      }
+      scratch = new int[maxDepth + 1];
+    }
+
+    /** Starts reading the row group serialized in {@code bytes[0, length)}. */
+    void reset(byte[] bytes, int length) throws IOException {
+      CodedInputStream input = CodedInputStream.newInstance(bytes, 0, length);
+      ColumnarProtobufFile.Directory directory = ColumnarProtobufFile.Directory.read(input);
+      rowCount = directory.rowCount;
+
+      Arrays.fill(positions, -1);
+      int offset = input.getTotalBytesRead();
+      for (int i = 0; i < directory.paths.length; i++) {
+        for (int j = 0; j < selected.size(); j++) {
+          if (selected.get(j).path.equals(directory.paths[i])) {
+            positions[j] = offset;
+            ends[j] = offset + directory.lengths[i];
+          }
+        }
+        offset += directory.lengths[i];
+      }
+      if (offset > length) {
+        throw new IOException("Row group is truncated: expected " + offset + " bytes, found " + length);
+      }
+
+      this.bytes = bytes;
+      rowIndex = 0;
+    }
+
+    /** Merges the next row into {@code builder}, or returns false at the end of the row group. */
+    boolean next(Message.Builder builder) throws IOException {
+      if (rowIndex == rowCount) {
+        return false;
+      }
+
+      row.reset();
+      for (int i = 0; i < selected.size(); i++) {
+        int pos = positions[i];
+        if (pos < 0) {
+          continue;
+        }
+        int end = ends[i];
+        Column column = selected.get(i);
+
+        int size = WireFields.varintSize(bytes, pos, end);
+        int value = (int) WireFields.readVarint(bytes, pos);
+        pos += size;
+        if (column.presence) {
+          if (value != 0) {
+            // an empty message at the end of the path marks it as set
+            wrap(column.fieldNumbers, column.fieldNumbers.length, 0);
+          }
+        } else {
+          if (pos + value > end) {
+            throw new IOException("Column " + column.path + " is truncated");
+          }
+          if (value > 0) {
+            // other fields cells are the contents of the enclosing message, not one field of it
+            int depth = column.otherFields
+                ? column.fieldNumbers.length : column.fieldNumbers.length - 1;
+            wrap(column.fieldNumbers, depth, value);
+            row.write(bytes, pos, value);
+          }
+          pos += value;
+        }
+        positions[i] = pos;
+      }
+
+      builder.mergeFrom(row.bytes, 0, row.length);
+      rowIndex++;
+      return true;
+    }
+
+    /**
+     * Writes the headers of the messages enclosing a payload of {@code length} bytes, so the payload
+     * lands at the right depth when the row is parsed.
+     */
+    private void wrap(int[] fieldNumbers, int depth, int length) {
+      scratch[depth] = length;
+      for (int i = depth - 1; i > 0; i--) {
+        scratch[i] = CodedOutputStream.computeTagSize(fieldNumbers[i])
+            + CodedOutputStream.computeRawVarint32Size(scratch[i + 1]) + scratch[i + 1];
+      }
+      for (int i = 0; i < depth; i++) {
+        row.writeVarint((fieldNumbers[i] << 3) | WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        row.writeVarint(scratch[i + 1]);
+      }
+    }
+  }
+
+  /** A growable byte array that is reused across rows. */
+  private static final class Buffer {
+    byte[] bytes = new byte[64];
+    int length;
+
+    void reset() {
+      length = 0;
+    }
+
+    void write(byte[] source, int offset, int count) {
+      ensureCapacity(count);
+      System.arraycopy(source, offset, bytes, length, count);
+      length += count;
+    }
+
+    void writeVarint(int value) {
+      ensureCapacity(5);
+      while ((value & ~0x7F) != 0) {
+        bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      bytes[length++] = (byte) value;
+    }
+
+    private void ensureCapacity(int count) {
+      if (length + count > bytes.length) {
+        bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + count));
+      }
+    }
+  }
+}
@@ -0,0 +1,120 @@
+package com.squareup.cascading2.scheme;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * The layout of the files written by {@link ProtobufColumnarScheme}:
+ *
+ * <pre>
+ *   header:     MAGIC, sync marker
+ *   row group:  sync marker, varint length, directory, column chunks
+ *   directory:  varint row count, varint column count, (column path, varint chunk length)*
+ * </pre>
+ *
+ * The length covers the directory and the chunks, which follow it in directory order. A reader
+ * only needs the directory to find the chunks of the columns it wants, and seeks past the rest.
+ * Every row group starts with the file's random 16 byte sync marker, so a reader dropped in the
+ * middle of a file can find the next one; see {@link ColumnarProtobufInputFormat}.
+ *
+ * The values handed between the scheme and the formats are single row groups without the sync
+ * marker and length: a directory and its chunks.
+ */
+final class ColumnarProtobufFile {
+  static final byte[] MAGIC = {'P', 'B', 'C', 'L', 1};
+  static final int SYNC_SIZE = DelimitedProtobufFile.SYNC_SIZE;
+  static final int HEADER_SIZE = MAGIC.length + SYNC_SIZE;
+
+  /** The column paths for ColumnarProtobufInputFormat to read; unset means all of them. */
+  static final String COLUMNS = "cascading2.protobuf.columnar.columns";
+
+  private ColumnarProtobufFile() {}
+
+  /** The row count of a row group, and the paths and chunk lengths of its columns. */
+  static final class Directory {
+    final int rowCount;
+    final String[] paths;
+    final int[] lengths;
+
+    Directory(int rowCount, String[] paths, int[] lengths) {
+      this.rowCount = rowCount;
+      this.paths = paths;
+      this.lengths = lengths;
+    }
+
+    static Directory read(CodedInputStream input) throws IOException {
+      int rowCount = input.readRawVarint32();
+      int columnCount = input.readRawVarint32();
+      if (rowCount < 0 || columnCount < 0) {
+        throw new IOException("Corrupt row group directory");
+      }
+      String[] paths = new String[columnCount];
+      int[] lengths = new int[columnCount];
+      for (int i = 0; i < columnCount; i++) {
+        paths[i] = input.readString();
+        lengths[i] = input.readRawVarint32();
+        if (lengths[i] < 0) {
+          throw new IOException("Negative length for column " + paths[i]);
+        }
+      }
+      return new Directory(rowCount, paths, lengths);
+    }
+
+    void writeTo(CodedOutputStream output) throws IOException {
+      output.writeRawVarint32(rowCount);
+      output.writeRawVarint32(paths.length);
+      for (int i = 0; i < paths.length; i++) {
+        output.writeStringNoTag(paths[i]);
+        output.writeRawVarint32(lengths[i]);
+      }
+    }
+
+    int getSerializedSize() {
+      int size = CodedOutputStream.computeRawVarint32Size(rowCount)
+          + CodedOutputStream.computeRawVarint32Size(paths.length);
+      for (int i = 0; i < paths.length; i++) {
+        size += CodedOutputStream.computeStringSizeNoTag(paths[i])
+            + CodedOutputStream.computeRawVarint32Size(lengths[i]);
+      }
+      return size;
+    }
+
+    /** The total length of the column chunks. */
+    long getChunksLength() {
+      long length = 0;
+      for (int chunkLength : lengths) {
+        length += chunkLength;
+      }
+      return length;
+    }
+  }
+
+  /** Writes row groups, with a header and sync markers, to a stream. */
+  static final class Writer {
+    private final OutputStream out;
+    private final byte[] syncMarker = DelimitedProtobufFile.newSyncMarker();
+
+    Writer(OutputStream out) throws IOException {
+      this.out = new BufferedOutputStream(out, 64 * 1024);
+      this.out.write(MAGIC);
+      this.out.write(syncMarker);
+    }
+
+    /** Writes the row group in {@code bytes[offset, offset + length)}. */
+    void write(byte[] bytes, int offset, int length) throws IOException {
+      out.write(syncMarker);
+      CodedOutputStream output = CodedOutputStream.newInstance(out, 5);
+      output.writeRawVarint32(length);
+      output.flush();
+      out.write(bytes, offset, length);
+    }
+
+    /** Flushes buffered row groups to the underlying stream, without closing it. */
+    void flush() throws IOException {
+      out.flush();
+    }
+  }
+}
@@ -0,0 +1,212 @@
+package com.squareup.cascading2.scheme;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+
+/**
+ * Reads the row groups of columnar files, as written by {@link ColumnarProtobufOutputFormat}, as
+ * NullWritable keys and BytesWritable values. Only the columns listed in
+ * {@code cascading2.protobuf.columnar.columns} are read: each value holds a directory of just those
+ * columns and their chunks, and the chunks of every other column are never read from the file.
+ */
+public class ColumnarProtobufInputFormat extends FileInputFormat<NullWritable, BytesWritable> {
+  @Override
+  public RecordReader<NullWritable, BytesWritable> getRecordReader(InputSplit split, JobConf job,
+      Reporter reporter) throws IOException {
+    reporter.setStatus(split.toString());
+    return new ColumnarRecordReader(job, (FileSplit) split);
+  }
+
+  /**
+   * Reads the row groups whose sync markers start within the split. Since a row group is found by
+   * the marker in front of it, every row group is read by exactly one split.
+   */
+  static final class ColumnarRecordReader implements RecordReader<NullWritable, BytesWritable> {
+    private final FSDataInputStream in;
+    private final long start;
+    private final long end;
+    private final long fileLength;
+    private final byte[] syncMarker;
+    // null to read every column
+    private final Set<String> columns;
+    // where the next row group starts, or -1 once the split is done
+    private long position;
+
+    ColumnarRecordReader(JobConf job, FileSplit split) throws IOException {
+      Path file = split.getPath();
+      FileSystem fs = file.getFileSystem(job);
+      fileLength = fs.getFileStatus(file).getLen();
+      in = fs.open(file);
+      start = split.getStart();
+      end = start + split.getLength();
+
+      byte[] header = new byte[ColumnarProtobufFile.HEADER_SIZE];
+      if (fileLength < header.length) {
+        in.close();
+        throw new IOException(file + " is too short to be a columnar protobuf file");
+      }
+      in.readFully(0, header);
+      byte[] magic = Arrays.copyOf(header, ColumnarProtobufFile.MAGIC.length);
+      if (!Arrays.equals(magic, ColumnarProtobufFile.MAGIC)) {
+        in.close();
+        throw new IOException(file + " is not a columnar protobuf file");
+      }
+      syncMarker = Arrays.copyOfRange(header, magic.length, header.length);
+
+      String[] paths = job.getStrings(ColumnarProtobufFile.COLUMNS);
+      columns = paths == null ? null : new HashSet<String>(Arrays.asList(paths));
+
+      position = start == 0
+          ? ColumnarProtobufFile.HEADER_SIZE
+          : findSync(Math.max(start, ColumnarProtobufFile.HEADER_SIZE));
+    }
+
+    /** Returns where the first sync marker at or after {@code from} starts, or -1 if none does. */
+    private long findSync(long from) throws IOException {
+      in.seek(from);
+      // not closed, since that would close the file too
+      InputStream buffered = new BufferedInputStream(in, 64 * 1024);
+
+      // a ring of the last SYNC_SIZE bytes read
+      byte[] window = new byte[syncMarker.length];
+      long count = 0;
+      while (true) {
+        int b = buffered.read();
+        if (b < 0) {
+          return -1;
+        }
+        window[(int) (count++ % window.length)] = (byte) b;
+        if (count >= window.length && matches(window, (int) (count % window.length))) {
+          return from + count - window.length;
+        }
+      }
+    }
+
+    private boolean matches(byte[] window, int head) {
+      for (int i = 0; i < syncMarker.length; i++) {
+        if (window[(head + i) % window.length] != syncMarker[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override public boolean next(NullWritable key, BytesWritable value) throws IOException {
+      // a row group that starts at or after the end belongs to the next split
+      if (position < 0 || position >= end || position >= fileLength) {
+        position = -1;
+        return false;
+      }
+
+      in.seek(position);
+      CodedInputStream input = CodedInputStream.newInstance(in);
+      if (!Arrays.equals(input.readRawBytes(syncMarker.length), syncMarker)) {
+        throw new IOException("Corrupt sync marker at " + position);
+      }
+      int length = input.readRawVarint32();
+      int directoryStart = input.getTotalBytesRead();
+      ColumnarProtobufFile.Directory directory = ColumnarProtobufFile.Directory.read(input);
+      long chunksStart = position + input.getTotalBytesRead();
+      if (input.getTotalBytesRead() - directoryStart + directory.getChunksLength() != length) {
+        throw new IOException("Corrupt row group directory at " + position);
+      }
+
+      ColumnarProtobufFile.Directory selected = select(directory);
+      int directorySize = selected.getSerializedSize();
+      value.setSize((int) (directorySize + selected.getChunksLength()));
+      CodedOutputStream output =
+          CodedOutputStream.newInstance(value.getBytes(), 0, directorySize);
+      selected.writeTo(output);
+      output.checkNoSpaceLeft();
+
+      // neighboring selected chunks are read together, and the rest are never read at all
+      long runStart = 0;
+      int runOffset = directorySize;
+      int runLength = 0;
+      long chunkStart = chunksStart;
+      for (int i = 0; i < directory.paths.length; i++) {
+        if (columns == null || columns.contains(directory.paths[i])) {
+          if (runLength > 0 && runStart + runLength != chunkStart) {
+            in.readFully(runStart, value.getBytes(), runOffset, runLength);
+            runOffset += runLength;
+            runLength = 0;
+          }
+          if (runLength == 0) {
+            runStart = chunkStart;
+          }
+          runLength += directory.lengths[i];
+        }
+        chunkStart += directory.lengths[i];
+      }
+      if (runLength > 0) {
+        in.readFully(runStart, value.getBytes(), runOffset, runLength);
+      }
+
+      position = position + directoryStart + length;
+      return true;
+    }
+
+    private ColumnarProtobufFile.Directory select(ColumnarProtobufFile.Directory directory) {
+      if (columns == null) {
+        return directory;
+      }
+      int count = 0;
+      for (String path : directory.paths) {
+        if (columns.contains(path)) {
+          count++;
+        }
+      }
+      String[] paths = new String[count];
+      int[] lengths = new int[count];
+      int j = 0;
+      for (int i = 0; i < directory.paths.length; i++) {
+        if (columns.contains(directory.paths[i])) {
+          paths[j] = directory.paths[i];
+          lengths[j] = directory.lengths[i];
+          j++;
+        }
+      }
+      return new ColumnarProtobufFile.Directory(directory.rowCount, paths, lengths);
+    }
+
+    @Override public NullWritable createKey() {
+      return NullWritable.get();
+    }
+
+    @Override public BytesWritable createValue() {
+      return new BytesWritable();
+    }
+
+    @Override public long getPos() throws IOException {
+      return position < 0 ? end : position;
+    }
+
+    @Override public float getProgress() throws IOException {
+      if (end == start) {
+        return 0.0f;
+      }
+      return Math.min(1.0f, (getPos() - start) / (float) (end - start));
+    }
+
+    @Override public void close() throws IOException {
+      in.close();
+    }
+  }
+}
@@ -0,0 +1,48 @@
+package com.squareup.cascading2.scheme;
+
+import java.io.IOException;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordWriter;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.util.Progressable;
+
+/**
+ * Writes each BytesWritable value, a row group encoded by {@link ColumnLayout}, to a columnar file;
+ * see {@link ColumnarProtobufFile}. Output compression settings are ignored, since readers seek
+ * straight to the columns they need.
+ */
+public class ColumnarProtobufOutputFormat extends FileOutputFormat<NullWritable, BytesWritable> {
+  @Override
+  public RecordWriter<NullWritable, BytesWritable> getRecordWriter(FileSystem ignored, JobConf job,
+      String name, Progressable progress) throws IOException {
+    Path file = FileOutputFormat.getTaskOutputPath(job, name);
+    FileSystem fs = file.getFileSystem(job);
+    return new ColumnarRecordWriter(fs.create(file, progress));
+  }
+
+  private static final class ColumnarRecordWriter
+      implements RecordWriter<NullWritable, BytesWritable> {
+    private final FSDataOutputStream out;
+    private final ColumnarProtobufFile.Writer writer;
+
+    ColumnarRecordWriter(FSDataOutputStream out) throws IOException {
+      this.out = out;
+      writer = new ColumnarProtobufFile.Writer(out);
+    }
+
+    @Override public void write(NullWritable key, BytesWritable value) throws IOException {
+      writer.write(value.getBytes(), 0, value.getLength());
+    }
+
+    @Override public void close(Reporter reporter) throws IOException {
+      writer.flush();
+      out.close();
+    }
+  }
+}
@@ -0,0 +1,74 @@
+package com.squareup.cascading2.scheme;
+
+import java.io.IOException;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.SequenceFileRecordReader;
+import org.apache.hadoop.mapred.lib.CombineFileInputFormat;
+import org.apache.hadoop.mapred.lib.CombineFileRecordReader;
+import org.apache.hadoop.mapred.lib.CombineFileSplit;
+
+/**
+ * Packs the blocks of many small SequenceFiles into splits of up to
+ * {@code cascading2.protobuf.combine.max.split.size} bytes, so they're read by a handful of
+ * mappers instead of one mapper per file. Blocks on the same node are combined first, then blocks
+ * in the same rack, as long as there are at least {@code cascading2.protobuf.combine.min.split.size.node}
+ * and {@code cascading2.protobuf.combine.min.split.size.rack} bytes of them respectively.
+ */
+public class CombinedProtobufInputFormat extends CombineFileInputFormat<NullWritable, BytesWritable> {
+  static final String MAX_SPLIT_SIZE = "cascading2.protobuf.combine.max.split.size";
+  static final String MIN_SPLIT_SIZE_NODE = "cascading2.protobuf.combine.min.split.size.node";
+  static final String MIN_SPLIT_SIZE_RACK = "cascading2.protobuf.combine.min.split.size.rack";
+
+  /** Checks the split sizes given to a scheme's setCombineSplits. */
+  static void checkSplitSizes(long maxSplitSize, long minSplitSizeNode, long minSplitSizeRack) {
+    if (maxSplitSize <= 0) {
+      throw new IllegalArgumentException("Max split size must be positive, got " + maxSplitSize);
+    }
+    if (minSplitSizeNode < 0 || minSplitSizeRack < 0 || minSplitSizeNode > maxSplitSize
+        || minSplitSizeRack > maxSplitSize) {
+      throw new IllegalArgumentException("Min split sizes must be between 0 and the max split size");
+    }
+  }
+
+  /** Reads a source's SequenceFiles through this format, with the given split sizes. */
+  static void configure(JobConf conf, long maxSplitSize, long minSplitSizeNode,
+      long minSplitSizeRack) {
+    conf.setInputFormat(CombinedProtobufInputFormat.class);
+    conf.setLong(MAX_SPLIT_SIZE, maxSplitSize);
+    conf.setLong(MIN_SPLIT_SIZE_NODE, minSplitSizeNode);
+    conf.setLong(MIN_SPLIT_SIZE_RACK, minSplitSizeRack);
+  }
+
+  @Override public InputSplit[] getSplits(JobConf job, int numSplits) throws IOException {
+    // our own keys rather than mapred.max.split.size and friends, so that other sources in the
+    // same job aren't affected
+    setMaxSplitSize(job.getLong(MAX_SPLIT_SIZE, 0));
+    setMinSplitSizeNode(job.getLong(MIN_SPLIT_SIZE_NODE, 0));
+    setMinSplitSizeRack(job.getLong(MIN_SPLIT_SIZE_RACK, 0));
+    return super.getSplits(job, numSplits);
+  }
+
+  @Override
+  public RecordReader<NullWritable, BytesWritable> getRecordReader(InputSplit split, JobConf job,
+      Reporter reporter) throws IOException {
+    reporter.setStatus(split.toString());
+    return new CombineFileRecordReader<NullWritable, BytesWritable>(job, (CombineFileSplit) split,
+        reporter, (Class) FileRecordReader.class);
+  }
+
+  /** Reads one of the files of a combined split, as CombineFileRecordReader expects. */
+  public static class FileRecordReader extends SequenceFileRecordReader<NullWritable, BytesWritable> {
+    public FileRecordReader(CombineFileSplit split, Configuration conf, Reporter reporter,
+        Integer index) throws IOException {
+      super(conf, new FileSplit(split.getPath(index), split.getOffset(index),
+          split.getLength(index), (String[]) null));
+    }
+  }
+}
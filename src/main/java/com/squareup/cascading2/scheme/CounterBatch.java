@@ -0,0 +1,101 @@
+package com.squareup.cascading2.scheme;
+
+import cascading.flow.FlowProcess;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tallies {@link ProtobufScheme.Counter}s for one thread and reports them to the FlowProcess in
+ * batches, rather than taking Hadoop's counter lock for every record. Only every
+ * {@value #TIMING_INTERVAL}th record is timed, and its time is scaled up to estimate the total.
+ *
+ * <p>The largest record size isn't a counter, since Hadoop sums counters across tasks. Instead
+ * every batch in the JVM raises one shared maximum, and each new maximum is logged to the task
+ * log.
+ */
+final class CounterBatch {
+  static final int TIMING_INTERVAL = 64;
+  private static final int FLUSH_INTERVAL = 1000;
+  private static final ProtobufScheme.Counter[] COUNTERS = ProtobufScheme.Counter.values();
+
+  private static final Logger LOG = LoggerFactory.getLogger(CounterBatch.class);
+  // shared by every source, sink and decoder thread in the JVM
+  private static final AtomicLong REPORTED_MAX_RECORD_SIZE = new AtomicLong();
+
+  private final FlowProcess<?> flowProcess;
+  private final long[] counts = new long[COUNTERS.length];
+  private long maxRecordSize;
+  private int unflushed;
+  private int untimed;
+
+  CounterBatch(FlowProcess<?> flowProcess) {
+    this.flowProcess = flowProcess;
+  }
+
+  /** The largest record read or written by any batch in this JVM, as of their last flush. */
+  static long reportedMaxRecordSize() {
+    return REPORTED_MAX_RECORD_SIZE.get();
+  }
+
+  void recordRead(int size) {
+    counts[ProtobufScheme.Counter.RECORDS_READ.ordinal()]++;
+    counts[ProtobufScheme.Counter.BYTES_READ.ordinal()] += size;
+    recordSize(size);
+  }
+
+  void recordParsed(int size) {
+    counts[ProtobufScheme.Counter.BYTES_PARSED.ordinal()] += size;
+  }
+
+  void recordWritten(int size) {
+    counts[ProtobufScheme.Counter.RECORDS_WRITTEN.ordinal()]++;
+    counts[ProtobufScheme.Counter.BYTES_WRITTEN.ordinal()] += size;
+    recordSize(size);
+  }
+
+  /** Whether the next parse or serialization should be timed. */
+  boolean timeNext() {
+    if (++untimed < TIMING_INTERVAL) {
+      return false;
+    }
+    untimed = 0;
+    return true;
+  }
+
+  void addParseNanos(long nanos) {
+    counts[ProtobufScheme.Counter.PARSE_NANOS.ordinal()] += nanos * TIMING_INTERVAL;
+  }
+
+  void addSerializeNanos(long nanos) {
+    counts[ProtobufScheme.Counter.SERIALIZE_NANOS.ordinal()] += nanos * TIMING_INTERVAL;
+  }
+
+  void flush() {
+    for (int i = 0; i < counts.length; i++) {
+      if (counts[i] != 0) {
+        flowProcess.increment(COUNTERS[i], counts[i]);
+        counts[i] = 0;
+      }
+    }
+
+    long reported = REPORTED_MAX_RECORD_SIZE.get();
+    while (maxRecordSize > reported) {
+      if (REPORTED_MAX_RECORD_SIZE.compareAndSet(reported, maxRecordSize)) {
+        LOG.info("largest protobuf record so far: {} bytes", maxRecordSize);
+        break;
+      }
+      reported = REPORTED_MAX_RECORD_SIZE.get();
+    }
+    unflushed = 0;
+  }
+
+  private void recordSize(int size) {
+    if (size > maxRecordSize) {
+      maxRecordSize = size;
+    }
+    if (++unflushed >= FLUSH_INTERVAL) {
+      flush();
+    }
+  }
+}
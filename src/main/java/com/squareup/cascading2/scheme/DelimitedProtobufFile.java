@@ -0,0 +1,136 @@
+package com.squareup.cascading2.scheme;
+
+import com.google.protobuf.CodedOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * The layout of splittable length-delimited protobuf files. Records are framed the same way as
+ * {@code Message.writeDelimitedTo}, a varint length followed by the message. A length of -1, which
+ * no record can have, escapes everything else:
+ *
+ * <pre>
+ *   header:  escape, MAGIC, sync marker
+ *   record:  varint length, message bytes
+ *   sync:    escape, sync marker
+ * </pre>
+ *
+ * The 16 byte sync marker is random per file, and is written every so often so a reader dropped in
+ * the middle of the file can find the start of the next record. Plain delimited streams, without the
+ * header, are also readable, just not splittable.
+ */
+final class DelimitedProtobufFile {
+  /** -1 as written by CodedOutputStream.writeRawVarint32. */
+  static final byte[] ESCAPE = {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F};
+  static final byte[] MAGIC = {'P', 'B', 'D', 'L', 1};
+  static final int SYNC_SIZE = 16;
+  static final int HEADER_SIZE = ESCAPE.length + MAGIC.length + SYNC_SIZE;
+
+  static final String SYNC_INTERVAL = "cascading2.protobuf.delimited.sync.interval";
+  static final int DEFAULT_SYNC_INTERVAL = 64 * 1024;
+
+  private DelimitedProtobufFile() {}
+
+  static byte[] newSyncMarker() {
+    UUID uuid = UUID.randomUUID();
+    byte[] marker = new byte[SYNC_SIZE];
+    long bits = uuid.getMostSignificantBits();
+    for (int i = 0; i < 8; i++) {
+      marker[i] = (byte) (bits >>> (56 - 8 * i));
+    }
+    bits = uuid.getLeastSignificantBits();
+    for (int i = 0; i < 8; i++) {
+      marker[8 + i] = (byte) (bits >>> (56 - 8 * i));
+    }
+    return marker;
+  }
+
+  private static void writeHeader(OutputStream out, byte[] syncMarker) throws IOException {
+    out.write(ESCAPE);
+    out.write(MAGIC);
+    out.write(syncMarker);
+  }
+
+  /**
+   * Reads the header at the start of a file.
+   *
+   * @return the sync marker, or null if this is a plain delimited file, in which case nothing has
+   * been consumed from {@code in}
+   */
+  static byte[] readHeader(InputStream in) throws IOException {
+    in.mark(HEADER_SIZE);
+    byte[] header = new byte[HEADER_SIZE];
+    int read = 0;
+    while (read < header.length) {
+      int count = in.read(header, read, header.length - read);
+      if (count < 0) {
+        break;
+      }
+      read += count;
+    }
+
+    if (read < header.length || !startsWith(header, 0, ESCAPE)
+        || !startsWith(header, ESCAPE.length, MAGIC)) {
+      in.reset();
+      return null;
+    }
+    return Arrays.copyOfRange(header, ESCAPE.length + MAGIC.length, HEADER_SIZE);
+  }
+
+  private static void writeRawVarint32(OutputStream out, int value) throws IOException {
+    while ((value & ~0x7F) != 0) {
+      out.write((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.write(value);
+  }
+
+  /** Writes records, with a header and sync markers, to a stream. */
+  static final class Writer {
+    private final OutputStream out;
+    private final byte[] syncMarker = newSyncMarker();
+    private final int syncInterval;
+    // bytes written through the buffer, since the underlying stream's position lags behind it
+    private long position;
+    private long lastSync;
+
+    Writer(OutputStream out, int syncInterval) throws IOException {
+      this.out = new BufferedOutputStream(out, 64 * 1024);
+      this.syncInterval = syncInterval;
+      writeHeader(this.out, syncMarker);
+      position = HEADER_SIZE;
+      lastSync = position;
+    }
+
+    void write(byte[] bytes, int offset, int length) throws IOException {
+      if (position - lastSync >= syncInterval) {
+        out.write(ESCAPE);
+        out.write(syncMarker);
+        position += ESCAPE.length + syncMarker.length;
+        lastSync = position;
+      }
+
+      writeRawVarint32(out, length);
+      out.write(bytes, offset, length);
+      position += CodedOutputStream.computeRawVarint32Size(length) + length;
+    }
+
+    /** Flushes buffered records to the underlying stream, without closing it. */
+    void flush() throws IOException {
+      out.flush();
+    }
+  }
+
+  private static boolean startsWith(byte[] bytes, int offset, byte[] prefix) {
+    for (int i = 0; i < prefix.length; i++) {
+      if (bytes[offset + i] != prefix[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
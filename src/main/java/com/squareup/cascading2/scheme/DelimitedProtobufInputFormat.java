@@ -0,0 +1,233 @@
+package com.squareup.cascading2.scheme;
+
+import com.google.protobuf.CodedInputStream;
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+
+/**
+ * Reads length-delimited protobuf files, such as the ones written by {@link
+ * DelimitedProtobufOutputFormat} or by {@code Message.writeDelimitedTo}, as NullWritable keys and
+ * BytesWritable values. Files with sync markers are split like SequenceFiles; plain delimited
+ * streams are read whole.
+ */
+public class DelimitedProtobufInputFormat extends FileInputFormat<NullWritable, BytesWritable> {
+  @Override protected boolean isSplitable(FileSystem fs, Path file) {
+    try {
+      InputStream in = new BufferedInputStream(fs.open(file), DelimitedProtobufFile.HEADER_SIZE);
+      try {
+        return DelimitedProtobufFile.readHeader(in) != null;
+      } finally {
+        in.close();
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Override
+  public RecordReader<NullWritable, BytesWritable> getRecordReader(InputSplit split, JobConf job,
+      Reporter reporter) throws IOException {
+    reporter.setStatus(split.toString());
+    return new DelimitedRecordReader(job, (FileSplit) split);
+  }
+
+  /**
+   * Reads the records that follow the first sync marker at or after the start of the split, up to
+   * the first sync marker at or after its end. Since the next split starts from that same marker,
+   * every record is read exactly once.
+   */
+  static final class DelimitedRecordReader implements RecordReader<NullWritable, BytesWritable> {
+    private final long start;
+    private final long end;
+    private final CountingInputStream in;
+    private final byte[] syncMarker;
+    private final byte[] markerBuffer = new byte[DelimitedProtobufFile.SYNC_SIZE];
+    private boolean done;
+
+    DelimitedRecordReader(JobConf job, FileSplit split) throws IOException {
+      Path file = split.getPath();
+      FileSystem fs = file.getFileSystem(job);
+      FSDataInputStream fileIn = fs.open(file);
+      start = split.getStart();
+      end = start + split.getLength();
+
+      if (start == 0) {
+        // the header is read through the same buffer as the records that follow it
+        BufferedInputStream buffered = new BufferedInputStream(fileIn, 64 * 1024);
+        syncMarker = DelimitedProtobufFile.readHeader(buffered);
+        // plain delimited streams have no header
+        in = new CountingInputStream(buffered,
+            syncMarker == null ? 0 : DelimitedProtobufFile.HEADER_SIZE);
+      } else {
+        // only the header is read from the start of the file, since it holds the sync marker
+        syncMarker = DelimitedProtobufFile.readHeader(
+            new BufferedInputStream(fileIn, DelimitedProtobufFile.HEADER_SIZE));
+        if (syncMarker == null) {
+          // a plain delimited stream, which is never split
+          fileIn.close();
+          throw new IOException("Can't read a split of unsynced file " + file + " from " + start);
+        }
+        fileIn.seek(start);
+        in = new CountingInputStream(new BufferedInputStream(fileIn, 64 * 1024), start);
+        done = !skipToSync();
+      }
+    }
+
+    /** Moves to just past the next escape and sync marker, returning false at the end of the file. */
+    private boolean skipToSync() throws IOException {
+      int patternLength = DelimitedProtobufFile.ESCAPE.length + syncMarker.length;
+      byte[] pattern = new byte[patternLength];
+      System.arraycopy(DelimitedProtobufFile.ESCAPE, 0, pattern, 0, DelimitedProtobufFile.ESCAPE.length);
+      System.arraycopy(syncMarker, 0, pattern, DelimitedProtobufFile.ESCAPE.length, syncMarker.length);
+
+      // a ring of the last patternLength bytes read
+      byte[] window = new byte[patternLength];
+      long count = 0;
+      while (true) {
+        int b = in.read();
+        if (b < 0) {
+          return false;
+        }
+        window[(int) (count++ % patternLength)] = (byte) b;
+        if (count >= patternLength && matches(window, (int) (count % patternLength), pattern)) {
+          // a marker that starts at or after the end belongs to the next split
+          return in.getPosition() - patternLength < end;
+        }
+      }
+    }
+
+    private static boolean matches(byte[] window, int head, byte[] pattern) {
+      for (int i = 0; i < pattern.length; i++) {
+        if (window[(head + i) % window.length] != pattern[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override public boolean next(NullWritable key, BytesWritable value) throws IOException {
+      while (!done) {
+        long recordStart = in.getPosition();
+        int first = in.read();
+        if (first < 0) {
+          done = true;
+          break;
+        }
+        int length = CodedInputStream.readRawVarint32(first, in);
+
+        if (length == -1 && syncMarker != null) {
+          if (recordStart >= end) {
+            done = true;
+            break;
+          }
+          readFully(markerBuffer, markerBuffer.length);
+          if (!Arrays.equals(markerBuffer, syncMarker)) {
+            throw new IOException("Corrupt sync marker at " + recordStart);
+          }
+          continue;
+        }
+        if (length < 0) {
+          throw new IOException("Negative record length " + length + " at " + recordStart);
+        }
+
+        value.setSize(length);
+        readFully(value.getBytes(), length);
+        return true;
+      }
+      return false;
+    }
+
+    private void readFully(byte[] bytes, int length) throws IOException {
+      int read = 0;
+      while (read < length) {
+        int count = in.read(bytes, read, length - read);
+        if (count < 0) {
+          throw new EOFException("Truncated record at " + in.getPosition());
+        }
+        read += count;
+      }
+    }
+
+    @Override public NullWritable createKey() {
+      return NullWritable.get();
+    }
+
+    @Override public BytesWritable createValue() {
+      return new BytesWritable();
+    }
+
+    @Override public long getPos() throws IOException {
+      return in.getPosition();
+    }
+
+    @Override public float getProgress() throws IOException {
+      if (end == start) {
+        return 0.0f;
+      }
+      return Math.min(1.0f, (in.getPosition() - start) / (float) (end - start));
+    }
+
+    @Override public void close() throws IOException {
+      in.close();
+    }
+  }
+
+  /** Tracks the position in the file, since the buffering hides the underlying stream's. */
+  private static final class CountingInputStream extends FilterInputStream {
+    private long position;
+
+    CountingInputStream(InputStream in, long position) {
+      super(in);
+      this.position = position;
+    }
+
+    long getPosition() {
+      return position;
+    }
+
+    @Override public int read() throws IOException {
+      int b = in.read();
+      if (b >= 0) {
+        position++;
+      }
+      return b;
+    }
+
+    @Override public int read(byte[] b, int off, int len) throws IOException {
+      int count = in.read(b, off, len);
+      if (count > 0) {
+        position += count;
+      }
+      return count;
+    }
+
+    @Override public long skip(long n) throws IOException {
+      long count = in.skip(n);
+      position += count;
+      return count;
+    }
+
+    @Override public void mark(int readlimit) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override public boolean markSupported() {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,50 @@
+package com.squareup.cascading2.scheme;
+
+import java.io.IOException;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordWriter;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.util.Progressable;
+
+/**
+ * Writes each BytesWritable value as a length-delimited record, with sync markers every
+ * {@code cascading2.protobuf.delimited.sync.interval} bytes so the files can be split. Output
+ * compression settings are ignored, since compressing the whole file would make it unsplittable.
+ */
+public class DelimitedProtobufOutputFormat extends FileOutputFormat<NullWritable, BytesWritable> {
+  @Override
+  public RecordWriter<NullWritable, BytesWritable> getRecordWriter(FileSystem ignored, JobConf job,
+      String name, Progressable progress) throws IOException {
+    Path file = FileOutputFormat.getTaskOutputPath(job, name);
+    FileSystem fs = file.getFileSystem(job);
+    int syncInterval = job.getInt(DelimitedProtobufFile.SYNC_INTERVAL,
+        DelimitedProtobufFile.DEFAULT_SYNC_INTERVAL);
+    return new DelimitedRecordWriter(fs.create(file, progress), syncInterval);
+  }
+
+  private static final class DelimitedRecordWriter
+      implements RecordWriter<NullWritable, BytesWritable> {
+    private final FSDataOutputStream out;
+    private final DelimitedProtobufFile.Writer writer;
+
+    DelimitedRecordWriter(FSDataOutputStream out, int syncInterval) throws IOException {
+      this.out = out;
+      writer = new DelimitedProtobufFile.Writer(out, syncInterval);
+    }
+
+    @Override public void write(NullWritable key, BytesWritable value) throws IOException {
+      writer.write(value.getBytes(), 0, value.getLength());
+    }
+
+    @Override public void close(Reporter reporter) throws IOException {
+      writer.flush();
+      out.close();
+    }
+  }
+}
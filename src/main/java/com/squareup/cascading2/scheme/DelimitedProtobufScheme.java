@@ -0,0 +1,76 @@
+package com.squareup.cascading2.scheme;
+
+import cascading.flow.FlowProcess;
+import cascading.tap.Tap;
+import com.google.protobuf.ExtensionRegistryLite;
+import com.google.protobuf.Message;
+import com.squareup.cascading2.util.DynamicMessageType;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.RecordReader;
+
+/**
+ * A scheme for files of length-delimited messages, the framing used by
+ * {@code Message.writeDelimitedTo} and ProtobufSerialization, instead of SequenceFiles. It takes
+ * the same record options as ProtobufScheme.
+ *
+ * Written files have sync markers every so often so they can be split across mappers; see {@link
+ * DelimitedProtobufInputFormat}. Plain delimited streams, as written by other services, can be read
+ * too, but each file goes to a single mapper. There's no compression or split combining, since
+ * either would stop files being split at their sync markers.
+ */
+public class DelimitedProtobufScheme extends RecordProtobufScheme<DelimitedProtobufScheme> {
+  private int syncInterval = DelimitedProtobufFile.DEFAULT_SYNC_INTERVAL;
+
+  public DelimitedProtobufScheme(String fieldName, Class<? extends Message> messageClass) {
+    super(fieldName, messageClass, null);
+  }
+
+  /**
+   * @deprecated ExtensionRegistries aren't Serializable, so schemes built with one can't be shipped
+   *     to tasks. Use {@link #setExtensions} instead.
+   */
+  @Deprecated
+  public DelimitedProtobufScheme(String fieldName, Class<? extends Message> messageClass,
+      ExtensionRegistryLite registry) {
+    super(fieldName, messageClass, registry);
+  }
+
+  public DelimitedProtobufScheme(String fieldName, DynamicMessageType messageType) {
+    super(fieldName, messageType, null);
+  }
+
+  /**
+   * The number of bytes written between sync markers. Smaller intervals cost a little space and let
+   * splits start closer to their nominal offsets.
+   */
+  public DelimitedProtobufScheme setSyncInterval(int bytes) {
+    if (bytes <= 0) {
+      throw new IllegalArgumentException("Sync interval must be positive, got " + bytes);
+    }
+    syncInterval = bytes;
+    return this;
+  }
+
+  @Override
+  public void sourceConfInit(FlowProcess<JobConf> flowProcess,
+      Tap<JobConf, RecordReader, OutputCollector> tap, JobConf conf) {
+    configureSerialization(conf);
+    // fail on the client rather than in every task
+    prefetchBuffers();
+    conf.setInputFormat(DelimitedProtobufInputFormat.class);
+  }
+
+  @Override
+  public void sinkConfInit(FlowProcess<JobConf> flowProcess,
+      Tap<JobConf, RecordReader, OutputCollector> tap, JobConf conf) {
+    configureSerialization(conf);
+    conf.setOutputKeyClass(NullWritable.class);
+    conf.setOutputValueClass(BytesWritable.class);
+
+    conf.setOutputFormat(DelimitedProtobufOutputFormat.class);
+    conf.setInt(DelimitedProtobufFile.SYNC_INTERVAL, syncInterval);
+  }
+}
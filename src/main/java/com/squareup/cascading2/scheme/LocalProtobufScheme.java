@@ -0,0 +1,143 @@
+package com.squareup.cascading2.scheme;
+
+import cascading.flow.FlowProcess;
+import cascading.scheme.Scheme;
+import cascading.scheme.SinkCall;
+import cascading.scheme.SourceCall;
+import cascading.tap.Tap;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.ExtensionRegistryLite;
+import com.google.protobuf.Message;
+import com.squareup.cascading2.util.ExtensionRegistries;
+import com.squareup.cascading2.util.Util;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+import org.apache.hadoop.io.BytesWritable;
+
+/**
+ * A local mode counterpart to {@link ProtobufScheme} and {@link DelimitedProtobufScheme}, for use
+ * with FileTap. Reads uncompressed SequenceFiles with BytesWritable values and delimited protobuf
+ * files by memory-mapping them, skipping the Hadoop RecordReader stack entirely. Writes delimited
+ * protobuf files with sync markers, which DelimitedProtobufScheme can read back on Hadoop.
+ */
+public class LocalProtobufScheme extends Scheme<Properties, InputStream, OutputStream, Object[], Object[]> {
+  private final String fieldName;
+  private final String messageClassName;
+  // only set by the deprecated constructor; see setExtensions
+  private final ExtensionRegistryLite registry;
+  private String[] extensionClassNames;
+
+  public LocalProtobufScheme(String fieldName, Class<? extends Message> messageClass) {
+    this(fieldName, messageClass, null);
+  }
+
+  /**
+   * @deprecated ExtensionRegistries aren't Serializable, so schemes built with one can't be
+   *     serialized along with the flow. Use {@link #setExtensions} instead.
+   */
+  @Deprecated
+  public LocalProtobufScheme(String fieldName, Class<? extends Message> messageClass,
+      ExtensionRegistryLite registry) {
+    super(new Fields(fieldName));
+    this.fieldName = fieldName;
+    messageClassName = messageClass.getName();
+    this.registry = registry;
+  }
+
+  /**
+   * Parse the extensions declared in {@code extensionClasses}, the outer classes generated for
+   * .proto files, as {@link ProtobufScheme#setExtensions} does.
+   */
+  public LocalProtobufScheme setExtensions(Class<?>... extensionClasses) {
+    if (registry != null) {
+      throw new IllegalStateException("This scheme already has an ExtensionRegistry");
+    }
+    String[] classNames = new String[extensionClasses.length];
+    for (int i = 0; i < extensionClasses.length; i++) {
+      classNames[i] = extensionClasses[i].getName();
+    }
+    ExtensionRegistries.forClassNames(classNames);
+    extensionClassNames = classNames;
+    return this;
+  }
+
+  @Override public void sourceConfInit(FlowProcess<Properties> flowProcess,
+      Tap<Properties, InputStream, OutputStream> tap, Properties conf) {
+  }
+
+  @Override public void sinkConfInit(FlowProcess<Properties> flowProcess,
+      Tap<Properties, InputStream, OutputStream> tap, Properties conf) {
+  }
+
+  @Override public void sourcePrepare(FlowProcess<Properties> flowProcess,
+      SourceCall<Object[], InputStream> sourceCall) throws IOException {
+    MappedProtobufFile file = new MappedProtobufFile(MappedProtobufFile.map(sourceCall.getInput()));
+    ExtensionRegistryLite extensions = extensionClassNames != null
+        ? ExtensionRegistries.forClassNames(extensionClassNames) : registry;
+    sourceCall.setContext(
+        new Object[] {file, Util.builderFromMessageClass(messageClassName), extensions});
+  }
+
+  @Override
+  public boolean source(FlowProcess<Properties> flowProcess,
+      SourceCall<Object[], InputStream> sourceCall) throws IOException {
+    Object[] context = sourceCall.getContext();
+    MappedProtobufFile file = (MappedProtobufFile) context[0];
+    if (!file.next()) {
+      return false;
+    }
+
+    Message.Builder builder = ((Message.Builder) context[1]).clear();
+    ExtensionRegistryLite extensions = (ExtensionRegistryLite) context[2];
+    if (extensions != null) {
+      builder.mergeFrom(file.getBytes(), 0, file.getLength(), extensions);
+    } else {
+      builder.mergeFrom(file.getBytes(), 0, file.getLength());
+    }
+
+    Tuple tuple = sourceCall.getIncomingEntry().getTuple();
+    tuple.clear();
+    tuple.add(builder.build());
+    return true;
+  }
+
+  @Override public void sourceCleanup(FlowProcess<Properties> flowProcess,
+      SourceCall<Object[], InputStream> sourceCall) {
+    // the mapping is released when it's garbage collected
+    sourceCall.setContext(null);
+  }
+
+  @Override public void sinkPrepare(FlowProcess<Properties> flowProcess,
+      SinkCall<Object[], OutputStream> sinkCall) throws IOException {
+    DelimitedProtobufFile.Writer writer = new DelimitedProtobufFile.Writer(sinkCall.getOutput(),
+        DelimitedProtobufFile.DEFAULT_SYNC_INTERVAL);
+    sinkCall.setContext(new Object[] {writer, new BytesWritable()});
+  }
+
+  @Override
+  public void sink(FlowProcess<Properties> flowProcess, SinkCall<Object[], OutputStream> sinkCall)
+      throws IOException {
+    Object[] context = sinkCall.getContext();
+    DelimitedProtobufFile.Writer writer = (DelimitedProtobufFile.Writer) context[0];
+    BytesWritable buffer = (BytesWritable) context[1];
+
+    Message message = (Message) sinkCall.getOutgoingEntry().getObject(fieldName);
+    int size = message.getSerializedSize();
+    buffer.setSize(size);
+    CodedOutputStream output = CodedOutputStream.newInstance(buffer.getBytes(), 0, size);
+    message.writeTo(output);
+    output.checkNoSpaceLeft();
+
+    writer.write(buffer.getBytes(), 0, size);
+  }
+
+  @Override public void sinkCleanup(FlowProcess<Properties> flowProcess,
+      SinkCall<Object[], OutputStream> sinkCall) throws IOException {
+    ((DelimitedProtobufFile.Writer) sinkCall.getContext()[0]).flush();
+    sinkCall.setContext(null);
+  }
+}
@@ -0,0 +1,212 @@
+package com.squareup.cascading2.scheme;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.BufferUnderflowException;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Reads the records of a protobuf file straight out of a memory-mapped buffer, without going
+ * through Hadoop's streams. Handles uncompressed SequenceFiles with BytesWritable values, the
+ * delimited files written by {@link DelimitedProtobufOutputFormat}, and plain delimited streams.
+ *
+ * Each record is copied from the mapping into a reused array, since protobuf can only parse from
+ * arrays and streams.
+ */
+final class MappedProtobufFile {
+  private static final byte[] SEQUENCE_FILE_MAGIC = {'S', 'E', 'Q'};
+  // both formats use 16 byte sync markers
+  private static final int SEQUENCE_FILE_SYNC_SIZE = DelimitedProtobufFile.SYNC_SIZE;
+
+  private final ByteBuffer buffer;
+  private final boolean sequenceFile;
+  // null for a plain delimited stream
+  private final byte[] syncMarker;
+  private final byte[] markerBuffer = new byte[SEQUENCE_FILE_SYNC_SIZE];
+  private byte[] bytes = new byte[64];
+  private int length;
+
+  MappedProtobufFile(ByteBuffer buffer) throws IOException {
+    this.buffer = buffer;
+    try {
+      if (startsWith(SEQUENCE_FILE_MAGIC)) {
+        sequenceFile = true;
+        syncMarker = readSequenceFileHeader();
+      } else {
+        sequenceFile = false;
+        if (startsWith(DelimitedProtobufFile.ESCAPE)) {
+          buffer.position(DelimitedProtobufFile.ESCAPE.length);
+          if (!startsWith(DelimitedProtobufFile.MAGIC)) {
+            throw new IOException("Not a delimited protobuf file: bad magic");
+          }
+          buffer.position(buffer.position() + DelimitedProtobufFile.MAGIC.length);
+          syncMarker = new byte[DelimitedProtobufFile.SYNC_SIZE];
+          buffer.get(syncMarker);
+        } else {
+          syncMarker = null;
+        }
+      }
+    } catch (BufferUnderflowException e) {
+      throw new IOException("Truncated file header");
+    }
+  }
+
+  /** Maps the rest of {@code input}, which has to be a file. */
+  static ByteBuffer map(InputStream input) throws IOException {
+    if (!(input instanceof FileInputStream)) {
+      throw new IOException("Can only map files, got a " + input.getClass().getName()
+          + "; LocalProtobufScheme only works with FileTap");
+    }
+    FileChannel channel = ((FileInputStream) input).getChannel();
+    long position = channel.position();
+    long size = channel.size() - position;
+    if (size > Integer.MAX_VALUE) {
+      throw new IOException("Can't map a " + size + " byte file, use Hfs for files over 2GB");
+    }
+    return channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+  }
+
+  /** Moves to the next record, returning false at the end of the file. */
+  boolean next() throws IOException {
+    try {
+      while (buffer.hasRemaining()) {
+        int recordLength = sequenceFile ? buffer.getInt() : readRawVarint32();
+
+        if (recordLength == -1 && syncMarker != null) {
+          buffer.get(markerBuffer);
+          if (!Arrays.equals(markerBuffer, syncMarker)) {
+            throw new IOException("Corrupt sync marker before " + buffer.position());
+          }
+          continue;
+        }
+        if (recordLength < 0) {
+          throw new IOException("Negative record length " + recordLength + " before " + buffer.position());
+        }
+
+        if (sequenceFile) {
+          // NullWritable keys are empty, and the value is a BytesWritable: its size, then its bytes
+          int keyLength = buffer.getInt();
+          buffer.position(buffer.position() + keyLength);
+          int valueLength = buffer.getInt();
+          if (keyLength + 4 + valueLength != recordLength) {
+            throw new IOException("Expected BytesWritable values, found a " + recordLength
+                + " byte record with a " + valueLength + " byte value");
+          }
+          read(valueLength);
+        } else {
+          read(recordLength);
+        }
+        return true;
+      }
+      return false;
+    } catch (BufferUnderflowException e) {
+      throw new IOException("Truncated record before " + buffer.position());
+    } catch (IllegalArgumentException e) {
+      // position() past the limit
+      throw new IOException("Truncated record before " + buffer.position());
+    }
+  }
+
+  /** The current record, valid until the next call to {@link #next}. */
+  byte[] getBytes() {
+    return bytes;
+  }
+
+  int getLength() {
+    return length;
+  }
+
+  private void read(int count) {
+    if (count > bytes.length) {
+      bytes = new byte[Math.max(count, bytes.length * 2)];
+    }
+    buffer.get(bytes, 0, count);
+    length = count;
+  }
+
+  private boolean startsWith(byte[] prefix) {
+    if (buffer.remaining() < prefix.length) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length; i++) {
+      if (buffer.get(buffer.position() + i) != prefix[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Follows SequenceFile.Reader's header parsing, returning the sync marker. */
+  private byte[] readSequenceFileHeader() throws IOException {
+    buffer.position(SEQUENCE_FILE_MAGIC.length);
+    int version = buffer.get();
+    if (version < 5 || version > 6) {
+      throw new IOException("Unsupported SequenceFile version " + version);
+    }
+
+    readText();
+    String valueClassName = readText();
+    if (!valueClassName.equals(BytesWritable.class.getName())) {
+      throw new IOException("Expected BytesWritable values, found " + valueClassName);
+    }
+    boolean compressed = buffer.get() != 0;
+    boolean blockCompressed = buffer.get() != 0;
+    if (compressed || blockCompressed) {
+      throw new IOException("Compressed SequenceFiles can't be mapped, use Hfs to read them");
+    }
+    if (version >= 6) {
+      int entries = buffer.getInt();
+      for (int i = 0; i < 2 * entries; i++) {
+        readText();
+      }
+    }
+
+    byte[] sync = new byte[SEQUENCE_FILE_SYNC_SIZE];
+    buffer.get(sync);
+    return sync;
+  }
+
+  /** Reads a Text as written by Text.writeString: a Hadoop vint length, then UTF-8. */
+  private String readText() throws IOException {
+    byte first = buffer.get();
+    int size = WritableUtils.decodeVIntSize(first);
+    long value;
+    if (size == 1) {
+      value = first;
+    } else {
+      value = 0;
+      for (int i = 0; i < size - 1; i++) {
+        value = (value << 8) | (buffer.get() & 0xFF);
+      }
+      if (WritableUtils.isNegativeVInt(first)) {
+        value = ~value;
+      }
+    }
+    if (value < 0 || value > buffer.remaining()) {
+      throw new IOException("Bad string length " + value + " in SequenceFile header");
+    }
+
+    byte[] utf8 = new byte[(int) value];
+    buffer.get(utf8);
+    return new String(utf8, "UTF-8");
+  }
+
+  private int readRawVarint32() throws IOException {
+    int result = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      byte b = buffer.get();
+      if (shift < 32) {
+        result |= (b & 0x7F) << shift;
+      }
+      if (b >= 0) {
+        return result;
+      }
+    }
+    throw new IOException("Malformed varint before " + buffer.position());
+  }
+}
@@ -0,0 +1,169 @@
+package com.squareup.cascading2.scheme;
+
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.Message;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A relative path with {@code {field1.field2}} placeholders that are filled in from a message's
+ * fields, like {@code dt={date}/tenant={tenant.id}}. Unset fields render as their default values,
+ * enums as their names, and any {@code /} or {@code %} in a value is escaped as {@code %2F} or
+ * {@code %25} so that each value stays within its own path segment. Instances are not
+ * thread-safe.
+ */
+final class PartitionTemplate {
+  static final String EMPTY_SEGMENT = "__empty__";
+
+  // literals[i] comes before fields[i], and the last literal comes after the last field
+  private final String[] literals;
+  private final Descriptors.FieldDescriptor[][] fields;
+  private final StringBuilder builder = new StringBuilder();
+
+  private PartitionTemplate(String[] literals, Descriptors.FieldDescriptor[][] fields) {
+    this.literals = literals;
+    this.fields = fields;
+  }
+
+  /** Parses {@code template} and resolves its placeholders against {@code descriptor}. */
+  static PartitionTemplate compile(String template, Descriptors.Descriptor descriptor) {
+    for (String segment : template.split("/", -1)) {
+      if (segment.isEmpty() || segment.equals(".") || segment.equals("..")
+          || segment.contains(":")) {
+        throw new IllegalArgumentException("Partition template must be a relative path within the "
+            + "output directory: " + template);
+      }
+    }
+
+    List<String> literals = new ArrayList<String>();
+    List<Descriptors.FieldDescriptor[]> fields = new ArrayList<Descriptors.FieldDescriptor[]>();
+    int pos = 0;
+    while (true) {
+      int open = template.indexOf('{', pos);
+      if (open < 0) {
+        literals.add(template.substring(pos));
+        break;
+      }
+      int close = template.indexOf('}', open);
+      if (close < 0) {
+        throw new IllegalArgumentException("Unclosed placeholder in partition template: " + template);
+      }
+      literals.add(template.substring(pos, open));
+      fields.add(resolve(template.substring(open + 1, close), descriptor));
+      pos = close + 1;
+    }
+
+    if (fields.isEmpty()) {
+      throw new IllegalArgumentException("Partition template has no placeholders: " + template);
+    }
+    return new PartitionTemplate(literals.toArray(new String[literals.size()]),
+        fields.toArray(new Descriptors.FieldDescriptor[fields.size()][]));
+  }
+
+  private static Descriptors.FieldDescriptor[] resolve(String path, Descriptors.Descriptor descriptor) {
+    String[] segments = path.split("\\.");
+    Descriptors.FieldDescriptor[] fields = new Descriptors.FieldDescriptor[segments.length];
+
+    Descriptors.Descriptor cur = descriptor;
+    for (int i = 0; i < segments.length; i++) {
+      Descriptors.FieldDescriptor fieldDesc = cur.findFieldByName(segments[i]);
+      if (fieldDesc == null) {
+        throw new IllegalArgumentException("Can't find a field named " + segments[i]
+            + " in struct " + cur.getName() + ". Full path: " + path);
+      }
+      if (fieldDesc.isRepeated()) {
+        throw new IllegalArgumentException("Field " + segments[i] + " in struct " + cur.getName()
+            + " is repeated, so it can't name a partition. Full path: " + path);
+      }
+
+      Descriptors.FieldDescriptor.JavaType type = fieldDesc.getJavaType();
+      boolean last = i == segments.length - 1;
+      if (last && (type == Descriptors.FieldDescriptor.JavaType.MESSAGE
+          || type == Descriptors.FieldDescriptor.JavaType.BYTE_STRING)) {
+        throw new IllegalArgumentException("Field " + segments[i] + " in struct " + cur.getName()
+            + " is a " + type + ", so it can't name a partition. Full path: " + path);
+      }
+      if (!last && type != Descriptors.FieldDescriptor.JavaType.MESSAGE) {
+        throw new IllegalArgumentException("Field " + segments[i] + " in struct " + cur.getName()
+            + " is not a message, so it has no fields to select. Full path: " + path);
+      }
+
+      fields[i] = fieldDesc;
+      if (!last) {
+        cur = fieldDesc.getMessageType();
+      }
+    }
+    return fields;
+  }
+
+  /** Fills in the template from {@code message}. */
+  String format(Message message) {
+    builder.setLength(0);
+    int segmentStart = 0;
+    for (int i = 0; i < fields.length; i++) {
+      segmentStart = appendLiteral(literals[i], segmentStart);
+      appendValue(valueOf(message, fields[i]));
+    }
+    segmentStart = appendLiteral(literals[fields.length], segmentStart);
+    escapeSegment(segmentStart);
+    return builder.toString();
+  }
+
+  /** Appends {@code literal}, and returns where the last segment it leaves open starts. */
+  private int appendLiteral(String literal, int segmentStart) {
+    for (int i = 0; i < literal.length(); i++) {
+      char c = literal.charAt(i);
+      if (c == '/') {
+        escapeSegment(segmentStart);
+        builder.append(c);
+        segmentStart = builder.length();
+      } else {
+        builder.append(c);
+      }
+    }
+    return segmentStart;
+  }
+
+  /**
+   * Replaces the segment from {@code start} to the end of the builder if it's empty, "." or "..".
+   * Literal segments are never any of those, so only values can make them.
+   */
+  private void escapeSegment(int start) {
+    int length = builder.length() - start;
+    if (length == 0) {
+      builder.append(EMPTY_SEGMENT);
+    } else if (length <= 2 && builder.charAt(start) == '.'
+        && (length == 1 || builder.charAt(start + 1) == '.')) {
+      builder.setLength(start);
+      builder.append(length == 1 ? "%2E" : "%2E%2E");
+    }
+  }
+
+  private static Object valueOf(Message message, Descriptors.FieldDescriptor[] path) {
+    Message cur = message;
+    for (int i = 0; i < path.length - 1; i++) {
+      cur = (Message) cur.getField(path[i]);
+    }
+    Object value = cur.getField(path[path.length - 1]);
+    if (value instanceof Descriptors.EnumValueDescriptor) {
+      return ((Descriptors.EnumValueDescriptor) value).getName();
+    }
+    return value;
+  }
+
+  private void appendValue(Object value) {
+    String string = value.toString();
+    for (int i = 0; i < string.length(); i++) {
+      char c = string.charAt(i);
+      if (c == '/') {
+        builder.append("%2F");
+      } else if (c == '%') {
+        builder.append("%25");
+      } else if (c == ':') {
+        builder.append("%3A");
+      } else {
+        builder.append(c);
+      }
+    }
+  }
+}
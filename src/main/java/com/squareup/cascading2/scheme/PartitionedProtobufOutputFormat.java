@@ -0,0 +1,110 @@
+package com.squareup.cascading2.scheme;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.SequenceFile.CompressionType;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordWriter;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.SequenceFileOutputFormat;
+import org.apache.hadoop.util.Progressable;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * Writes each BytesWritable value to a SequenceFile with NullWritable keys, like ProtobufScheme's,
+ * in the partition directory named by its key, relative to the output directory. Up to
+ * {@code cascading2.protobuf.partitioned.max.open} files are kept open; past that, the least
+ * recently used one is closed, and its partition gets a new file if it comes up again. Output
+ * compression settings apply as for SequenceFileOutputFormat.
+ */
+public class PartitionedProtobufOutputFormat extends FileOutputFormat<Text, BytesWritable> {
+  static final String MAX_OPEN_PARTITIONS = "cascading2.protobuf.partitioned.max.open";
+  static final int DEFAULT_MAX_OPEN_PARTITIONS = 64;
+
+  @Override
+  public RecordWriter<Text, BytesWritable> getRecordWriter(FileSystem ignored, JobConf job,
+      String name, Progressable progress) throws IOException {
+    CompressionType compressionType = CompressionType.NONE;
+    CompressionCodec codec = null;
+    if (getCompressOutput(job)) {
+      compressionType = SequenceFileOutputFormat.getOutputCompressionType(job);
+      codec = ReflectionUtils.newInstance(getOutputCompressorClass(job, DefaultCodec.class), job);
+    }
+    int maxOpen = job.getInt(MAX_OPEN_PARTITIONS, DEFAULT_MAX_OPEN_PARTITIONS);
+    // partitions go under the task's work directory, so they're committed along with the task
+    Path file = FileOutputFormat.getTaskOutputPath(job, name);
+    return new PartitionedRecordWriter(job, file, compressionType, codec, progress, maxOpen);
+  }
+
+  private static final class PartitionedRecordWriter implements RecordWriter<Text, BytesWritable> {
+    private final JobConf job;
+    private final FileSystem fs;
+    private final Path workPath;
+    private final String name;
+    private final CompressionType compressionType;
+    private final CompressionCodec codec;
+    private final Progressable progress;
+    private final int maxOpen;
+    // access ordered, so the first entry is the least recently used
+    private final LinkedHashMap<Text, SequenceFile.Writer> writers =
+        new LinkedHashMap<Text, SequenceFile.Writer>(16, 0.75f, true);
+    // the number of files opened for each partition, so reopened partitions get new files
+    private final Map<Text, Integer> fileCounts = new HashMap<Text, Integer>();
+
+    PartitionedRecordWriter(JobConf job, Path file, CompressionType compressionType,
+        CompressionCodec codec, Progressable progress, int maxOpen) throws IOException {
+      this.job = job;
+      fs = file.getFileSystem(job);
+      workPath = file.getParent();
+      name = file.getName();
+      this.compressionType = compressionType;
+      this.codec = codec;
+      this.progress = progress;
+      this.maxOpen = maxOpen;
+    }
+
+    @Override public void write(Text partition, BytesWritable value) throws IOException {
+      SequenceFile.Writer writer = writers.get(partition);
+      if (writer == null) {
+        if (writers.size() >= maxOpen) {
+          Iterator<SequenceFile.Writer> eldest = writers.values().iterator();
+          eldest.next().close();
+          eldest.remove();
+        }
+        // the key is reused by the caller
+        Text key = new Text(partition);
+        writer = open(key);
+        writers.put(key, writer);
+      }
+      writer.append(NullWritable.get(), value);
+    }
+
+    private SequenceFile.Writer open(Text partition) throws IOException {
+      Integer count = fileCounts.get(partition);
+      fileCounts.put(partition, count == null ? 1 : count + 1);
+      String fileName = count == null ? name : name + "-" + count;
+      Path file = new Path(new Path(workPath, partition.toString()), fileName);
+      return SequenceFile.createWriter(fs, job, file, NullWritable.class, BytesWritable.class,
+          compressionType, codec, progress);
+    }
+
+    @Override public void close(Reporter reporter) throws IOException {
+      for (SequenceFile.Writer writer : writers.values()) {
+        writer.close();
+      }
+      writers.clear();
+    }
+  }
+}
@@ -0,0 +1,80 @@
+package com.squareup.cascading2.scheme;
+
+import cascading.flow.FlowProcess;
+import cascading.tap.Tap;
+import com.google.protobuf.Message;
+import com.squareup.cascading2.util.DynamicMessageType;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.RecordReader;
+
+/**
+ * A sink-only ProtobufScheme that splits its output into subdirectories named after fields of
+ * each message, given by a template like {@code dt={date}/tenant={tenant.id}}. The partition is
+ * computed straight from the message, so the routing fields don't need to be extracted into
+ * tuple fields first, and each task writes every partition in one pass.
+ *
+ * Each partition directory holds ordinary ProtobufScheme SequenceFiles, so partitions are read
+ * back with ProtobufScheme, for example through a GlobHfs.
+ */
+public class PartitionedProtobufScheme extends ProtobufScheme {
+  private final String partitionTemplate;
+  private int maxOpenPartitions = PartitionedProtobufOutputFormat.DEFAULT_MAX_OPEN_PARTITIONS;
+
+  public PartitionedProtobufScheme(String fieldName, Class<? extends Message> messageClass,
+      String partitionTemplate) {
+    super(fieldName, messageClass);
+    this.partitionTemplate = partitionTemplate;
+    PartitionTemplate.compile(partitionTemplate, newBuilder().getDescriptorForType());
+  }
+
+  public PartitionedProtobufScheme(String fieldName, DynamicMessageType messageType,
+      String partitionTemplate) {
+    super(fieldName, messageType);
+    this.partitionTemplate = partitionTemplate;
+    PartitionTemplate.compile(partitionTemplate, newBuilder().getDescriptorForType());
+  }
+
+  /**
+   * The number of partition files each task keeps open at once. Past that, the least recently
+   * written one is closed, and its partition gets another file if it comes up again. Each open
+   * file costs a write buffer, plus a compression buffer when compressed.
+   */
+  public PartitionedProtobufScheme setMaxOpenPartitions(int maxOpenPartitions) {
+    if (maxOpenPartitions <= 0) {
+      throw new IllegalArgumentException("Max open partitions must be positive, got " + maxOpenPartitions);
+    }
+    this.maxOpenPartitions = maxOpenPartitions;
+    return this;
+  }
+
+  @Override public boolean isSource() {
+    return false;
+  }
+
+  @Override
+  public void sinkConfInit(FlowProcess<JobConf> flowProcess,
+      Tap<JobConf, RecordReader, OutputCollector> tap, JobConf conf) {
+    super.sinkConfInit(flowProcess, tap, conf);
+    conf.setOutputKeyClass(Text.class);
+    conf.setOutputFormat(PartitionedProtobufOutputFormat.class);
+    conf.setInt(PartitionedProtobufOutputFormat.MAX_OPEN_PARTITIONS, maxOpenPartitions);
+  }
+
+  @Override protected Object prepareSinkKey() {
+    // the template and the reused key
+    return new Object[] {
+        PartitionTemplate.compile(partitionTemplate, newBuilder().getDescriptorForType()),
+        new Text()
+    };
+  }
+
+  @Override protected Writable getSinkKey(Object sinkKeyContext, Message message) {
+    Object[] context = (Object[]) sinkKeyContext;
+    Text partition = (Text) context[1];
+    partition.set(((PartitionTemplate) context[0]).format(message));
+    return partition;
+  }
+}
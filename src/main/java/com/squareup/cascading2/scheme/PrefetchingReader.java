@@ -0,0 +1,205 @@
+package com.squareup.cascading2.scheme;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapred.RecordReader;
+
+/**
+ * Reads records on a background I/O thread into a bounded ring of reused value buffers, while a
+ * pool of background decoder threads turns them into messages. Reading, decoding and the task
+ * thread's own work all overlap, and records are still handed out in input order.
+ *
+ * The ring doubles as the reorder buffer: each record's position in the ring is its sequence
+ * number, decoders complete positions in whatever order they finish, and {@link #next()} hands
+ * them out strictly in ring order. So at most one ring's worth of raw records and decoded messages
+ * are held at a time, however many decoders there are. Instances are not thread-safe;
+ * {@link #next()} and {@link #close()} must be called from the same thread.
+ */
+final class PrefetchingReader {
+  /** Turns a raw record into what gets emitted for it. */
+  interface Decoder {
+    /**
+     * Returns the value to emit for the record in {@code value}, or null to drop the record. The
+     * buffer is reused once this returns, so the result must not refer to its bytes.
+     */
+    Object decode(BytesWritable value) throws IOException;
+  }
+
+  // marks the slot after the last record
+  private static final Object END = new Object();
+
+  private final RecordReader<NullWritable, BytesWritable> reader;
+  private final Slot[] ring;
+  // slots come back in ring order, since they're only freed in ring order
+  private final BlockingQueue<Slot> free;
+  private final BlockingQueue<Slot> read;
+  private final Thread ioThread;
+  private final Thread[] decoderThreads;
+  // the ring position of the next record to hand out
+  private int next;
+  private boolean finished;
+
+  /**
+   * @param bufferCount the size of the ring
+   * @param decoders one per decoder thread, since decoders aren't expected to be thread-safe
+   */
+  PrefetchingReader(RecordReader<NullWritable, BytesWritable> reader, int bufferCount,
+      Decoder... decoders) {
+    if (bufferCount <= 0) {
+      throw new IllegalArgumentException("Buffer count must be positive, got " + bufferCount);
+    }
+    if (decoders.length == 0) {
+      throw new IllegalArgumentException("At least one decoder is required");
+    }
+    this.reader = reader;
+    ring = new Slot[bufferCount];
+    free = new ArrayBlockingQueue<Slot>(bufferCount);
+    read = new ArrayBlockingQueue<Slot>(bufferCount);
+    for (int i = 0; i < bufferCount; i++) {
+      ring[i] = new Slot();
+      free.add(ring[i]);
+    }
+
+    ioThread = new Thread(new Runnable() {
+      @Override public void run() {
+        readRecords();
+      }
+    }, "protobuf-prefetch-io");
+    ioThread.setDaemon(true);
+    decoderThreads = new Thread[decoders.length];
+    for (int i = 0; i < decoders.length; i++) {
+      final Decoder decoder = decoders[i];
+      decoderThreads[i] = new Thread(new Runnable() {
+        @Override public void run() {
+          decodeRecords(decoder);
+        }
+      }, "protobuf-prefetch-decoder-" + i);
+      decoderThreads[i].setDaemon(true);
+    }
+
+    ioThread.start();
+    for (Thread thread : decoderThreads) {
+      thread.start();
+    }
+  }
+
+  /** Returns the next decoded record, or null once the input is exhausted. */
+  Object next() throws IOException {
+    while (!finished) {
+      Slot slot = ring[next];
+      Object result;
+      try {
+        result = slot.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for the next record");
+      } catch (IOException e) {
+        finished = true;
+        throw e;
+      }
+      if (result == END) {
+        finished = true;
+        break;
+      }
+
+      next = (next + 1) % ring.length;
+      free.add(slot);
+      if (result != null) {
+        return result;
+      }
+    }
+    return null;
+  }
+
+  /** Stops the background threads. The underlying RecordReader is left open. */
+  void close() {
+    finished = true;
+    ioThread.interrupt();
+    for (Thread thread : decoderThreads) {
+      thread.interrupt();
+    }
+    try {
+      ioThread.join();
+      for (Thread thread : decoderThreads) {
+        thread.join();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void readRecords() {
+    Slot slot = null;
+    try {
+      while (true) {
+        slot = free.take();
+        if (!reader.next(NullWritable.get(), slot.value)) {
+          slot.complete(END, null);
+          return;
+        }
+        read.put(slot);
+      }
+    } catch (InterruptedException e) {
+      // closed
+    } catch (Throwable t) {
+      slot.complete(null, t);
+    }
+  }
+
+  private void decodeRecords(Decoder decoder) {
+    try {
+      while (true) {
+        Slot slot = read.take();
+        try {
+          slot.complete(decoder.decode(slot.value), null);
+        } catch (Throwable t) {
+          slot.complete(null, t);
+        }
+      }
+    } catch (InterruptedException e) {
+      // closed
+    }
+  }
+
+  /** One position in the ring: a reused value buffer plus the outcome of decoding it. */
+  private static final class Slot {
+    final BytesWritable value = new BytesWritable();
+    private boolean done;
+    private Object result;
+    private Throwable error;
+
+    synchronized void complete(Object result, Throwable error) {
+      this.result = result;
+      this.error = error;
+      done = true;
+      notifyAll();
+    }
+
+    /** Waits for the slot to be completed, then resets it and returns its result. */
+    synchronized Object take() throws IOException, InterruptedException {
+      while (!done) {
+        wait();
+      }
+      done = false;
+      Object result = this.result;
+      Throwable error = this.error;
+      this.result = null;
+      this.error = null;
+
+      if (error instanceof IOException) {
+        throw (IOException) error;
+      } else if (error instanceof RuntimeException) {
+        throw (RuntimeException) error;
+      } else if (error instanceof Error) {
+        throw (Error) error;
+      } else if (error != null) {
+        throw new IOException(error);
+      }
+      return result;
+    }
+  }
+}
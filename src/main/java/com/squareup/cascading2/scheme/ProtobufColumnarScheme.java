@@ -0,0 +1,179 @@
+package com.squareup.cascading2.scheme;
+
+import cascading.flow.FlowProcess;
+import cascading.scheme.Scheme;
+import cascading.scheme.SinkCall;
+import cascading.scheme.SourceCall;
+import cascading.tap.Tap;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.Message;
+import com.squareup.cascading2.util.Util;
+import java.io.IOException;
+import java.util.List;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.RecordReader;
+
+/**
+ * A Scheme that stores Protocol Buffers messages column-striped by field, in row groups of a few
+ * megabytes each. See {@link ColumnLayout} for how messages are striped, and {@link
+ * ColumnarProtobufFile} for the file layout.
+ *
+ * When reading, only the columns needed for the given field1.field2.field3 paths are read from the
+ * files and decoded, and the emitted messages only have those fields set. Whole messages, including
+ * any fields the message class doesn't know about, are written back out as they were read.
+ */
+public class ProtobufColumnarScheme
+    extends Scheme<JobConf, RecordReader, OutputCollector, Object[], Object[]> {
+  public static final int DEFAULT_ROW_GROUP_BYTES = 8 * 1024 * 1024;
+
+  private final String fieldName;
+  private final String messageClassName;
+  private final String[] fieldPaths;
+  private int rowGroupBytes = DEFAULT_ROW_GROUP_BYTES;
+
+  /** Read and write whole messages. */
+  public ProtobufColumnarScheme(String fieldName, Class<? extends Message> messageClass) {
+    this(fieldName, messageClass, new String[0]);
+  }
+
+  /** Only read the given fields, in field1.field2.field3 syntax. Writes are not affected. */
+  public ProtobufColumnarScheme(String fieldName, Class<? extends Message> messageClass,
+      String... fieldPaths) {
+    super(new Fields(fieldName));
+    this.fieldName = fieldName;
+    messageClassName = messageClass.getName();
+    this.fieldPaths = fieldPaths;
+
+    Descriptors.Descriptor descriptor =
+        Util.builderFromMessageClass(messageClassName).getDescriptorForType();
+    new ColumnLayout(descriptor).select(descriptor, fieldPaths);
+  }
+
+  /**
+   * The encoded size at which a row group is written out. Row groups are buffered in memory, by
+   * both writers and readers, and larger ones mean fewer, longer reads of each column.
+   */
+  public ProtobufColumnarScheme setRowGroupBytes(int bytes) {
+    if (bytes <= 0) {
+      throw new IllegalArgumentException("Row group size must be positive, got " + bytes);
+    }
+    rowGroupBytes = bytes;
+    return this;
+  }
+
+  @Override
+  public void sourceConfInit(FlowProcess<JobConf> flowProcess,
+      Tap<JobConf, RecordReader, OutputCollector> tap, JobConf conf) {
+    conf.setInputFormat(ColumnarProtobufInputFormat.class);
+
+    Descriptors.Descriptor descriptor =
+        Util.builderFromMessageClass(messageClassName).getDescriptorForType();
+    List<ColumnLayout.Column> columns = selectColumns(new ColumnLayout(descriptor), descriptor);
+    String[] paths = new String[columns.size()];
+    for (int i = 0; i < paths.length; i++) {
+      paths[i] = columns.get(i).path;
+    }
+    conf.setStrings(ColumnarProtobufFile.COLUMNS, paths);
+  }
+
+  @Override
+  public void sinkConfInit(FlowProcess<JobConf> flowProcess,
+      Tap<JobConf, RecordReader, OutputCollector> tap, JobConf conf) {
+    conf.setOutputKeyClass(NullWritable.class);
+    conf.setOutputValueClass(BytesWritable.class);
+
+    conf.setOutputFormat(ColumnarProtobufOutputFormat.class);
+  }
+
+  @Override public void sourcePrepare(FlowProcess<JobConf> flowProcess,
+      SourceCall<Object[], RecordReader> sourceCall) {
+    Message.Builder builder = Util.builderFromMessageClass(messageClassName);
+    ColumnLayout layout = new ColumnLayout(builder.getDescriptorForType());
+    List<ColumnLayout.Column> columns = selectColumns(layout, builder.getDescriptorForType());
+
+    // the value, the builder, and the reader over the current row group, if any
+    sourceCall.setContext(
+        new Object[] {new BytesWritable(), builder, layout.new Reader(columns), null});
+  }
+
+  private List<ColumnLayout.Column> selectColumns(ColumnLayout layout,
+      Descriptors.Descriptor descriptor) {
+    return fieldPaths.length == 0 ? layout.getColumns() : layout.select(descriptor, fieldPaths);
+  }
+
+  @Override
+  public boolean source(FlowProcess<JobConf> flowProcess,
+      SourceCall<Object[], RecordReader> sourceCall) throws IOException {
+    Object[] context = sourceCall.getContext();
+    BytesWritable value = (BytesWritable) context[0];
+    Message.Builder builder = (Message.Builder) context[1];
+    ColumnLayout.Reader reader = (ColumnLayout.Reader) context[2];
+
+    builder.clear();
+    while (context[3] == null || !reader.next(builder)) {
+      if (!sourceCall.getInput().next(NullWritable.get(), value)) {
+        return false;
+      }
+      reader.reset(value.getBytes(), value.getLength());
+      context[3] = value;
+    }
+
+    Tuple tuple = sourceCall.getIncomingEntry().getTuple();
+    tuple.clear();
+    tuple.add(builder.buildPartial());
+    return true;
+  }
+
+  @Override public void sourceCleanup(FlowProcess<JobConf> flowProcess,
+      SourceCall<Object[], RecordReader> sourceCall) {
+    sourceCall.setContext(null);
+  }
+
+  @Override public void sinkPrepare(FlowProcess<JobConf> flowProcess,
+      SinkCall<Object[], OutputCollector> sinkCall) throws IOException {
+    Message.Builder builder = Util.builderFromMessageClass(messageClassName);
+    ColumnLayout layout = new ColumnLayout(builder.getDescriptorForType());
+    // the row group writer and a reused buffer to serialize each message into
+    sinkCall.setContext(new Object[] {layout.new Writer(), new BytesWritable()});
+  }
+
+  @Override
+  public void sink(FlowProcess<JobConf> flowProcess, SinkCall<Object[], OutputCollector> sinkCall)
+      throws IOException {
+    Object[] context = sinkCall.getContext();
+    ColumnLayout.Writer writer = (ColumnLayout.Writer) context[0];
+    BytesWritable buffer = (BytesWritable) context[1];
+
+    Message message = (Message) sinkCall.getOutgoingEntry().getObject(fieldName);
+    int size = message.getSerializedSize();
+    buffer.setSize(size);
+    CodedOutputStream output = CodedOutputStream.newInstance(buffer.getBytes(), 0, size);
+    message.writeTo(output);
+    output.checkNoSpaceLeft();
+
+    writer.add(buffer.getBytes(), size);
+    if (writer.getBufferedBytes() >= rowGroupBytes) {
+      writeRowGroup(writer, sinkCall.getOutput());
+    }
+  }
+
+  @Override public void sinkCleanup(FlowProcess<JobConf> flowProcess,
+      SinkCall<Object[], OutputCollector> sinkCall) throws IOException {
+    ColumnLayout.Writer writer = (ColumnLayout.Writer) sinkCall.getContext()[0];
+    if (writer.getRowCount() > 0) {
+      writeRowGroup(writer, sinkCall.getOutput());
+    }
+    sinkCall.setContext(null);
+  }
+
+  private static void writeRowGroup(ColumnLayout.Writer writer, OutputCollector output)
+      throws IOException {
+    output.collect(NullWritable.get(), new BytesWritable(writer.finishRowGroup()));
+  }
+}
@@ -1,20 +1,15 @@
 package com.squareup.cascading2.scheme;
 
 import cascading.flow.FlowProcess;
-import cascading.scheme.SinkCall;
-import cascading.scheme.SourceCall;
-import cascading.scheme.hadoop.SequenceFile;
 import cascading.tap.Tap;
-import cascading.tuple.Fields;
-import cascading.tuple.Tuple;
-import cascading.tuple.TupleEntry;
 import com.google.protobuf.ExtensionRegistryLite;
 import com.google.protobuf.Message;
-import com.squareup.cascading2.util.Util;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
+import com.squareup.cascading2.util.DynamicMessageType;
 import org.apache.hadoop.io.BytesWritable;
 import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile.CompressionType;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.mapred.FileOutputFormat;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.OutputCollector;
 import org.apache.hadoop.mapred.RecordReader;
@@ -24,78 +19,145 @@ import org.apache.hadoop.mapred.SequenceFileOutputFormat;
  * A Scheme that allows reading from and writing to Hadoop SequenceFiles that use NullWritable keys
  * and Protocol Buffers serialized objects wrapped in BytesWritable values.
  */
-public class ProtobufScheme extends SequenceFile {
-  private transient Message.Builder prototype;
-  private final String fieldName;
-  private final String messageClassName;
-  private final ExtensionRegistryLite registry;
+public class ProtobufScheme extends RecordProtobufScheme<ProtobufScheme> {
+  /**
+   * The counters reported for every source and sink. Parse and serialize times are estimated by
+   * timing a sample of the records, so they're only comparable to each other and to the task's run
+   * time. The largest record size is logged rather than counted; see CounterBatch.
+   */
+  public enum Counter {
+    RECORDS_READ, BYTES_READ, BYTES_PARSED, PARSE_NANOS,
+    RECORDS_WRITTEN, BYTES_WRITTEN, SERIALIZE_NANOS
+  }
+
+  // combined splits; 0 means one split per file block, as usual
+  private long maxCombinedSplitSize;
+  private long minCombinedSplitSizeNode;
+  private long minCombinedSplitSizeRack;
+  // sink compression; null means whatever the job is configured with
+  private CompressionType compressionType;
+  private String codecClassName;
+  private int compressionBlockSize;
 
   public ProtobufScheme(String fieldName, Class<? extends Message> messageClass) {
     this(fieldName, messageClass, null);
   }
 
+  /**
+   * @deprecated ExtensionRegistries aren't Serializable, so schemes built with one can't be shipped
+   *     to tasks. Use {@link #setExtensions} instead.
+   */
+  @Deprecated
   public ProtobufScheme(String fieldName, Class<? extends Message> messageClass, ExtensionRegistryLite registry) {
-    super(new Fields(fieldName));
-    this.fieldName = fieldName;
-    messageClassName = messageClass.getName();
-    this.registry = registry;
+    super(fieldName, messageClass, registry);
   }
 
-  @Override public void sourcePrepare(FlowProcess<JobConf> flowProcess,
-      SourceCall<Object[], RecordReader> sourceCall) {
+  /** Read and write {@link com.google.protobuf.DynamicMessage}s of the given type. */
+  public ProtobufScheme(String fieldName, DynamicMessageType messageType) {
+    this(fieldName, messageType, null);
   }
 
-  @Override
-  public void sinkConfInit(FlowProcess<JobConf> flowProcess,
-      Tap<JobConf, RecordReader, OutputCollector> tap, JobConf conf) {
-    conf.setOutputKeyClass(NullWritable.class);
-    conf.setOutputValueClass(BytesWritable.class);
+  /**
+   * @deprecated ExtensionRegistries aren't Serializable, so schemes built with one can't be shipped
+   *     to tasks.
+   */
+  @Deprecated
+  public ProtobufScheme(String fieldName, DynamicMessageType messageType, ExtensionRegistryLite registry) {
+    super(fieldName, messageType, registry);
+  }
 
-    conf.setOutputFormat(SequenceFileOutputFormat.class);
+  /**
+   * Pack many small input files into splits of up to {@code maxSplitSize} bytes, so that they're
+   * read by fewer mappers. Blocks are grouped by node first and then by rack, so mappers still read
+   * mostly local data.
+   */
+  public ProtobufScheme setCombineSplits(long maxSplitSize) {
+    return setCombineSplits(maxSplitSize, 0, 0);
   }
 
-  @Override
-  public boolean source(FlowProcess<JobConf> flowProcess,
-      SourceCall<Object[], RecordReader> sourceCall) throws IOException {
-    // TODO: cache this BytesWritable in the context
-    BytesWritable value = new BytesWritable();
-    boolean result = sourceCall.getInput().next(NullWritable.get(), value);
-
-    if (!result) return false;
-
-    Tuple tuple = sourceCall.getIncomingEntry().getTuple();
-    tuple.clear();
-
-    Message.Builder builder = getPrototype();
-    builder.clear();
-    if (registry != null) {
-      tuple.add(builder.mergeFrom(value.getBytes(), 0, value.getLength(), registry).build());
-    } else {
-      tuple.add(builder.mergeFrom(value.getBytes(), 0, value.getLength()).build());
-    }
+  /**
+   * Like {@link #setCombineSplits(long)}, but only makes node-local splits out of at least
+   * {@code minSplitSizeNode} bytes, and rack-local splits out of at least {@code minSplitSizeRack}
+   * bytes. Leftover blocks are combined across racks. Raising these trades locality for more
+   * evenly sized splits.
+   */
+  public ProtobufScheme setCombineSplits(long maxSplitSize, long minSplitSizeNode,
+      long minSplitSizeRack) {
+    CombinedProtobufInputFormat.checkSplitSizes(maxSplitSize, minSplitSizeNode, minSplitSizeRack);
+    maxCombinedSplitSize = maxSplitSize;
+    minCombinedSplitSizeNode = minSplitSizeNode;
+    minCombinedSplitSizeRack = minSplitSizeRack;
+    return this;
+  }
 
-    return true;
+  /**
+   * Compress written SequenceFiles with the job's default codec. BLOCK compresses batches of
+   * records together, which is usually much smaller than RECORD for protobufs, since the field tags
+   * and values repeat from record to record.
+   */
+  public ProtobufScheme setCompression(CompressionType compressionType) {
+    this.compressionType = compressionType;
+    return this;
+  }
+
+  /** Compress written SequenceFiles with {@code codec}. */
+  public ProtobufScheme setCompression(CompressionType compressionType,
+      Class<? extends CompressionCodec> codec) {
+    this.compressionType = compressionType;
+    codecClassName = codec.getName();
+    return this;
   }
 
-  private Message.Builder getPrototype() {
-    if (prototype == null) {
-      prototype = Util.builderFromMessageClass(messageClassName);
+  /**
+   * The number of bytes of records buffered into each compressed block when using BLOCK
+   * compression. Bigger blocks compress better but take more memory on both ends.
+   */
+  public ProtobufScheme setCompressionBlockSize(int bytes) {
+    if (bytes <= 0) {
+      throw new IllegalArgumentException("Compression block size must be positive, got " + bytes);
     }
-    return prototype;
+    compressionBlockSize = bytes;
+    return this;
   }
 
   @Override
-  public void sink(FlowProcess<JobConf> flowProcess, SinkCall<Void, OutputCollector> sinkCall)
-      throws IOException {
-    TupleEntry tupleEntry = sinkCall.getOutgoingEntry();
+  public void sourceConfInit(FlowProcess<JobConf> flowProcess,
+      Tap<JobConf, RecordReader, OutputCollector> tap, JobConf conf) {
+    super.sourceConfInit(flowProcess, tap, conf);
+    configureSerialization(conf);
+    // fail on the client rather than in every task
+    prefetchBuffers();
+
+    if (maxCombinedSplitSize > 0) {
+      CombinedProtobufInputFormat.configure(conf, maxCombinedSplitSize, minCombinedSplitSizeNode,
+          minCombinedSplitSizeRack);
+    }
+  }
+
+  @Override
+  public void sinkConfInit(FlowProcess<JobConf> flowProcess,
+      Tap<JobConf, RecordReader, OutputCollector> tap, JobConf conf) {
+    configureSerialization(conf);
+    conf.setOutputKeyClass(NullWritable.class);
+    conf.setOutputValueClass(BytesWritable.class);
 
-    Message message = (Message)tupleEntry.getObject(fieldName);
-    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-    message.writeTo(baos);
-    // TODO: cache this BytesWritable
-    BytesWritable outputWritable = new BytesWritable(baos.toByteArray());
+    conf.setOutputFormat(SequenceFileOutputFormat.class);
 
-    sinkCall.getOutput().collect(NullWritable.get(), outputWritable);
+    if (compressionType != null) {
+      FileOutputFormat.setCompressOutput(conf, compressionType != CompressionType.NONE);
+      SequenceFileOutputFormat.setOutputCompressionType(conf, compressionType);
+    }
+    if (codecClassName != null) {
+      try {
+        FileOutputFormat.setOutputCompressorClass(conf,
+            conf.getClassByName(codecClassName).asSubclass(CompressionCodec.class));
+      } catch (ClassNotFoundException e) {
+        throw new RuntimeException(e);
+      }
+    }
+    if (compressionBlockSize > 0) {
+      conf.setInt("io.seqfile.compress.blocksize", compressionBlockSize);
+    }
   }
 
   @Override
@@ -0,0 +1,382 @@
+package com.squareup.cascading2.scheme;
+
+import cascading.flow.FlowProcess;
+import cascading.scheme.SinkCall;
+import cascading.scheme.SourceCall;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.ExtensionRegistryLite;
+import com.google.protobuf.Message;
+import com.squareup.cascading2.util.DynamicMessageType;
+import com.squareup.cascading2.util.LazyMessage;
+import com.squareup.cascading2.util.Projection;
+import com.squareup.cascading2.util.Util;
+import com.squareup.cascading2.util.WirePredicate;
+import java.io.IOException;
+import java.util.Arrays;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.util.hash.MurmurHash;
+
+/**
+ * The Hadoop schemes that read and write each record as one whole message, whatever the file
+ * format: filtering, sampling and decoding records, emitting them eagerly or lazily, and
+ * serializing sunk messages. Subclasses set up the input and output formats, which have to produce
+ * and take BytesWritable values.
+ */
+public abstract class RecordProtobufScheme<S extends RecordProtobufScheme<S>>
+    extends BaseProtobufScheme<S> {
+  // slots in the source context, which is set up once per SourceCall and reused for every record
+  private static final int VALUE = 0;
+  private static final int DECODERS = 1;
+  private static final int PREFETCHER = 2;
+  // slots in the sink context, which likewise lives as long as its SinkCall
+  private static final int SINK_VALUE = 0;
+  private static final int SINK_COUNTERS = 1;
+  private static final int SINK_KEY = 2;
+
+  public static final int DEFAULT_BUFFERS_PER_THREAD = 4;
+
+  private boolean lazy;
+  private boolean passThrough;
+  private String[] projection;
+  private WirePredicate predicate;
+  // records whose hash is below the threshold are kept; -1 keeps everything
+  private long sampleThreshold = -1;
+  private int sampleSeed;
+  // records read ahead on background threads; 0 reads and decodes on the task thread, and -1
+  // means unset, see prefetchBuffers()
+  private int prefetchBuffers = -1;
+  private int decodeThreads = 1;
+
+  RecordProtobufScheme(String fieldName, Class<? extends Message> messageClass,
+      ExtensionRegistryLite registry) {
+    super(fieldName, messageClass, registry);
+  }
+
+  RecordProtobufScheme(String fieldName, DynamicMessageType messageType,
+      ExtensionRegistryLite registry) {
+    super(fieldName, messageType, registry);
+  }
+
+  /**
+   * When set, records are emitted as {@link LazyMessage}s that are only parsed on first field
+   * access, so records that get filtered out early or are written back out untouched are never
+   * decoded.
+   */
+  public S setLazy(boolean lazy) {
+    if (lazy && projection != null) {
+      throw new IllegalStateException("A scheme can't be both lazy and projected");
+    }
+    this.lazy = lazy;
+    return self();
+  }
+
+  /**
+   * When set, records are emitted as lazy messages that also keep their serialized bytes once
+   * parsed, see {@link LazyMessage}. Records that are read, filtered on and written back out
+   * unchanged, by this scheme or through the shuffle, are then copied byte for byte instead of
+   * being re-serialized. Implies {@link #setLazy}.
+   */
+  public S setPassThrough(boolean passThrough) {
+    if (passThrough && projection != null) {
+      throw new IllegalStateException("A scheme can't be both pass-through and projected");
+    }
+    this.passThrough = passThrough;
+    return self();
+  }
+
+  /**
+   * Only decode the fields named by {@code fieldPaths}, in field1.field2.field3 syntax. All other
+   * fields are skipped on the wire and the emitted messages only have the selected fields set.
+   * Since they're partial, required fields that weren't selected are not checked.
+   */
+  public S setProjection(String... fieldPaths) {
+    if (lazy || passThrough) {
+      String option = passThrough ? "pass-through" : "lazy";
+      throw new IllegalStateException("A scheme can't be both " + option + " and projected");
+    }
+    // validate the paths up front rather than on the cluster
+    Projection.of(newBuilder().getDescriptorForType(), fieldPaths);
+    projection = fieldPaths;
+    return self();
+  }
+
+  /**
+   * Only emit records that match {@code predicate}. The predicate is evaluated on the serialized
+   * record, so records that don't match are skipped without being decoded.
+   */
+  public S setPredicate(WirePredicate predicate) {
+    predicate.bind(newBuilder().getDescriptorForType());
+    this.predicate = predicate;
+    return self();
+  }
+
+  /**
+   * Only emit roughly {@code rate} of the records, chosen by hashing the serialized record with
+   * {@code seed}, so records that aren't sampled are never decoded. The choice only depends on the
+   * record's bytes and the seed, so reruns and retried tasks pick the same records, and identical
+   * records are either all kept or all dropped.
+   */
+  public S setSample(double rate, long seed) {
+    if (rate < 0 || rate > 1) {
+      throw new IllegalArgumentException("Sample rate must be between 0 and 1, got " + rate);
+    }
+    sampleThreshold = rate == 1 ? -1 : (long) (rate * (1L << 32));
+    sampleSeed = (int) (seed ^ (seed >>> 32));
+    return self();
+  }
+
+  /**
+   * Read and decode records on background threads, so that I/O and parsing overlap with each
+   * other and with the rest of the task. Up to {@code bufferCount} records are held in memory at a
+   * time, both raw and decoded. Records are still emitted in input order. 0 turns prefetching off,
+   * which can't be combined with {@link #setDecodeThreads} above 1, and with several decode threads
+   * there must be at least one buffer per thread.
+   */
+  public S setPrefetch(int bufferCount) {
+    if (bufferCount < 0) {
+      throw new IllegalArgumentException("Buffer count can't be negative, got " + bufferCount);
+    }
+    prefetchBuffers = bufferCount;
+    return self();
+  }
+
+  /**
+   * Decode records on {@code threads} background threads rather than one, for tasks that are
+   * bound on parsing and have cores to spare. Records are still emitted in input order. Unless
+   * {@link #setPrefetch} says otherwise, this prefetches {@value #DEFAULT_BUFFERS_PER_THREAD}
+   * records per thread, so that each thread has work queued up.
+   */
+  public S setDecodeThreads(int threads) {
+    if (threads <= 0) {
+      throw new IllegalArgumentException("Thread count must be positive, got " + threads);
+    }
+    decodeThreads = threads;
+    return self();
+  }
+
+  @Override public void sourcePrepare(FlowProcess<JobConf> flowProcess,
+      SourceCall<Object[], RecordReader> sourceCall) {
+    Object[] context = new Object[3];
+    if (predicate != null) {
+      predicate.bind(newBuilder().getDescriptorForType());
+    }
+    int bufferCount = prefetchBuffers();
+    // MessageDecoder is an inner class of a generic class, so its arrays need the wildcard
+    RecordProtobufScheme<?>.MessageDecoder[] decoders =
+        new RecordProtobufScheme<?>.MessageDecoder[bufferCount > 0 ? decodeThreads : 1];
+    for (int i = 0; i < decoders.length; i++) {
+      decoders[i] = new MessageDecoder(new CounterBatch(flowProcess));
+    }
+    context[DECODERS] = decoders;
+    if (bufferCount > 0) {
+      context[PREFETCHER] = new PrefetchingReader(sourceCall.getInput(), bufferCount, decoders);
+    } else {
+      context[VALUE] = new BytesWritable();
+    }
+    sourceCall.setContext(context);
+  }
+
+  @Override public void sourceCleanup(FlowProcess<JobConf> flowProcess,
+      SourceCall<Object[], RecordReader> sourceCall) {
+    Object[] context = sourceCall.getContext();
+    PrefetchingReader prefetcher = (PrefetchingReader) context[PREFETCHER];
+    if (prefetcher != null) {
+      // stops the decoder threads, so their counters can be flushed from here
+      prefetcher.close();
+    }
+    for (RecordProtobufScheme<?>.MessageDecoder decoder
+        : (RecordProtobufScheme<?>.MessageDecoder[]) context[DECODERS]) {
+      decoder.counters.flush();
+    }
+    sourceCall.setContext(null);
+  }
+
+  @Override
+  public boolean source(FlowProcess<JobConf> flowProcess,
+      SourceCall<Object[], RecordReader> sourceCall) throws IOException {
+    Object[] context = sourceCall.getContext();
+    Object message;
+    PrefetchingReader prefetcher = (PrefetchingReader) context[PREFETCHER];
+    if (prefetcher != null) {
+      message = prefetcher.next();
+      if (message == null) return false;
+    } else {
+      BytesWritable value = (BytesWritable) context[VALUE];
+      RecordProtobufScheme<?>.MessageDecoder decoder =
+          ((RecordProtobufScheme<?>.MessageDecoder[]) context[DECODERS])[0];
+      do {
+        boolean result = sourceCall.getInput().next(NullWritable.get(), value);
+
+        if (!result) return false;
+
+        message = decoder.decode(value);
+      } while (message == null);
+    }
+
+    Tuple tuple = sourceCall.getIncomingEntry().getTuple();
+    tuple.clear();
+    tuple.add(message);
+    return true;
+  }
+
+  /**
+   * The number of records to prefetch, from both {@link #setPrefetch} and
+   * {@link #setDecodeThreads} regardless of the order they were called in.
+   */
+  int prefetchBuffers() {
+    if (prefetchBuffers < 0) {
+      return decodeThreads > 1 ? DEFAULT_BUFFERS_PER_THREAD * decodeThreads : 0;
+    }
+    if (decodeThreads > 1 && prefetchBuffers == 0) {
+      throw new IllegalStateException(
+          decodeThreads + " decode threads need prefetching, but prefetch is set to 0");
+    }
+    if (prefetchBuffers > 0 && prefetchBuffers < decodeThreads) {
+      throw new IllegalStateException("Prefetch of " + prefetchBuffers
+          + " records would leave some of the " + decodeThreads + " decode threads idle");
+    }
+    return prefetchBuffers;
+  }
+
+  private boolean sampled(BytesWritable value) {
+    if (sampleThreshold < 0) {
+      return true;
+    }
+    int hash = MurmurHash.getInstance().hash(value.getBytes(), value.getLength(), sampleSeed);
+    return (hash & 0xFFFFFFFFL) < sampleThreshold;
+  }
+
+  /**
+   * Turns raw records into messages. Each decoding thread gets its own, since builders and
+   * projections hold per-record state.
+   */
+  private class MessageDecoder implements PrefetchingReader.Decoder {
+    private Message.Builder builder = newBuilder();
+    private final Projection boundProjection = projection == null
+        ? null : Projection.of(builder.getDescriptorForType(), projection);
+    private final ExtensionRegistryLite extensions = getRegistry();
+    private final CounterBatch counters;
+
+    MessageDecoder(CounterBatch counters) {
+      this.counters = counters;
+    }
+
+    /** Returns the message in {@code value}, or null if it isn't sampled or doesn't match. */
+    @Override public Object decode(BytesWritable value) throws IOException {
+      // the value is reused across records, so only its first getLength() bytes are meaningful
+      counters.recordRead(value.getLength());
+
+      if (!sampled(value)) return null;
+
+      if (predicate != null && !predicate.matches(value.getBytes(), 0, value.getLength())) {
+        return null;
+      }
+
+      if (lazy || passThrough) {
+        byte[] bytes = Arrays.copyOf(value.getBytes(), value.getLength());
+        return new LazyMessage(builder.getDefaultInstanceForType(), bytes, extensions, passThrough,
+            isPartial());
+      }
+
+      boolean timed = counters.timeNext();
+      long start = timed ? System.nanoTime() : 0;
+
+      builder = Util.clearForReuse(builder);
+      if (boundProjection != null) {
+        boundProjection.merge(value.getBytes(), 0, value.getLength(), builder, extensions);
+      } else if (extensions != null) {
+        builder.mergeFrom(value.getBytes(), 0, value.getLength(), extensions);
+      } else {
+        builder.mergeFrom(value.getBytes(), 0, value.getLength());
+      }
+      if (isDiscardUnknownFields()) {
+        Util.discardUnknownFields(builder);
+      }
+      // projected messages are partial by design
+      Message message = isPartial() || boundProjection != null
+          ? builder.buildPartial() : builder.build();
+
+      if (timed) {
+        counters.addParseNanos(System.nanoTime() - start);
+      }
+      counters.recordParsed(value.getLength());
+      return message;
+    }
+  }
+
+  @Override public void sinkPrepare(FlowProcess<JobConf> flowProcess,
+      SinkCall<Void, OutputCollector> sinkCall) throws IOException {
+    Object[] context = new Object[3];
+    context[SINK_VALUE] = new BytesWritable();
+    context[SINK_COUNTERS] = new CounterBatch(flowProcess);
+    context[SINK_KEY] = prepareSinkKey();
+    setSinkContext(sinkCall, context);
+  }
+
+  @Override
+  public void sink(FlowProcess<JobConf> flowProcess, SinkCall<Void, OutputCollector> sinkCall)
+      throws IOException {
+    Object[] context = getSinkContext(sinkCall);
+    BytesWritable value = (BytesWritable) context[SINK_VALUE];
+    CounterBatch counters = (CounterBatch) context[SINK_COUNTERS];
+    TupleEntry tupleEntry = sinkCall.getOutgoingEntry();
+
+    Message message = (Message)tupleEntry.getObject(getFieldName());
+    boolean timed = counters.timeNext();
+    long start = timed ? System.nanoTime() : 0;
+
+    // size the reused value up front and serialize straight into its backing array. LazyMessages
+    // that still have their bytes just copy them.
+    int size = message.getSerializedSize();
+    value.setSize(size);
+    CodedOutputStream output = CodedOutputStream.newInstance(value.getBytes(), 0, size);
+    message.writeTo(output);
+    output.checkNoSpaceLeft();
+
+    if (timed) {
+      counters.addSerializeNanos(System.nanoTime() - start);
+    }
+    sinkCall.getOutput().collect(getSinkKey(context[SINK_KEY], message), value);
+    counters.recordWritten(size);
+  }
+
+  /**
+   * Returns whatever {@link #getSinkKey} reuses across records. It's made once per SinkCall, since
+   * a scheme instance can sink to several taps at once.
+   */
+  protected Object prepareSinkKey() {
+    return null;
+  }
+
+  /**
+   * The key to write {@code message} under, given this SinkCall's {@link #prepareSinkKey}. The
+   * value is always its serialized form.
+   */
+  protected Writable getSinkKey(Object sinkKeyContext, Message message) {
+    return NullWritable.get();
+  }
+
+  @Override public void sinkCleanup(FlowProcess<JobConf> flowProcess,
+      SinkCall<Void, OutputCollector> sinkCall) throws IOException {
+    ((CounterBatch) getSinkContext(sinkCall)[SINK_COUNTERS]).flush();
+    setSinkContext(sinkCall, null);
+  }
+
+  // SequenceFile fixes the sink context to Void, but Cascading only hands the context back to this
+  // scheme, so it holds the sink state anyway. The raw SinkCall avoids a cast to Void.
+  @SuppressWarnings("unchecked")
+  private static void setSinkContext(SinkCall<Void, OutputCollector> sinkCall, Object[] context) {
+    ((SinkCall) sinkCall).setContext(context);
+  }
+
+  private static Object[] getSinkContext(SinkCall<Void, OutputCollector> sinkCall) {
+    return (Object[]) ((SinkCall) sinkCall).getContext();
+  }
+}
@@ -0,0 +1,99 @@
+package com.squareup.cascading2.scheme;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.ExtensionRegistryLite;
+import com.google.protobuf.Message;
+import com.google.protobuf.WireFormat;
+import java.io.IOException;
+
+/**
+ * Hands out the elements of a repeated message field one at a time, straight from a serialized
+ * message, without parsing the rest of the message. The field is given as a path of field numbers,
+ * outermost first, where every field but the last is a singular message field. Every occurrence of
+ * the messages along the path is searched, so the elements come out in the same order a parser
+ * would merge them. Instances are not thread-safe.
+ */
+final class RepeatedFieldReader {
+  private final int[] path;
+  // the enclosing limit to restore when leaving each level of the path
+  private final int[] oldLimits;
+  private final ExtensionRegistryLite registry;
+  private CodedInputStream input;
+  private int depth;
+
+  RepeatedFieldReader(int[] path, ExtensionRegistryLite registry) {
+    this.path = path;
+    oldLimits = new int[path.length];
+    this.registry = registry == null ? ExtensionRegistryLite.getEmptyRegistry() : registry;
+  }
+
+  /**
+   * Resolves a path like {@code order.line_items} against {@code descriptor}, and returns the
+   * field numbers along it.
+   */
+  static int[] resolve(String fieldPath, Descriptors.Descriptor descriptor) {
+    String[] segments = fieldPath.split("\\.");
+    int[] path = new int[segments.length];
+
+    Descriptors.Descriptor cur = descriptor;
+    for (int i = 0; i < segments.length; i++) {
+      Descriptors.FieldDescriptor fieldDesc = cur.findFieldByName(segments[i]);
+      if (fieldDesc == null) {
+        throw new IllegalArgumentException("Can't find a field named " + segments[i]
+            + " in struct " + cur.getName() + ". Full path: " + fieldPath);
+      }
+      // groups are delimited by end tags rather than lengths, so they can't be entered this way
+      if (fieldDesc.getType() != Descriptors.FieldDescriptor.Type.MESSAGE) {
+        throw new IllegalArgumentException("Field " + segments[i] + " in struct " + cur.getName()
+            + " is not a message. Full path: " + fieldPath);
+      }
+      boolean last = i == segments.length - 1;
+      if (last != fieldDesc.isRepeated()) {
+        throw new IllegalArgumentException("Field " + segments[i] + " in struct " + cur.getName()
+            + (last ? " is not repeated" : " is repeated") + ", but only the last field of the "
+            + "path can be. Full path: " + fieldPath);
+      }
+
+      path[i] = fieldDesc.getNumber();
+      cur = fieldDesc.getMessageType();
+    }
+    return path;
+  }
+
+  /** Starts reading the elements of the message serialized in {@code bytes[0, length)}. */
+  void reset(byte[] bytes, int length) {
+    input = CodedInputStream.newInstance(bytes, 0, length);
+    depth = 0;
+  }
+
+  /**
+   * Merges the next element into {@code builder}, which should be empty.
+   *
+   * @return false if there are no elements left
+   */
+  boolean next(Message.Builder builder) throws IOException {
+    while (true) {
+      int tag = input.readTag();
+      if (tag == 0) {
+        // the end of the message, or of the current level of the path
+        if (depth == 0) {
+          return false;
+        }
+        input.popLimit(oldLimits[--depth]);
+        continue;
+      }
+
+      if ((tag >>> 3) == path[depth] && (tag & 7) == WireFormat.WIRETYPE_LENGTH_DELIMITED) {
+        if (depth == path.length - 1) {
+          input.readMessage(builder, registry);
+          return true;
+        }
+        int length = input.readRawVarint32();
+        oldLimits[depth++] = input.pushLimit(length);
+      } else {
+        input.skipField(tag);
+      }
+    }
+  }
+}
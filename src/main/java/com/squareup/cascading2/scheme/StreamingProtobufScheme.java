@@ -0,0 +1,138 @@
+package com.squareup.cascading2.scheme;
+
+import cascading.flow.FlowProcess;
+import cascading.scheme.SourceCall;
+import cascading.tap.Tap;
+import cascading.tuple.Tuple;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.Message;
+import com.squareup.cascading2.util.DynamicMessageType;
+import com.squareup.cascading2.util.Util;
+import java.io.IOException;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.RecordReader;
+
+/**
+ * A source-only scheme for very large messages, such as snapshots of a whole table in one
+ * record. Rather than one tuple per message, it emits one tuple per element of a repeated message
+ * field, given as a path like {@code snapshot.rows}, and each element is parsed only when its tuple
+ * is emitted. The rest of the message is skipped without being parsed.
+ *
+ * Each SequenceFile value is still read into memory as a whole, but only one element is parsed at
+ * a time, so the heap needed is the size of the serialized value rather than several times that
+ * for the parsed object graph. Unlike parsing from a stream, this isn't subject to protobuf's 64MB
+ * message size limit. Extensions, partial messages, discarding unknown fields and combined splits
+ * apply as for ProtobufScheme, the first three to each element. The options that work on whole
+ * records, like projections and prefetching, aren't available.
+ */
+public class StreamingProtobufScheme extends BaseProtobufScheme<StreamingProtobufScheme> {
+  // slots in the source context
+  private static final int VALUE = 0;
+  private static final int READER = 1;
+  private static final int BUILDER = 2;
+  private static final int COUNTERS = 3;
+
+  private final String repeatedFieldPath;
+  // combined splits; 0 means one split per file block, as usual
+  private long maxCombinedSplitSize;
+  private long minCombinedSplitSizeNode;
+  private long minCombinedSplitSizeRack;
+
+  public StreamingProtobufScheme(String fieldName, Class<? extends Message> messageClass,
+      String repeatedFieldPath) {
+    super(fieldName, messageClass, null);
+    this.repeatedFieldPath = repeatedFieldPath;
+    RepeatedFieldReader.resolve(repeatedFieldPath, newBuilder().getDescriptorForType());
+  }
+
+  public StreamingProtobufScheme(String fieldName, DynamicMessageType messageType,
+      String repeatedFieldPath) {
+    super(fieldName, messageType, null);
+    this.repeatedFieldPath = repeatedFieldPath;
+    RepeatedFieldReader.resolve(repeatedFieldPath, newBuilder().getDescriptorForType());
+  }
+
+  /** See {@link ProtobufScheme#setCombineSplits(long)}. */
+  public StreamingProtobufScheme setCombineSplits(long maxSplitSize) {
+    return setCombineSplits(maxSplitSize, 0, 0);
+  }
+
+  /** See {@link ProtobufScheme#setCombineSplits(long, long, long)}. */
+  public StreamingProtobufScheme setCombineSplits(long maxSplitSize, long minSplitSizeNode,
+      long minSplitSizeRack) {
+    CombinedProtobufInputFormat.checkSplitSizes(maxSplitSize, minSplitSizeNode, minSplitSizeRack);
+    maxCombinedSplitSize = maxSplitSize;
+    minCombinedSplitSizeNode = minSplitSizeNode;
+    minCombinedSplitSizeRack = minSplitSizeRack;
+    return this;
+  }
+
+  @Override public boolean isSink() {
+    return false;
+  }
+
+  @Override
+  public void sourceConfInit(FlowProcess<JobConf> flowProcess,
+      Tap<JobConf, RecordReader, OutputCollector> tap, JobConf conf) {
+    super.sourceConfInit(flowProcess, tap, conf);
+    configureSerialization(conf);
+
+    if (maxCombinedSplitSize > 0) {
+      CombinedProtobufInputFormat.configure(conf, maxCombinedSplitSize, minCombinedSplitSizeNode,
+          minCombinedSplitSizeRack);
+    }
+  }
+
+  @Override public void sourcePrepare(FlowProcess<JobConf> flowProcess,
+      SourceCall<Object[], RecordReader> sourceCall) {
+    Message.Builder builder = newBuilder();
+    int[] path = RepeatedFieldReader.resolve(repeatedFieldPath, builder.getDescriptorForType());
+    for (String segment : repeatedFieldPath.split("\\.")) {
+      Descriptors.FieldDescriptor fieldDesc = builder.getDescriptorForType().findFieldByName(segment);
+      builder = builder.newBuilderForField(fieldDesc);
+    }
+
+    RepeatedFieldReader reader = new RepeatedFieldReader(path, getRegistry());
+    // nothing to hand out until the first record is read
+    reader.reset(new byte[0], 0);
+
+    Object[] context = new Object[4];
+    context[VALUE] = new BytesWritable();
+    context[READER] = reader;
+    context[BUILDER] = builder;
+    context[COUNTERS] = new CounterBatch(flowProcess);
+    sourceCall.setContext(context);
+  }
+
+  @Override public void sourceCleanup(FlowProcess<JobConf> flowProcess,
+      SourceCall<Object[], RecordReader> sourceCall) {
+    ((CounterBatch) sourceCall.getContext()[COUNTERS]).flush();
+    sourceCall.setContext(null);
+  }
+
+  @Override
+  public boolean source(FlowProcess<JobConf> flowProcess,
+      SourceCall<Object[], RecordReader> sourceCall) throws IOException {
+    Object[] context = sourceCall.getContext();
+    BytesWritable value = (BytesWritable) context[VALUE];
+    RepeatedFieldReader reader = (RepeatedFieldReader) context[READER];
+    Message.Builder builder = Util.clearForReuse((Message.Builder) context[BUILDER]);
+    context[BUILDER] = builder;
+    CounterBatch counters = (CounterBatch) context[COUNTERS];
+
+    // records with no elements are skipped
+    while (!reader.next(builder)) {
+      if (!sourceCall.getInput().next(NullWritable.get(), value)) return false;
+      counters.recordRead(value.getLength());
+      reader.reset(value.getBytes(), value.getLength());
+    }
+
+    Tuple tuple = sourceCall.getIncomingEntry().getTuple();
+    tuple.clear();
+    tuple.add(build(builder));
+    return true;
+  }
+}
@@ -0,0 +1,390 @@
+package com.squareup.cascading2.serialization;
+
+import cascading.tuple.Hasher;
+import cascading.tuple.StreamComparator;
+import cascading.tuple.hadoop.io.BufferedInputStream;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+import com.google.protobuf.WireFormat;
+import com.squareup.cascading2.util.DynamicMessageType;
+import com.squareup.cascading2.util.Util;
+import com.squareup.cascading2.util.WireFields;
+import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.util.Comparator;
+import org.apache.hadoop.io.WritableComparator;
+
+/**
+ * Orders messages by the values of some of their fields, in the order the fields are given, so a
+ * GroupBy can group and secondary-sort on message fields without extracting them into tuple fields
+ * first. Set it on the grouping or sorting field with {@code Fields.setComparator}. In the shuffle,
+ * the fields are read straight from the serialized keys, which are never parsed.
+ *
+ * Fields are given as field1.field2 paths through singular message fields, ending at a singular
+ * scalar, enum, string or bytes field. Numbers compare numerically, with unsigned types compared
+ * as unsigned and floating point values ordered as by Double.compare. Enums compare by number,
+ * strings by code point and bytes as unsigned bytes. Unset fields compare as their default
+ * values. Messages that differ only in other fields compare as equal, so they're grouped together.
+ *
+ * Keys must be ProtobufSerialization messages rather than LazyMessages, whose serialized form
+ * can't be compared as a stream.
+ */
+public class ProtobufFieldComparator implements Comparator<Message>,
+    StreamComparator<BufferedInputStream>, Hasher<Message>, Serializable {
+  // exactly one of these is set
+  private final String messageClassName;
+  private final DynamicMessageType dynamicType;
+  private final String[] fieldPaths;
+  private transient SortField[] fields;
+
+  public ProtobufFieldComparator(Class<? extends Message> messageClass, String... fieldPaths) {
+    messageClassName = messageClass.getName();
+    dynamicType = null;
+    this.fieldPaths = fieldPaths.clone();
+    getFields();
+  }
+
+  public ProtobufFieldComparator(DynamicMessageType messageType, String... fieldPaths) {
+    messageClassName = null;
+    dynamicType = messageType;
+    this.fieldPaths = fieldPaths.clone();
+    getFields();
+  }
+
+  private SortField[] getFields() {
+    if (fields == null) {
+      if (fieldPaths.length == 0) {
+        throw new IllegalArgumentException("At least one field to compare by is required");
+      }
+      Descriptors.Descriptor descriptor = dynamicType != null
+          ? dynamicType.getDescriptor()
+          : Util.builderFromMessageClass(messageClassName).getDescriptorForType();
+      SortField[] resolved = new SortField[fieldPaths.length];
+      for (int i = 0; i < fieldPaths.length; i++) {
+        resolved[i] = new SortField(fieldPaths[i], descriptor);
+      }
+      fields = resolved;
+    }
+    return fields;
+  }
+
+  @Override public int compare(Message message, Message message1) {
+    for (SortField field : getFields()) {
+      Object lhs = field.valueOf(message);
+      Object rhs = field.valueOf(message1);
+      int result;
+      switch (field.type.getJavaType()) {
+        case STRING:
+          result = compareCodePoints((String) lhs, (String) rhs);
+          break;
+        case BYTE_STRING:
+          result = compareByteStrings((ByteString) lhs, (ByteString) rhs);
+          break;
+        default:
+          result = compareLongs(field.toSortable(lhs), field.toSortable(rhs));
+      }
+      if (result != 0) {
+        return result;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Compares the delimited messages at the current positions of the streams in place, and leaves
+   * each stream after its message, as the tuple comparator expects.
+   */
+  @Override public int compare(BufferedInputStream lhs, BufferedInputStream rhs) {
+    try {
+      byte[] lhsBuffer = lhs.getBuffer();
+      int lhsPos = lhs.getPosition();
+      int lhsLen = WireFields.readLength(lhsBuffer, lhsPos, lhs.getLength());
+      int lhsStart = lhsPos + CodedOutputStream.computeRawVarint32Size(lhsLen);
+
+      byte[] rhsBuffer = rhs.getBuffer();
+      int rhsPos = rhs.getPosition();
+      int rhsLen = WireFields.readLength(rhsBuffer, rhsPos, rhs.getLength());
+      int rhsStart = rhsPos + CodedOutputStream.computeRawVarint32Size(rhsLen);
+
+      lhs.skip(lhsStart + lhsLen - lhsPos);
+      rhs.skip(rhsStart + rhsLen - rhsPos);
+      return compare(lhsBuffer, lhsStart, lhsStart + lhsLen, rhsBuffer, rhsStart, rhsStart + rhsLen);
+    } catch (InvalidProtocolBufferException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Compares the messages serialized in {@code lhs[lhsStart, lhsEnd)} and
+   * {@code rhs[rhsStart, rhsEnd)}.
+   */
+  public int compare(byte[] lhs, int lhsStart, int lhsEnd, byte[] rhs, int rhsStart, int rhsEnd)
+      throws InvalidProtocolBufferException {
+    for (SortField field : getFields()) {
+      int lhsPos = WireFields.find(lhs, lhsStart, lhsEnd, field.path, field.wireType);
+      int rhsPos = WireFields.find(rhs, rhsStart, rhsEnd, field.path, field.wireType);
+      int result;
+      if (field.wireType == WireFormat.WIRETYPE_LENGTH_DELIMITED) {
+        result = field.compareBytes(lhs, lhsPos, lhsEnd, rhs, rhsPos, rhsEnd);
+      } else {
+        result = compareLongs(field.readSortable(lhs, lhsPos), field.readSortable(rhs, rhsPos));
+      }
+      if (result != 0) {
+        return result;
+      }
+    }
+    return 0;
+  }
+
+  /** Hashes only the compared fields, so that messages that compare as equal hash the same. */
+  @Override public int hashCode(Message message) {
+    int hash = 1;
+    for (SortField field : getFields()) {
+      Object value = field.valueOf(message);
+      int fieldHash;
+      switch (field.type.getJavaType()) {
+        case STRING:
+          String string = (String) value;
+          fieldHash = 0;
+          for (int i = 0; i < string.length(); ) {
+            int codePoint = string.codePointAt(i);
+            fieldHash = 31 * fieldHash + codePoint;
+            i += Character.charCount(codePoint);
+          }
+          break;
+        case BYTE_STRING:
+          ByteString bytes = (ByteString) value;
+          fieldHash = 0;
+          for (int i = 0; i < bytes.size(); i++) {
+            fieldHash = 31 * fieldHash + (bytes.byteAt(i) & 0xFF);
+          }
+          break;
+        default:
+          long sortable = field.toSortable(value);
+          fieldHash = (int) (sortable ^ (sortable >>> 32));
+      }
+      hash = 31 * hash + fieldHash;
+    }
+    return hash;
+  }
+
+  private static int compareLongs(long lhs, long rhs) {
+    return lhs < rhs ? -1 : (lhs == rhs ? 0 : 1);
+  }
+
+  // the same order as their UTF-8 encodings, which String.compareTo isn't for supplementary
+  // characters
+  private static int compareCodePoints(String lhs, String rhs) {
+    int i = 0;
+    int j = 0;
+    while (i < lhs.length() && j < rhs.length()) {
+      int lhsCodePoint = lhs.codePointAt(i);
+      int rhsCodePoint = rhs.codePointAt(j);
+      if (lhsCodePoint != rhsCodePoint) {
+        return lhsCodePoint < rhsCodePoint ? -1 : 1;
+      }
+      i += Character.charCount(lhsCodePoint);
+      j += Character.charCount(rhsCodePoint);
+    }
+    return compareLongs(lhs.length() - i, rhs.length() - j);
+  }
+
+  private static int compareByteStrings(ByteString lhs, ByteString rhs) {
+    int length = Math.min(lhs.size(), rhs.size());
+    for (int i = 0; i < length; i++) {
+      int lhsByte = lhs.byteAt(i) & 0xFF;
+      int rhsByte = rhs.byteAt(i) & 0xFF;
+      if (lhsByte != rhsByte) {
+        return lhsByte < rhsByte ? -1 : 1;
+      }
+    }
+    return compareLongs(lhs.size(), rhs.size());
+  }
+
+  /**
+   * One of the fields to compare by. Numeric values, enums and bools are mapped to longs whose
+   * signed order is the order of the values.
+   */
+  private static final class SortField {
+    private final Descriptors.FieldDescriptor[] descriptors;
+    private final int[] path;
+    private final Descriptors.FieldDescriptor.Type type;
+    private final int wireType;
+    // what unset fields compare as
+    private final long defaultSortable;
+    private final byte[] defaultBytes;
+
+    SortField(String fieldPath, Descriptors.Descriptor descriptor) {
+      String[] segments = fieldPath.split("\\.");
+      descriptors = new Descriptors.FieldDescriptor[segments.length];
+      path = new int[segments.length];
+
+      Descriptors.Descriptor cur = descriptor;
+      for (int i = 0; i < segments.length; i++) {
+        Descriptors.FieldDescriptor fieldDesc = cur.findFieldByName(segments[i]);
+        if (fieldDesc == null) {
+          throw new IllegalArgumentException("Can't find a field named " + segments[i]
+              + " in struct " + cur.getName() + ". Full path: " + fieldPath);
+        }
+        if (fieldDesc.isRepeated()) {
+          throw new IllegalArgumentException("Field " + segments[i] + " in struct " + cur.getName()
+              + " is repeated, so it can't be compared by. Full path: " + fieldPath);
+        }
+
+        boolean last = i == segments.length - 1;
+        boolean message = fieldDesc.getJavaType() == Descriptors.FieldDescriptor.JavaType.MESSAGE;
+        if (last && message) {
+          throw new IllegalArgumentException("Field " + segments[i] + " in struct " + cur.getName()
+              + " is a message, so it can't be compared by. Full path: " + fieldPath);
+        }
+        // groups are delimited by end tags rather than lengths, so they can't be searched
+        if (!last && fieldDesc.getType() != Descriptors.FieldDescriptor.Type.MESSAGE) {
+          throw new IllegalArgumentException("Field " + segments[i] + " in struct " + cur.getName()
+              + " is not a message, so it has no fields to select. Full path: " + fieldPath);
+        }
+
+        descriptors[i] = fieldDesc;
+        path[i] = fieldDesc.getNumber();
+        if (!last) {
+          cur = fieldDesc.getMessageType();
+        }
+      }
+
+      Descriptors.FieldDescriptor leaf = descriptors[descriptors.length - 1];
+      type = leaf.getType();
+      wireType = leaf.getLiteType().getWireType();
+      Object defaultValue = leaf.getDefaultValue();
+      switch (type.getJavaType()) {
+        case STRING:
+          try {
+            defaultBytes = ((String) defaultValue).getBytes("UTF-8");
+          } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+          }
+          defaultSortable = 0;
+          break;
+        case BYTE_STRING:
+          defaultBytes = ((ByteString) defaultValue).toByteArray();
+          defaultSortable = 0;
+          break;
+        default:
+          defaultBytes = null;
+          defaultSortable = toSortable(defaultValue);
+      }
+    }
+
+    Object valueOf(Message message) {
+      Message cur = message;
+      for (int i = 0; i < descriptors.length - 1; i++) {
+        cur = (Message) cur.getField(descriptors[i]);
+      }
+      return cur.getField(descriptors[descriptors.length - 1]);
+    }
+
+    long toSortable(Object value) {
+      switch (type) {
+        case INT32:
+        case SINT32:
+        case SFIXED32:
+          return (Integer) value;
+        case UINT32:
+        case FIXED32:
+          return (Integer) value & 0xFFFFFFFFL;
+        case INT64:
+        case SINT64:
+        case SFIXED64:
+          return (Long) value;
+        case UINT64:
+        case FIXED64:
+          return (Long) value ^ Long.MIN_VALUE;
+        case BOOL:
+          return (Boolean) value ? 1 : 0;
+        case ENUM:
+          return ((Descriptors.EnumValueDescriptor) value).getNumber();
+        case FLOAT:
+          return sortableFloat(Float.floatToIntBits((Float) value));
+        case DOUBLE:
+          return sortableDouble(Double.doubleToLongBits((Double) value));
+        default:
+          throw new IllegalStateException("Not a numeric type: " + type);
+      }
+    }
+
+    /** Decodes the value at {@code pos}, which WireFields.find has checked, or the default if -1. */
+    long readSortable(byte[] bytes, int pos) {
+      if (pos < 0) {
+        return defaultSortable;
+      }
+      switch (type) {
+        case INT32:
+        case ENUM:
+          return (int) WireFields.readVarint(bytes, pos);
+        case UINT32:
+          return WireFields.readVarint(bytes, pos) & 0xFFFFFFFFL;
+        case SINT32:
+          int n = (int) WireFields.readVarint(bytes, pos);
+          return (n >>> 1) ^ -(n & 1);
+        case INT64:
+          return WireFields.readVarint(bytes, pos);
+        case UINT64:
+          return WireFields.readVarint(bytes, pos) ^ Long.MIN_VALUE;
+        case SINT64:
+          long n64 = WireFields.readVarint(bytes, pos);
+          return (n64 >>> 1) ^ -(n64 & 1);
+        case BOOL:
+          return WireFields.readVarint(bytes, pos) != 0 ? 1 : 0;
+        case SFIXED32:
+          return WireFields.readFixed32(bytes, pos);
+        case FIXED32:
+          return WireFields.readFixed32(bytes, pos) & 0xFFFFFFFFL;
+        case SFIXED64:
+          return WireFields.readFixed64(bytes, pos);
+        case FIXED64:
+          return WireFields.readFixed64(bytes, pos) ^ Long.MIN_VALUE;
+        case FLOAT:
+          // round trips through float to collapse NaNs, as floatToIntBits does
+          float f = Float.intBitsToFloat(WireFields.readFixed32(bytes, pos));
+          return sortableFloat(Float.floatToIntBits(f));
+        case DOUBLE:
+          double d = Double.longBitsToDouble(WireFields.readFixed64(bytes, pos));
+          return sortableDouble(Double.doubleToLongBits(d));
+        default:
+          throw new IllegalStateException("Not a numeric type: " + type);
+      }
+    }
+
+    int compareBytes(byte[] lhs, int lhsPos, int lhsEnd, byte[] rhs, int rhsPos, int rhsEnd)
+        throws InvalidProtocolBufferException {
+      int lhsStart = 0;
+      int lhsLen = defaultBytes.length;
+      if (lhsPos >= 0) {
+        lhsLen = WireFields.readLength(lhs, lhsPos, lhsEnd);
+        lhsStart = lhsPos + CodedOutputStream.computeRawVarint32Size(lhsLen);
+      } else {
+        lhs = defaultBytes;
+      }
+      int rhsStart = 0;
+      int rhsLen = defaultBytes.length;
+      if (rhsPos >= 0) {
+        rhsLen = WireFields.readLength(rhs, rhsPos, rhsEnd);
+        rhsStart = rhsPos + CodedOutputStream.computeRawVarint32Size(rhsLen);
+      } else {
+        rhs = defaultBytes;
+      }
+      // UTF-8 sorts by code point when compared as unsigned bytes
+      return WritableComparator.compareBytes(lhs, lhsStart, lhsLen, rhs, rhsStart, rhsLen);
+    }
+
+    // flips the magnitude bits of negative values, so that more negative values sort lower
+    private static long sortableFloat(int bits) {
+      return bits ^ ((bits >> 31) & Integer.MAX_VALUE);
+    }
+
+    private static long sortableDouble(long bits) {
+      return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+    }
+  }
+}
@@ -4,71 +4,414 @@ import cascading.tuple.Comparison;
 import cascading.tuple.StreamComparator;
 import cascading.tuple.hadoop.io.BufferedInputStream;
 import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.ExtensionRegistry;
+import com.google.protobuf.InvalidProtocolBufferException;
 import com.google.protobuf.Message;
+import com.squareup.cascading2.util.DynamicMessageType;
+import com.squareup.cascading2.util.ExtensionRegistries;
+import com.squareup.cascading2.util.LazyMessage;
 import com.squareup.cascading2.util.Util;
+import com.squareup.cascading2.util.WireFields;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.io.WritableComparator;
 import org.apache.hadoop.io.serializer.Deserializer;
 import org.apache.hadoop.io.serializer.Serialization;
 import org.apache.hadoop.io.serializer.Serializer;
+import org.apache.hadoop.util.StringUtils;
 
-import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
 
 public class ProtobufSerialization<T extends Message> extends Configured implements Serialization<T>,
     Comparison<T> {
+  /**
+   * When true, deserialized messages are built with {@code buildPartial()}, so missing required
+   * fields aren't checked for.
+   */
+  public static final String PARTIAL = "cascading2.protobuf.serialization.partial";
+  /**
+   * When true, fields that the deserializing message type doesn't know about are dropped rather
+   * than kept in the messages' UnknownFieldSets.
+   */
+  public static final String DISCARD_UNKNOWN_FIELDS =
+      "cascading2.protobuf.serialization.discard.unknown.fields";
+  /**
+   * The largest message in bytes that will be deserialized. Defaults to protobuf's own limit of
+   * 64MB, which is there to catch corrupt lengths before they cause huge allocations.
+   */
+  public static final String SIZE_LIMIT = "cascading2.protobuf.serialization.size.limit";
+  static final int DEFAULT_SIZE_LIMIT = 64 << 20;
+  /**
+   * The outer classes generated for .proto files whose extensions are parsed when messages are
+   * deserialized, comma-separated. Without them, extensions come out of a GroupBy or CoGroup as
+   * unknown fields. ProtobufSchemes add the classes given to their setExtensions.
+   */
+  public static final String EXTENSIONS = "cascading2.protobuf.serialization.extensions";
+  /**
+   * The message types that serialized values name by a 4 byte fingerprint rather than by class
+   * name, comma-separated; see {@link #addMessageTypes}. DynamicMessages can only be serialized if
+   * their type is listed, since there's no class to name, and ProtobufSchemes list their own dynamic
+   * types. Listing generated classes only makes LazyMessages smaller.
+   *
+   * <p>Values between steps of a flow are read with the next step's conf, so types that are only
+   * listed by a scheme in one step have to be added to the flow's properties to cross steps.
+   */
+  public static final String MESSAGE_TYPES = "cascading2.protobuf.serialization.message.types";
+
+  /** Adds generated message classes to the MESSAGE_TYPES in a flow's {@code properties}. */
+  public static void addMessageTypes(Map<Object, Object> properties, Class<?>... messageClasses) {
+    String[] entries = new String[messageClasses.length];
+    for (int i = 0; i < messageClasses.length; i++) {
+      if (!Message.class.isAssignableFrom(messageClasses[i])) {
+        throw new IllegalArgumentException(messageClasses[i].getName() + " is not a message class");
+      }
+      entries[i] = messageClasses[i].getName();
+    }
+    properties.put(MESSAGE_TYPES, addEntries((String) properties.get(MESSAGE_TYPES), entries));
+  }
+
+  /** Adds dynamic message types to the MESSAGE_TYPES in a flow's {@code properties}. */
+  public static void addMessageTypes(Map<Object, Object> properties, DynamicMessageType... types) {
+    properties.put(MESSAGE_TYPES, addEntries((String) properties.get(MESSAGE_TYPES), entries(types)));
+  }
+
+  /** Adds dynamic message types to the MESSAGE_TYPES in a job's {@code conf}. */
+  public static void addMessageTypes(Configuration conf, DynamicMessageType... types) {
+    conf.set(MESSAGE_TYPES, addEntries(conf.get(MESSAGE_TYPES), entries(types)));
+  }
+
+  private static String[] entries(DynamicMessageType[] types) {
+    String[] entries = new String[types.length];
+    for (int i = 0; i < types.length; i++) {
+      entries[i] = types[i].getMessageTypeName() + ":"
+          + StringUtils.byteToHexString(types[i].getDescriptorSet());
+    }
+    return entries;
+  }
+
+  private static String addEntries(String existing, String[] entries) {
+    Set<String> merged = new LinkedHashSet<String>();
+    if (existing != null && existing.length() > 0) {
+      merged.addAll(Arrays.asList(existing.split(",")));
+    }
+    merged.addAll(Arrays.asList(entries));
+    // builds a table, so that conflicting entries fail here rather than on the cluster
+    String value = StringUtils.arrayToString(merged.toArray(new String[merged.size()]));
+    new MessageTypes(value.split(","));
+    return value;
+  }
+
   @Override public boolean accept(Class<?> aClass) {
     return Message.class.isAssignableFrom(aClass);
   }
 
   @Override public Serializer<T> getSerializer(Class<T> messageClass) {
-    return new ProtobufSerializer();
+    if (LazyMessage.class.isAssignableFrom(messageClass)) {
+      return (Serializer) new LazyMessageSerializer(getMessageTypes());
+    }
+    if (DynamicMessage.class.isAssignableFrom(messageClass)) {
+      return new ProtobufSerializer(getMessageTypes());
+    }
+    return new ProtobufSerializer(null);
   }
 
   @Override public Deserializer<T> getDeserializer(Class<T> messageClass) {
-    return new ProtobufDeserializer(messageClass);
+    Configuration conf = getConf();
+    MessageTypes types = getMessageTypes();
+    boolean partial = conf != null && conf.getBoolean(PARTIAL, false);
+    String[] extensionClassNames = conf != null ? conf.getStrings(EXTENSIONS) : null;
+    ExtensionRegistry registry = extensionClassNames != null
+        ? ExtensionRegistries.forClassNames(extensionClassNames) : null;
+    int sizeLimit = conf != null ? conf.getInt(SIZE_LIMIT, DEFAULT_SIZE_LIMIT) : DEFAULT_SIZE_LIMIT;
+    if (LazyMessage.class.isAssignableFrom(messageClass)) {
+      return (Deserializer) new LazyMessageDeserializer(types, registry, partial, sizeLimit);
+    }
+    boolean discardUnknownFields = conf != null && conf.getBoolean(DISCARD_UNKNOWN_FIELDS, false);
+    return new ProtobufDeserializer(messageClass, DynamicMessage.class.isAssignableFrom(messageClass)
+        ? types : null, registry, partial, discardUnknownFields, sizeLimit);
   }
 
   @Override public Comparator<T> getComparator(Class<T> messageClass) {
-    return new ProtobufComparator();
+    if (LazyMessage.class.isAssignableFrom(messageClass)) {
+      return (Comparator) new LazyMessageComparator();
+    }
+    // DynamicMessages are preceded by their type's fingerprint
+    return new ProtobufComparator(DynamicMessage.class.isAssignableFrom(messageClass) ? 4 : 0);
+  }
+
+  private MessageTypes getMessageTypes() {
+    Configuration conf = getConf();
+    String[] entries = conf != null ? conf.getStrings(MESSAGE_TYPES) : null;
+    return new MessageTypes(entries != null ? entries : new String[0]);
+  }
+
+  /** Rejects corrupt or oversized lengths before anything is allocated for them. */
+  private static void checkSize(int size, int sizeLimit) throws IOException {
+    if (size < 0 || size > sizeLimit) {
+      throw new IOException("Message of " + size + " bytes is over the limit of " + sizeLimit
+          + " bytes, see " + SIZE_LIMIT);
+    }
+  }
+
+  /**
+   * The types listed in MESSAGE_TYPES, by the fingerprint that serialized values name them by. The
+   * fingerprint is the hash code of the class name of a generated type, or of the full name of a
+   * dynamic one, so it's the same whichever other types are listed.
+   */
+  private static final class MessageTypes {
+    private final Map<Integer, String> entries = new HashMap<Integer, String>();
+    private final Map<Integer, Message> prototypes = new HashMap<Integer, Message>();
+
+    MessageTypes(String[] entries) {
+      for (String entry : entries) {
+        int colon = entry.indexOf(':');
+        String name = colon < 0 ? entry : entry.substring(0, colon);
+        String existing = this.entries.put(name.hashCode(), entry);
+        if (existing != null && !existing.equals(entry)) {
+          throw new IllegalArgumentException("Conflicting entries in " + MESSAGE_TYPES + ": "
+              + abbreviate(existing) + " and " + abbreviate(entry));
+        }
+      }
+    }
+
+    /** The fingerprint of {@code message}'s type, or null if it isn't listed. */
+    Integer fingerprint(Message message) {
+      Message prototype = message.getDefaultInstanceForType();
+      String name = prototype instanceof DynamicMessage
+          ? prototype.getDescriptorForType().getFullName() : prototype.getClass().getName();
+      return entries.containsKey(name.hashCode()) ? name.hashCode() : null;
+    }
+
+    /** Like {@link #fingerprint}, but fails if a DynamicMessage's type isn't listed. */
+    Integer checkedFingerprint(Message message) {
+      Integer fingerprint = fingerprint(message);
+      if (fingerprint == null && message.getDefaultInstanceForType() instanceof DynamicMessage) {
+        throw new IllegalStateException("Can't serialize a DynamicMessage of type "
+            + message.getDescriptorForType().getFullName() + " unless it's in " + MESSAGE_TYPES
+            + "; read it with a ProtobufScheme, or see ProtobufSerialization.addMessageTypes");
+      }
+      return fingerprint;
+    }
+
+    Message prototype(int fingerprint) throws IOException {
+      Message prototype = prototypes.get(fingerprint);
+      if (prototype == null) {
+        String entry = entries.get(fingerprint);
+        if (entry == null) {
+          throw new IOException("No message type with fingerprint " + Integer.toHexString(fingerprint)
+              + " in " + MESSAGE_TYPES + ", it has to be listed wherever values are read");
+        }
+        int colon = entry.indexOf(':');
+        prototype = colon < 0
+            ? Util.builderFromMessageClass(entry).getDefaultInstanceForType()
+            : new DynamicMessageType(StringUtils.hexStringToByte(entry.substring(colon + 1)),
+                entry.substring(0, colon)).newBuilder().getDefaultInstanceForType();
+        prototypes.put(fingerprint, prototype);
+      }
+      return prototype;
+    }
+
+    private static String abbreviate(String entry) {
+      int colon = entry.indexOf(':');
+      return colon < 0 ? entry : entry.substring(0, colon) + " (dynamic)";
+    }
+  }
+
+  private static int readFingerprint(DataInputStream inputStream) throws IOException {
+    return Integer.reverseBytes(inputStream.readInt());
   }
 
+  /**
+   * Writes each message through one CodedOutputStream per open(). Its buffer is drained into the
+   * stream after every message, since other serializers write to the same stream, but the stream
+   * itself is only flushed when it's closed, so it can buffer as it sees fit. DynamicMessages are
+   * preceded by the little-endian fingerprint of their type in MESSAGE_TYPES.
+   */
   private static class ProtobufSerializer<T extends Message> implements Serializer<T> {
+    // only set for DynamicMessages
+    private final MessageTypes types;
     private OutputStream outputStream;
+    private CodedOutputStream output;
+
+    ProtobufSerializer(MessageTypes types) {
+      this.types = types;
+    }
 
     @Override public void open(OutputStream outputStream) throws IOException {
       this.outputStream = outputStream;
+      output = CodedOutputStream.newInstance(outputStream);
     }
 
     @Override public void serialize(T message) throws IOException {
-      message.writeDelimitedTo(outputStream);
-      outputStream.flush();
+      if (types != null) {
+        output.writeRawLittleEndian32(types.checkedFingerprint(message));
+      }
+      output.writeRawVarint32(message.getSerializedSize());
+      message.writeTo(output);
+      // only moves the bytes into outputStream; CodedOutputStream.flush() doesn't flush it
+      output.flush();
     }
 
     @Override public void close() throws IOException {
+      output.flush();
       outputStream.close();
     }
   }
 
+  /**
+   * Cascading deserializes every element of a tuple from the same stream, so this never reads past
+   * the end of its own message. Each message is copied into a buffer that's reused for the next
+   * one, and parsed from there.
+   */
   private static class ProtobufDeserializer<T extends Message> implements Deserializer<T> {
-    private InputStream inputStream;
+    private DataInputStream inputStream;
+    // exactly one of these is set, types for DynamicMessages
     private final Message.Builder builder;
+    private final MessageTypes types;
+    private final ExtensionRegistry registry;
+    private final boolean partial;
+    private final boolean discardUnknownFields;
+    private final int sizeLimit;
+    private byte[] buffer = new byte[256];
 
-    public ProtobufDeserializer(Class<T> messageClass) {
-      builder = Util.builderFromMessageClass(messageClass.getName());
+    public ProtobufDeserializer(Class<T> messageClass, MessageTypes types,
+        ExtensionRegistry registry, boolean partial, boolean discardUnknownFields, int sizeLimit) {
+      builder = types == null ? Util.builderFromMessageClass(messageClass.getName()) : null;
+      this.types = types;
+      this.registry = registry;
+      this.partial = partial;
+      this.discardUnknownFields = discardUnknownFields;
+      this.sizeLimit = sizeLimit;
     }
 
     @Override public void open(InputStream inputStream) throws IOException {
-      this.inputStream = inputStream;
+      this.inputStream = new DataInputStream(inputStream);
     }
 
     @Override public T deserialize(T message) throws IOException {
-      builder.clear();
-      builder.mergeDelimitedFrom(inputStream);
-      return (T)builder.build();
+      Message.Builder builder;
+      if (types != null) {
+        // DynamicMessage builders can't be reused once built
+        builder = types.prototype(readFingerprint(inputStream)).newBuilderForType();
+      } else {
+        builder = this.builder.clear();
+      }
+      int firstByte = inputStream.read();
+      if (firstByte != -1) {
+        int size = CodedInputStream.readRawVarint32(firstByte, inputStream);
+        checkSize(size, sizeLimit);
+        if (size > buffer.length) {
+          buffer = new byte[Math.max(size, buffer.length * 2)];
+        }
+        inputStream.readFully(buffer, 0, size);
+        if (registry != null) {
+          builder.mergeFrom(buffer, 0, size, registry);
+        } else {
+          builder.mergeFrom(buffer, 0, size);
+        }
+      }
+      if (discardUnknownFields) {
+        Util.discardUnknownFields(builder);
+      }
+      return (T) (partial ? builder.buildPartial() : builder.build());
+    }
+
+    @Override public void close() throws IOException {
+      inputStream.close();
+    }
+  }
+
+  /**
+   * Values are only recorded as LazyMessage by Cascading, so each one starts with a byte of flags
+   * saying whether it's in pass-through mode and how the message type it wraps is given: by its
+   * little-endian fingerprint in MESSAGE_TYPES if it's listed there, or else by class name. The
+   * message itself is written in its original form and isn't parsed on either side.
+   */
+  private static class LazyMessageSerializer implements Serializer<LazyMessage> {
+    static final int PASS_THROUGH = 1;
+    static final int FINGERPRINT = 2;
+
+    private final MessageTypes types;
+    private DataOutputStream outputStream;
+
+    LazyMessageSerializer(MessageTypes types) {
+      this.types = types;
+    }
+
+    @Override public void open(OutputStream outputStream) throws IOException {
+      this.outputStream = new DataOutputStream(outputStream);
+    }
+
+    @Override public void serialize(LazyMessage message) throws IOException {
+      Integer fingerprint = types.checkedFingerprint(message);
+      int flags = message.isPassThrough() ? PASS_THROUGH : 0;
+      if (fingerprint != null) {
+        outputStream.writeByte(flags | FINGERPRINT);
+        outputStream.writeInt(Integer.reverseBytes(fingerprint));
+      } else {
+        outputStream.writeByte(flags);
+        outputStream.writeUTF(message.getDefaultInstanceForType().getClass().getName());
+      }
+      message.writeDelimitedTo(outputStream);
+    }
+
+    @Override public void close() throws IOException {
+      outputStream.close();
+    }
+  }
+
+  private static class LazyMessageDeserializer implements Deserializer<LazyMessage> {
+    private final Map<String, Message> prototypes = new HashMap<String, Message>();
+    private final MessageTypes types;
+    private final ExtensionRegistry registry;
+    private final boolean partial;
+    private final int sizeLimit;
+    private DataInputStream inputStream;
+
+    LazyMessageDeserializer(MessageTypes types, ExtensionRegistry registry, boolean partial,
+        int sizeLimit) {
+      this.types = types;
+      this.registry = registry;
+      this.partial = partial;
+      this.sizeLimit = sizeLimit;
+    }
+
+    @Override public void open(InputStream inputStream) throws IOException {
+      this.inputStream = new DataInputStream(inputStream);
+    }
+
+    @Override public LazyMessage deserialize(LazyMessage message) throws IOException {
+      int flags = inputStream.readUnsignedByte();
+      boolean passThrough = (flags & LazyMessageSerializer.PASS_THROUGH) != 0;
+      Message prototype;
+      if ((flags & LazyMessageSerializer.FINGERPRINT) != 0) {
+        prototype = types.prototype(readFingerprint(inputStream));
+      } else {
+        String messageClassName = inputStream.readUTF();
+        prototype = prototypes.get(messageClassName);
+        if (prototype == null) {
+          prototype = Util.builderFromMessageClass(messageClassName).getDefaultInstanceForType();
+          prototypes.put(messageClassName, prototype);
+        }
+      }
+
+      int size = CodedInputStream.readRawVarint32(inputStream.readUnsignedByte(), inputStream);
+      checkSize(size, sizeLimit);
+      byte[] bytes = new byte[size];
+      inputStream.readFully(bytes);
+      return new LazyMessage(prototype, bytes, registry, passThrough, partial);
     }
 
     @Override public void close() throws IOException {
@@ -76,33 +419,99 @@ public class ProtobufSerialization<T extends Message> extends Configured impleme
     }
   }
 
+  /** A message serialized into a buffer that's reused for the next message. */
+  private static final class SerializedMessage {
+    private Message message;
+    private byte[] bytes = new byte[256];
+    private int length;
+
+    void set(Message message) throws IOException {
+      // messages are immutable, so the same instance always serializes the same way
+      if (message == this.message) {
+        return;
+      }
+      this.message = null;
+      // generated messages memoize their size, so this doesn't walk the message twice
+      length = message.getSerializedSize();
+      if (length > bytes.length) {
+        bytes = new byte[Math.max(length, bytes.length * 2)];
+      }
+      CodedOutputStream output = CodedOutputStream.newInstance(bytes, 0, length);
+      message.writeTo(output);
+      output.checkNoSpaceLeft();
+      this.message = message;
+    }
+  }
+
+  /**
+   * Orders LazyMessages by the serialization of their parsed messages rather than by the bytes they
+   * were read as, so that messages that are equal compare as equal even if they were written
+   * differently, e.g. with fields out of order. That means every compared message gets parsed. The
+   * serialized form of a LazyMessage starts with its type, so it can't be compared as a stream;
+   * this only compares deserialized instances.
+   */
+  private static class LazyMessageComparator implements Comparator<LazyMessage> {
+    private final ProtobufComparator<Message> delegate = new ProtobufComparator<Message>(0);
+
+    @Override public int compare(LazyMessage message, LazyMessage message1) {
+      if (message == message1) {
+        return 0;
+      }
+      return delegate.compare(message.getMessage(), message1.getMessage());
+    }
+  }
+
+  /**
+   * Orders messages by their serialized bytes, the same way whether they're compared as objects or
+   * as streams. Instances are not thread-safe.
+   */
   private static class ProtobufComparator<T extends Message> implements Comparator<T>, StreamComparator<BufferedInputStream> {
-    @Override public int compare(T message, T message1) {
-      try {
-        ByteArrayOutputStream baos1 = new ByteArrayOutputStream();
-        message.writeTo(baos1);
+    // bytes before each message in a stream that aren't compared
+    private final int headerLength;
+    // a sort compares each message against many others, so the last message seen on each side is
+    // kept serialized in case it comes up again
+    private final SerializedMessage lhsSerialized = new SerializedMessage();
+    private final SerializedMessage rhsSerialized = new SerializedMessage();
 
-        ByteArrayOutputStream baos2 = new ByteArrayOutputStream();
-        message1.writeTo(baos2);
+    ProtobufComparator(int headerLength) {
+      this.headerLength = headerLength;
+    }
 
-        byte[] b1 = baos1.toByteArray();
-        byte[] b2 = baos2.toByteArray();
-        return WritableComparator.compareBytes(b1, 0, b1.length, b2, 0, b2.length);
+    @Override public int compare(T message, T message1) {
+      if (message == message1) {
+        return 0;
+      }
+      try {
+        lhsSerialized.set(message);
+        rhsSerialized.set(message1);
       } catch (IOException e) {
         throw new RuntimeException(e);
       }
+      return WritableComparator.compareBytes(lhsSerialized.bytes, 0, lhsSerialized.length,
+          rhsSerialized.bytes, 0, rhsSerialized.length);
     }
 
+    /**
+     * Compares the delimited messages at the current positions of the streams in place, and leaves
+     * each stream after its message, as the tuple comparator expects.
+     */
     @Override
     public int compare(BufferedInputStream lhs, BufferedInputStream rhs) {
-      CodedInputStream clhs = CodedInputStream.newInstance(lhs);
-      CodedInputStream crhs = CodedInputStream.newInstance(rhs);
-
       try {
-        int lhsLen = clhs.readRawVarint32();
-        int rhsLen = crhs.readRawVarint32();
-        return WritableComparator.compareBytes(lhs.getBuffer(), lhs.getPosition(), lhsLen, rhs.getBuffer(), rhs.getPosition(), rhsLen);
-      } catch (IOException e) {
+        byte[] lhsBuffer = lhs.getBuffer();
+        int lhsPos = lhs.getPosition() + headerLength;
+        int lhsLen = WireFields.readLength(lhsBuffer, lhsPos, lhs.getLength());
+        int lhsStart = lhsPos + CodedOutputStream.computeRawVarint32Size(lhsLen);
+
+        byte[] rhsBuffer = rhs.getBuffer();
+        int rhsPos = rhs.getPosition() + headerLength;
+        int rhsLen = WireFields.readLength(rhsBuffer, rhsPos, rhs.getLength());
+        int rhsStart = rhsPos + CodedOutputStream.computeRawVarint32Size(rhsLen);
+
+        lhs.skip(lhsStart + lhsLen - lhs.getPosition());
+        rhs.skip(rhsStart + rhsLen - rhs.getPosition());
+        return WritableComparator.compareBytes(lhsBuffer, lhsStart, lhsLen, rhsBuffer, rhsStart, rhsLen);
+      } catch (InvalidProtocolBufferException e) {
         throw new RuntimeException(e);
       }
     }
@@ -0,0 +1,132 @@
+package com.squareup.cascading2.util;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.DescriptorProtos;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.InvalidProtocolBufferException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Builds Descriptors from serialized FileDescriptorSets, as written by {@code protoc
+ * --include_imports --descriptor_set_out}. Each distinct descriptor set is only built once per JVM,
+ * however many schemes and operations refer to it.
+ */
+public final class DescriptorSets {
+  // descriptor set bytes -> message type full name -> descriptor
+  private static final Map<ByteString, Map<String, Descriptors.Descriptor>> CACHE =
+      new HashMap<ByteString, Map<String, Descriptors.Descriptor>>();
+
+  private DescriptorSets() {}
+
+  /**
+   * Finds the message type named {@code messageTypeName}, for example
+   * {@code com.squareup.cascading2.generated.Person}, in {@code descriptorSet}.
+   */
+  public static Descriptors.Descriptor findMessageType(byte[] descriptorSet, String messageTypeName) {
+    Map<String, Descriptors.Descriptor> messageTypes = messageTypes(descriptorSet);
+    Descriptors.Descriptor descriptor = messageTypes.get(messageTypeName);
+    if (descriptor == null) {
+      throw new IllegalArgumentException("Can't find a message type named " + messageTypeName
+          + " in the descriptor set. Found: " + messageTypes.keySet());
+    }
+    return descriptor;
+  }
+
+  /** Serializes the FileDescriptorSet that {@code descriptor} and all of its imports live in. */
+  public static byte[] toDescriptorSet(Descriptors.Descriptor descriptor) {
+    Set<Descriptors.FileDescriptor> files = new LinkedHashSet<Descriptors.FileDescriptor>();
+    addWithDependencies(descriptor.getFile(), files);
+
+    DescriptorProtos.FileDescriptorSet.Builder builder = DescriptorProtos.FileDescriptorSet.newBuilder();
+    for (Descriptors.FileDescriptor file : files) {
+      builder.addFile(file.toProto());
+    }
+    return builder.build().toByteArray();
+  }
+
+  private static void addWithDependencies(Descriptors.FileDescriptor file,
+      Set<Descriptors.FileDescriptor> files) {
+    if (files.contains(file)) {
+      return;
+    }
+    for (Descriptors.FileDescriptor dependency : file.getDependencies()) {
+      addWithDependencies(dependency, files);
+    }
+    files.add(file);
+  }
+
+  private static synchronized Map<String, Descriptors.Descriptor> messageTypes(byte[] descriptorSet) {
+    ByteString key = ByteString.copyFrom(descriptorSet);
+    Map<String, Descriptors.Descriptor> messageTypes = CACHE.get(key);
+    if (messageTypes == null) {
+      messageTypes = build(descriptorSet);
+      CACHE.put(key, messageTypes);
+    }
+    return messageTypes;
+  }
+
+  private static Map<String, Descriptors.Descriptor> build(byte[] descriptorSet) {
+    DescriptorProtos.FileDescriptorSet set;
+    try {
+      set = DescriptorProtos.FileDescriptorSet.parseFrom(descriptorSet);
+    } catch (InvalidProtocolBufferException e) {
+      throw new IllegalArgumentException("Not a serialized FileDescriptorSet", e);
+    }
+
+    Map<String, DescriptorProtos.FileDescriptorProto> protos =
+        new HashMap<String, DescriptorProtos.FileDescriptorProto>();
+    for (DescriptorProtos.FileDescriptorProto proto : set.getFileList()) {
+      protos.put(proto.getName(), proto);
+    }
+
+    Map<String, Descriptors.FileDescriptor> files = new HashMap<String, Descriptors.FileDescriptor>();
+    Map<String, Descriptors.Descriptor> messageTypes = new HashMap<String, Descriptors.Descriptor>();
+    for (String name : protos.keySet()) {
+      for (Descriptors.Descriptor messageType : buildFile(name, protos, files).getMessageTypes()) {
+        addWithNestedTypes(messageType, messageTypes);
+      }
+    }
+    return messageTypes;
+  }
+
+  private static Descriptors.FileDescriptor buildFile(String name,
+      Map<String, DescriptorProtos.FileDescriptorProto> protos,
+      Map<String, Descriptors.FileDescriptor> files) {
+    Descriptors.FileDescriptor file = files.get(name);
+    if (file != null) {
+      return file;
+    }
+
+    DescriptorProtos.FileDescriptorProto proto = protos.get(name);
+    if (proto == null) {
+      throw new IllegalArgumentException("The descriptor set is missing " + name
+          + ", was it written with --include_imports?");
+    }
+    List<Descriptors.FileDescriptor> dependencies = new ArrayList<Descriptors.FileDescriptor>();
+    for (String dependency : proto.getDependencyList()) {
+      dependencies.add(buildFile(dependency, protos, files));
+    }
+
+    try {
+      file = Descriptors.FileDescriptor.buildFrom(proto,
+          dependencies.toArray(new Descriptors.FileDescriptor[dependencies.size()]));
+    } catch (Descriptors.DescriptorValidationException e) {
+      throw new IllegalArgumentException("Invalid descriptor for " + name, e);
+    }
+    files.put(name, file);
+    return file;
+  }
+
+  private static void addWithNestedTypes(Descriptors.Descriptor messageType,
+      Map<String, Descriptors.Descriptor> messageTypes) {
+    messageTypes.put(messageType.getFullName(), messageType);
+    for (Descriptors.Descriptor nested : messageType.getNestedTypes()) {
+      addWithNestedTypes(nested, messageTypes);
+    }
+  }
+}
@@ -0,0 +1,72 @@
+package com.squareup.cascading2.util;
+
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.Message;
+import java.io.Serializable;
+
+/**
+ * A message type given by a serialized FileDescriptorSet and a type name rather than by a generated
+ * class, so that it can be used on a cluster without the generated code on the classpath. Messages
+ * of this type are {@link DynamicMessage}s.
+ */
+public final class DynamicMessageType implements Serializable {
+  private final byte[] descriptorSet;
+  private final String messageTypeName;
+  private transient Descriptors.Descriptor descriptor;
+
+  /**
+   * Messages of this type only go through a GroupBy or CoGroup if the type is in the job's
+   * ProtobufSerialization.MESSAGE_TYPES, since there's no class to look it up by. ProtobufSchemes
+   * of this type add it for the steps they're in.
+   *
+   * @param descriptorSet a serialized FileDescriptorSet that includes all imports
+   * @param messageTypeName the full name of the message type, including the proto package
+   */
+  public DynamicMessageType(byte[] descriptorSet, String messageTypeName) {
+    this.descriptorSet = descriptorSet.clone();
+    this.messageTypeName = messageTypeName;
+    getDescriptor();
+  }
+
+  /**
+   * The dynamic counterpart of the type {@code descriptor} describes. See the constructor about
+   * using it in a GroupBy or CoGroup.
+   */
+  public static DynamicMessageType of(Descriptors.Descriptor descriptor) {
+    return new DynamicMessageType(DescriptorSets.toDescriptorSet(descriptor), descriptor.getFullName());
+  }
+
+  public String getMessageTypeName() {
+    return messageTypeName;
+  }
+
+  public byte[] getDescriptorSet() {
+    return descriptorSet.clone();
+  }
+
+  public Descriptors.Descriptor getDescriptor() {
+    if (descriptor == null) {
+      descriptor = DescriptorSets.findMessageType(descriptorSet, messageTypeName);
+    }
+    return descriptor;
+  }
+
+  public Message.Builder newBuilder() {
+    return DynamicMessage.newBuilder(getDescriptor());
+  }
+
+  /**
+   * Whether {@code message} was built from this type's descriptor, so that its fields can be read
+   * with this type's field descriptors. Since descriptors are cached per JVM, that includes messages
+   * of other DynamicMessageTypes with the same descriptor set.
+   */
+  public boolean isInstance(Object message) {
+    return message instanceof Message
+        && ((Message) message).getDescriptorForType() == getDescriptor();
+  }
+
+  @Override public String toString() {
+    return messageTypeName;
+  }
+}
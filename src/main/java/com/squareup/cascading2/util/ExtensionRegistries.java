@@ -0,0 +1,54 @@
+package com.squareup.cascading2.util;
+
+import com.google.protobuf.ExtensionRegistry;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds ExtensionRegistries from the names of the outer classes that protoc generates for
+ * .proto files, which have a static {@code registerAllExtensions(ExtensionRegistry)} method.
+ * ExtensionRegistries aren't Serializable, but class names are, so schemes and operations keep the
+ * names and rebuild the registry where they run. Each distinct set of classes is only registered
+ * once per JVM, and the registries are unmodifiable so they can be shared between threads.
+ */
+public final class ExtensionRegistries {
+  private static final Map<List<String>, ExtensionRegistry> CACHE =
+      new HashMap<List<String>, ExtensionRegistry>();
+
+  private ExtensionRegistries() {}
+
+  /** The registry with every extension declared in the given generated outer classes. */
+  public static synchronized ExtensionRegistry forClassNames(String... classNames) {
+    List<String> key = Arrays.asList(classNames.clone());
+    ExtensionRegistry registry = CACHE.get(key);
+    if (registry == null) {
+      registry = ExtensionRegistry.newInstance();
+      for (String className : classNames) {
+        register(className, registry);
+      }
+      registry = registry.getUnmodifiable();
+      CACHE.put(key, registry);
+    }
+    return registry;
+  }
+
+  private static void register(String className, ExtensionRegistry registry) {
+    try {
+      Method m = Class.forName(className).getMethod("registerAllExtensions", ExtensionRegistry.class);
+      m.invoke(null, registry);
+    } catch (ClassNotFoundException e) {
+      throw new RuntimeException(e);
+    } catch (NoSuchMethodException e) {
+      throw new IllegalArgumentException(className + " is not the outer class generated for a "
+          + ".proto file, it has no registerAllExtensions method", e);
+    } catch (IllegalAccessException e) {
+      throw new RuntimeException(e);
+    } catch (InvocationTargetException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
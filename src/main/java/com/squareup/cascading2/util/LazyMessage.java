@@ -0,0 +1,162 @@
+package com.squareup.cascading2.util;
+
+import com.google.protobuf.AbstractMessage;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.ExtensionRegistryLite;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+import com.google.protobuf.UnknownFieldSet;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * A Message that holds on to the serialized form of another message and only parses it the first
+ * time one of its fields is accessed. Writing out a LazyMessage that hasn't been parsed yet just
+ * copies its bytes, so records that are dropped or passed through untouched never get decoded.
+ *
+ * In pass-through mode the bytes are kept even once parsed, so a message that's read, inspected
+ * and written back out is copied as is rather than re-serialized, at the cost of holding both
+ * forms in memory. Messages are immutable, so the bytes always match the parsed message.
+ *
+ * Since parsing is deferred, a corrupt record only shows up as an exception on first field access.
+ * Instances are not thread-safe.
+ */
+public final class LazyMessage extends AbstractMessage {
+  private final Message prototype;
+  private final ExtensionRegistryLite registry;
+  private final boolean passThrough;
+  private final boolean partial;
+  private byte[] bytes;
+  private Message message;
+
+  /**
+   * @param prototype an instance of the underlying message type, typically its default instance
+   * @param bytes the serialized message. The array is not copied and must not be modified later.
+   * @param registry extensions to use when parsing, or null
+   */
+  public LazyMessage(Message prototype, byte[] bytes, ExtensionRegistryLite registry) {
+    this(prototype, bytes, registry, false);
+  }
+
+  /**
+   * @param passThrough whether to keep the serialized bytes once the message is parsed, so it's
+   *     still written out by copying them
+   */
+  public LazyMessage(Message prototype, byte[] bytes, ExtensionRegistryLite registry,
+      boolean passThrough) {
+    this(prototype, bytes, registry, passThrough, false);
+  }
+
+  /**
+   * @param partial whether to parse with {@code buildPartial()}, so missing required fields aren't
+   *     checked for
+   */
+  public LazyMessage(Message prototype, byte[] bytes, ExtensionRegistryLite registry,
+      boolean passThrough, boolean partial) {
+    this.prototype = prototype.getDefaultInstanceForType();
+    this.bytes = bytes;
+    this.registry = registry;
+    this.passThrough = passThrough;
+    this.partial = partial;
+  }
+
+  /** Returns the fully parsed underlying message, parsing it first if necessary. */
+  public Message getMessage() {
+    if (message == null) {
+      try {
+        Message.Builder builder = prototype.newBuilderForType();
+        if (registry != null) {
+          builder.mergeFrom(bytes, registry);
+        } else {
+          builder.mergeFrom(bytes);
+        }
+        message = partial ? builder.buildPartial() : builder.build();
+      } catch (InvalidProtocolBufferException e) {
+        throw new RuntimeException(e);
+      }
+      if (!passThrough) {
+        bytes = null;
+      }
+    }
+    return message;
+  }
+
+  /** Whether the serialized bytes are kept once the message is parsed. */
+  public boolean isPassThrough() {
+    return passThrough;
+  }
+
+  /** True once the serialized bytes have been parsed into a message. */
+  public boolean isParsed() {
+    return message != null;
+  }
+
+  @Override public Descriptors.Descriptor getDescriptorForType() {
+    return prototype.getDescriptorForType();
+  }
+
+  @Override public Message getDefaultInstanceForType() {
+    return prototype;
+  }
+
+  @Override public Map<Descriptors.FieldDescriptor, Object> getAllFields() {
+    return getMessage().getAllFields();
+  }
+
+  @Override public boolean hasField(Descriptors.FieldDescriptor field) {
+    return getMessage().hasField(field);
+  }
+
+  @Override public Object getField(Descriptors.FieldDescriptor field) {
+    return getMessage().getField(field);
+  }
+
+  @Override public int getRepeatedFieldCount(Descriptors.FieldDescriptor field) {
+    return getMessage().getRepeatedFieldCount(field);
+  }
+
+  @Override public Object getRepeatedField(Descriptors.FieldDescriptor field, int index) {
+    return getMessage().getRepeatedField(field, index);
+  }
+
+  @Override public UnknownFieldSet getUnknownFields() {
+    return getMessage().getUnknownFields();
+  }
+
+  @Override public boolean isInitialized() {
+    return getMessage().isInitialized();
+  }
+
+  @Override public Message.Builder newBuilderForType() {
+    return prototype.newBuilderForType();
+  }
+
+  @Override public Message.Builder toBuilder() {
+    return getMessage().toBuilder();
+  }
+
+  @Override public void writeTo(CodedOutputStream output) throws IOException {
+    if (bytes != null) {
+      output.writeRawBytes(bytes);
+    } else {
+      message.writeTo(output);
+    }
+  }
+
+  @Override public int getSerializedSize() {
+    return bytes != null ? bytes.length : message.getSerializedSize();
+  }
+
+  @Override public boolean equals(Object other) {
+    if (this == other) return true;
+    if (other instanceof LazyMessage) {
+      other = ((LazyMessage) other).getMessage();
+    }
+    return getMessage().equals(other);
+  }
+
+  @Override public int hashCode() {
+    return getMessage().hashCode();
+  }
+}
@@ -0,0 +1,159 @@
+package com.squareup.cascading2.util;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.ExtensionRegistryLite;
+import com.google.protobuf.Message;
+import com.google.protobuf.WireFormat;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A subset of the fields of a message type, selected by field1.field2.field3 style paths, that can
+ * be decoded straight from the wire. Fields that aren't selected are skipped without being parsed,
+ * so the resulting message is partial: it only has the selected fields set.
+ *
+ * Unlike ExtractProto, paths may go through repeated message fields, in which case the rest of the
+ * path is applied to every element.
+ */
+public final class Projection {
+  private final Descriptors.Descriptor descriptor;
+  // sorted field numbers, with the matching descriptor and sub-projection at the same index. A null
+  // sub-projection means the whole field is selected.
+  private final int[] fieldNumbers;
+  private final Descriptors.FieldDescriptor[] fields;
+  private final Projection[] children;
+
+  private Projection(Descriptors.Descriptor descriptor, Map<Integer, Node> nodes) {
+    this.descriptor = descriptor;
+    fieldNumbers = new int[nodes.size()];
+    fields = new Descriptors.FieldDescriptor[nodes.size()];
+    children = new Projection[nodes.size()];
+
+    int i = 0;
+    for (Map.Entry<Integer, Node> entry : nodes.entrySet()) {
+      Node node = entry.getValue();
+      fieldNumbers[i] = entry.getKey();
+      fields[i] = node.field;
+      children[i] = node.children == null ? null : new Projection(node.field.getMessageType(), node.children);
+      i++;
+    }
+  }
+
+  /** Builds the projection of {@code descriptor} that selects all of the given paths. */
+  public static Projection of(Descriptors.Descriptor descriptor, String... paths) {
+    Map<Integer, Node> root = new TreeMap<Integer, Node>();
+
+    for (String path : paths) {
+      String[] segments = path.split("\\.");
+
+      Descriptors.Descriptor cur = descriptor;
+      Map<Integer, Node> nodes = root;
+      for (int i = 0; i < segments.length; i++) {
+        Descriptors.FieldDescriptor fieldDesc = cur.findFieldByName(segments[i]);
+        if (fieldDesc == null) {
+          throw new IllegalArgumentException("Can't find a field named " + segments[i]
+              + " in struct " + cur.getName() + ". Full path: " + path);
+        }
+        boolean last = i == segments.length - 1;
+        if (!last && fieldDesc.getJavaType() != Descriptors.FieldDescriptor.JavaType.MESSAGE) {
+          throw new IllegalArgumentException("Field " + segments[i] + " in struct " + cur.getName()
+              + " is not a message, so it has no fields to select. Full path: " + path);
+        }
+
+        Node node = nodes.get(fieldDesc.getNumber());
+        if (node == null) {
+          node = new Node(fieldDesc, last ? null : new TreeMap<Integer, Node>());
+          nodes.put(fieldDesc.getNumber(), node);
+        } else if (last) {
+          // selecting the whole field trumps selecting some of its fields
+          node.children = null;
+        }
+        if (node.children == null) {
+          break;
+        }
+
+        nodes = node.children;
+        cur = fieldDesc.getMessageType();
+      }
+    }
+
+    return new Projection(descriptor, root);
+  }
+
+  public Descriptors.Descriptor getDescriptor() {
+    return descriptor;
+  }
+
+  /**
+   * Merges the selected fields of the message serialized in {@code bytes[offset, offset + length)}
+   * into {@code builder}.
+   *
+   * @param registry extensions to use when parsing selected fields, or null
+   */
+  public void merge(byte[] bytes, int offset, int length, Message.Builder builder,
+      ExtensionRegistryLite registry) throws IOException {
+    merge(CodedInputStream.newInstance(bytes, offset, length), bytes, offset, builder, registry);
+  }
+
+  private void merge(CodedInputStream input, byte[] bytes, int offset, Message.Builder builder,
+      ExtensionRegistryLite registry) throws IOException {
+    while (true) {
+      int start = input.getTotalBytesRead();
+      int tag = input.readTag();
+      if (tag == 0) {
+        return;
+      }
+
+      int index = Arrays.binarySearch(fieldNumbers, WireFormat.getTagFieldNumber(tag));
+      if (index < 0) {
+        input.skipField(tag);
+        continue;
+      }
+
+      Projection child = children[index];
+      if (child == null || (tag & 7) != WireFormat.WIRETYPE_LENGTH_DELIMITED) {
+        // hand just this field's bytes, tag included, to the builder so the usual merge rules apply
+        input.skipField(tag);
+        int end = input.getTotalBytesRead();
+        if (registry != null) {
+          builder.mergeFrom(bytes, offset + start, end - start, registry);
+        } else {
+          builder.mergeFrom(bytes, offset + start, end - start);
+        }
+        continue;
+      }
+
+      Descriptors.FieldDescriptor field = fields[index];
+      Message.Builder fieldBuilder;
+      if (!field.isRepeated() && builder.hasField(field)) {
+        fieldBuilder = ((Message) builder.getField(field)).toBuilder();
+      } else {
+        fieldBuilder = builder.newBuilderForField(field);
+      }
+
+      int length = input.readRawVarint32();
+      int oldLimit = input.pushLimit(length);
+      child.merge(input, bytes, offset, fieldBuilder, registry);
+      input.popLimit(oldLimit);
+
+      if (field.isRepeated()) {
+        builder.addRepeatedField(field, fieldBuilder.buildPartial());
+      } else {
+        builder.setField(field, fieldBuilder.buildPartial());
+      }
+    }
+  }
+
+  private static final class Node {
+    final Descriptors.FieldDescriptor field;
+    Map<Integer, Node> children;
+
+    Node(Descriptors.FieldDescriptor field, Map<Integer, Node> children) {
+      this.field = field;
+      this.children = children;
+    }
+  }
+}
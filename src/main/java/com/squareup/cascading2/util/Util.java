@@ -1,7 +1,9 @@
 package com.squareup.cascading2.util;
 
 import com.google.protobuf.Descriptors;
+import com.google.protobuf.DynamicMessage;
 import com.google.protobuf.Message;
+import com.google.protobuf.UnknownFieldSet;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 
@@ -28,4 +30,83 @@ public final class Util {
     Message.Builder builder = builderFromMessageClass(messageClassName);
     return (Class<? extends Message>) builder.build().getField(fieldDescriptor).getClass();
   }
+
+  /**
+   * Returns an empty builder for the next record, given the one used for the last. Generated
+   * builders are cleared and reused, but a DynamicMessage builder can't be cleared after build(),
+   * so a new one is returned in its place.
+   */
+  public static Message.Builder clearForReuse(Message.Builder builder) {
+    if (builder instanceof DynamicMessage.Builder) {
+      return builder.getDefaultInstanceForType().newBuilderForType();
+    }
+    return builder.clear();
+  }
+
+  /**
+   * Drops the unknown fields of {@code builder} and of all of its sub-messages, so that they
+   * aren't held on to. Every sub-message is visited once, and only the ones that had unknown fields
+   * somewhere below them are rebuilt.
+   */
+  public static void discardUnknownFields(Message.Builder builder) {
+    builder.setUnknownFields(UnknownFieldSet.getDefaultInstance());
+    for (Descriptors.FieldDescriptor field : builder.getDescriptorForType().getFields()) {
+      if (field.getJavaType() != Descriptors.FieldDescriptor.JavaType.MESSAGE) {
+        continue;
+      }
+      if (field.isRepeated()) {
+        int count = builder.getRepeatedFieldCount(field);
+        for (int i = 0; i < count; i++) {
+          Message value = (Message) builder.getRepeatedField(field, i);
+          Message cleared = withoutUnknownFields(value);
+          if (cleared != value) {
+            builder.setRepeatedField(field, i, cleared);
+          }
+        }
+      } else if (builder.hasField(field)) {
+        Message value = (Message) builder.getField(field);
+        Message cleared = withoutUnknownFields(value);
+        if (cleared != value) {
+          builder.setField(field, cleared);
+        }
+      }
+    }
+  }
+
+  /** Returns {@code message} itself if it has no unknown fields anywhere, or a copy without them. */
+  private static Message withoutUnknownFields(Message message) {
+    // only made once something needs clearing
+    Message.Builder builder = null;
+    if (!message.getUnknownFields().asMap().isEmpty()) {
+      builder = message.toBuilder().setUnknownFields(UnknownFieldSet.getDefaultInstance());
+    }
+    for (Descriptors.FieldDescriptor field : message.getDescriptorForType().getFields()) {
+      if (field.getJavaType() != Descriptors.FieldDescriptor.JavaType.MESSAGE) {
+        continue;
+      }
+      if (field.isRepeated()) {
+        int count = message.getRepeatedFieldCount(field);
+        for (int i = 0; i < count; i++) {
+          Message value = (Message) message.getRepeatedField(field, i);
+          Message cleared = withoutUnknownFields(value);
+          if (cleared != value) {
+            if (builder == null) {
+              builder = message.toBuilder();
+            }
+            builder.setRepeatedField(field, i, cleared);
+          }
+        }
+      } else if (message.hasField(field)) {
+        Message value = (Message) message.getField(field);
+        Message cleared = withoutUnknownFields(value);
+        if (cleared != value) {
+          if (builder == null) {
+            builder = message.toBuilder();
+          }
+          builder.setField(field, cleared);
+        }
+      }
+    }
+    return builder == null ? message : builder.buildPartial();
+  }
 }
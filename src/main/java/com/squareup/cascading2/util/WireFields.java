@@ -0,0 +1,160 @@
+package com.squareup.cascading2.util;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.WireFormat;
+
+/**
+ * Helpers for reading individual fields straight out of serialized messages, without parsing the
+ * rest of the message and without allocating.
+ */
+public final class WireFields {
+  private WireFields() {}
+
+  /**
+   * Finds the last occurrence of a field in the message serialized in {@code bytes[start, end)}.
+   * The field is given as a path of field numbers, outermost first, and every occurrence of the
+   * messages along the path is searched, the same way a parser would merge them. Occurrences of the
+   * field whose wire type isn't {@code wireType} are ignored, as a parser would treat them as
+   * unknown fields.
+   *
+   * @return the offset of the value of the field's last occurrence, or -1 if the field isn't set
+   */
+  public static int find(byte[] bytes, int start, int end, int[] path, int wireType)
+      throws InvalidProtocolBufferException {
+    return find(bytes, start, end, path, 0, wireType);
+  }
+
+  private static int find(byte[] bytes, int pos, int end, int[] path, int depth, int wireType)
+      throws InvalidProtocolBufferException {
+    boolean last = depth == path.length - 1;
+    int found = -1;
+
+    while (pos < end) {
+      int tag = readTag(bytes, pos, end);
+      pos += varintSize(bytes, pos, end);
+
+      if ((tag >>> 3) == path[depth]) {
+        if (last) {
+          if ((tag & 7) == wireType) {
+            found = pos;
+          }
+        } else if ((tag & 7) == WireFormat.WIRETYPE_LENGTH_DELIMITED) {
+          int length = readLength(bytes, pos, end);
+          int nestedStart = pos + varintSize(bytes, pos, end);
+          int nested = find(bytes, nestedStart, nestedStart + length, path, depth + 1, wireType);
+          if (nested >= 0) {
+            found = nested;
+          }
+        }
+      }
+
+      pos = skipValue(bytes, pos, end, tag);
+    }
+
+    return found;
+  }
+
+  /** Returns the offset just past the value at {@code pos} of a field with the given tag. */
+  public static int skipValue(byte[] bytes, int pos, int end, int tag)
+      throws InvalidProtocolBufferException {
+    int next;
+    switch (tag & 7) {
+      case WireFormat.WIRETYPE_VARINT:
+        next = pos + varintSize(bytes, pos, end);
+        break;
+      case WireFormat.WIRETYPE_FIXED64:
+        next = pos + 8;
+        break;
+      case WireFormat.WIRETYPE_LENGTH_DELIMITED:
+        next = pos + varintSize(bytes, pos, end) + readLength(bytes, pos, end);
+        break;
+      case WireFormat.WIRETYPE_START_GROUP:
+        int endTag = (tag & ~7) | WireFormat.WIRETYPE_END_GROUP;
+        next = pos;
+        while (true) {
+          int nestedTag = readTag(bytes, next, end);
+          next += varintSize(bytes, next, end);
+          if (nestedTag == endTag) {
+            break;
+          }
+          next = skipValue(bytes, next, end, nestedTag);
+        }
+        break;
+      case WireFormat.WIRETYPE_FIXED32:
+        next = pos + 4;
+        break;
+      default:
+        throw new InvalidProtocolBufferException("Protocol message tag had invalid wire type.");
+    }
+
+    if (next > end) {
+      throw truncated();
+    }
+    return next;
+  }
+
+  /** Returns the number of bytes taken by the varint at {@code pos}. */
+  public static int varintSize(byte[] bytes, int pos, int end) throws InvalidProtocolBufferException {
+    for (int i = 0; i < 10; i++) {
+      if (pos + i >= end) {
+        throw truncated();
+      }
+      if (bytes[pos + i] >= 0) {
+        return i + 1;
+      }
+    }
+    throw new InvalidProtocolBufferException("CodedInputStream encountered a malformed varint.");
+  }
+
+  /** Decodes the varint at {@code pos}, which must already have been checked by varintSize. */
+  public static long readVarint(byte[] bytes, int pos) {
+    long result = 0;
+    for (int shift = 0; ; shift += 7) {
+      byte b = bytes[pos++];
+      result |= (long) (b & 0x7F) << shift;
+      if (b >= 0) {
+        return result;
+      }
+    }
+  }
+
+  public static int readFixed32(byte[] bytes, int pos) {
+    return (bytes[pos] & 0xFF)
+        | (bytes[pos + 1] & 0xFF) << 8
+        | (bytes[pos + 2] & 0xFF) << 16
+        | (bytes[pos + 3] & 0xFF) << 24;
+  }
+
+  public static long readFixed64(byte[] bytes, int pos) {
+    return (readFixed32(bytes, pos) & 0xFFFFFFFFL) | (long) readFixed32(bytes, pos + 4) << 32;
+  }
+
+  /** Reads the length prefix of a length-delimited value, making sure the value fits. */
+  public static int readLength(byte[] bytes, int pos, int end) throws InvalidProtocolBufferException {
+    int size = varintSize(bytes, pos, end);
+    int length = (int) readVarint(bytes, pos);
+    if (length < 0) {
+      throw new InvalidProtocolBufferException(
+          "CodedInputStream encountered an embedded string or message which claimed to have negative size.");
+    }
+    if (length > end - pos - size) {
+      throw truncated();
+    }
+    return length;
+  }
+
+  /** Reads the tag at {@code pos}; the tag takes up varintSize(bytes, pos, end) bytes. */
+  public static int readTag(byte[] bytes, int pos, int end) throws InvalidProtocolBufferException {
+    varintSize(bytes, pos, end);
+    int tag = (int) readVarint(bytes, pos);
+    if ((tag >>> 3) == 0) {
+      throw new InvalidProtocolBufferException("Protocol message contained an invalid tag (zero).");
+    }
+    return tag;
+  }
+
+  private static InvalidProtocolBufferException truncated() {
+    return new InvalidProtocolBufferException(
+        "While parsing a protocol message, the input ended unexpectedly in the middle of a field.");
+  }
+}
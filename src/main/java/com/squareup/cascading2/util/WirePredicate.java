@@ -0,0 +1,205 @@
+package com.squareup.cascading2.util;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.Internal;
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import org.apache.hadoop.io.WritableComparator;
+
+/**
+ * A comparison between a field of a message, given in field1.field2.field3 syntax, and a literal,
+ * that is evaluated directly on the serialized message without parsing it.
+ *
+ * A record where the field isn't set never matches, whatever the operator. Strings and bytes are
+ * compared bytewise, which for strings is the same as comparing by code point. Repeated fields, and
+ * paths through repeated fields, are not supported.
+ */
+public final class WirePredicate implements Serializable {
+  public enum Operator { EQ, NE, LT, LE, GT, GE }
+
+  private final String fieldPath;
+  private final Operator operator;
+  private final Object literal;
+
+  // resolved against the message type by bind()
+  private transient int[] path;
+  private transient Descriptors.FieldDescriptor field;
+  private transient long longLiteral;
+  private transient double doubleLiteral;
+  private transient byte[] bytesLiteral;
+
+  /**
+   * @param literal a Number for numeric fields, a Boolean for bool fields, a String for string
+   * fields, a byte[] or ByteString for bytes fields, and a number, name or enum value for enum fields
+   */
+  public WirePredicate(String fieldPath, Operator operator, Object literal) {
+    if (literal == null) {
+      throw new IllegalArgumentException("Can't compare " + fieldPath + " to null");
+    }
+    this.fieldPath = fieldPath;
+    this.operator = operator;
+    // keep the literal serializable
+    if (literal instanceof ByteString) {
+      this.literal = ((ByteString) literal).toByteArray();
+    } else if (literal instanceof Internal.EnumLite) {
+      this.literal = ((Internal.EnumLite) literal).getNumber();
+    } else {
+      this.literal = literal;
+    }
+  }
+
+  /**
+   * Resolves the field path against {@code descriptor}, checking that the literal fits the field.
+   * This has to be called before {@link #matches}.
+   */
+  public void bind(Descriptors.Descriptor descriptor) {
+    String[] segments = fieldPath.split("\\.");
+    int[] numbers = new int[segments.length];
+
+    Descriptors.Descriptor cur = descriptor;
+    Descriptors.FieldDescriptor fieldDesc = null;
+    for (int i = 0; i < segments.length; i++) {
+      if (cur == null) {
+        throw new IllegalArgumentException("Field " + segments[i - 1]
+            + " is not a message, so it has no fields. Full path: " + fieldPath);
+      }
+      fieldDesc = cur.findFieldByName(segments[i]);
+      if (fieldDesc == null) {
+        throw new IllegalArgumentException("Can't find a field named " + segments[i]
+            + " in struct " + cur.getName() + ". Full path: " + fieldPath);
+      }
+      if (fieldDesc.isRepeated()) {
+        throw new IllegalArgumentException("Cannot filter on repeated field " + segments[i]
+            + " in struct " + cur.getName() + ". Full path: " + fieldPath);
+      }
+      numbers[i] = fieldDesc.getNumber();
+      cur = fieldDesc.getJavaType() == Descriptors.FieldDescriptor.JavaType.MESSAGE
+          ? fieldDesc.getMessageType() : null;
+    }
+
+    switch (fieldDesc.getJavaType()) {
+      case INT:
+      case LONG:
+        longLiteral = literalAs(Number.class).longValue();
+        break;
+      case BOOLEAN:
+        longLiteral = literalAs(Boolean.class) ? 1 : 0;
+        break;
+      case ENUM:
+        if (literal instanceof String) {
+          Descriptors.EnumValueDescriptor value = fieldDesc.getEnumType().findValueByName((String) literal);
+          if (value == null) {
+            throw new IllegalArgumentException("Enum " + fieldDesc.getEnumType().getName()
+                + " has no value named " + literal + ". Full path: " + fieldPath);
+          }
+          longLiteral = value.getNumber();
+        } else {
+          longLiteral = literalAs(Number.class).intValue();
+        }
+        break;
+      case FLOAT:
+      case DOUBLE:
+        doubleLiteral = literalAs(Number.class).doubleValue();
+        break;
+      case STRING:
+        try {
+          bytesLiteral = literalAs(String.class).getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+          throw new RuntimeException(e);
+        }
+        break;
+      case BYTE_STRING:
+        bytesLiteral = literalAs(byte[].class);
+        break;
+      default:
+        throw new IllegalArgumentException("Cannot compare message field " + fieldDesc.getName()
+            + " to a literal. Full path: " + fieldPath);
+    }
+
+    path = numbers;
+    field = fieldDesc;
+  }
+
+  private <T> T literalAs(Class<T> type) {
+    if (!type.isInstance(literal)) {
+      throw new IllegalArgumentException("Can't compare " + fieldPath + " to "
+          + literal.getClass().getName() + " " + literal + ", expected a " + type.getName());
+    }
+    return type.cast(literal);
+  }
+
+  /** Evaluates the predicate on the message serialized in {@code bytes[offset, offset + length)}. */
+  public boolean matches(byte[] bytes, int offset, int length) throws IOException {
+    int end = offset + length;
+    int pos = WireFields.find(bytes, offset, end, path, field.getLiteType().getWireType());
+    if (pos < 0) {
+      return false;
+    }
+
+    int cmp = compareTo(bytes, pos, end);
+    switch (operator) {
+      case EQ: return cmp == 0;
+      case NE: return cmp != 0;
+      case LT: return cmp < 0;
+      case LE: return cmp <= 0;
+      case GT: return cmp > 0;
+      case GE: return cmp >= 0;
+      default: throw new IllegalStateException("Unknown operator " + operator);
+    }
+  }
+
+  /** Compares the value at {@code pos} to the literal. */
+  private int compareTo(byte[] bytes, int pos, int end) throws IOException {
+    switch (field.getType()) {
+      case INT32:
+      case ENUM:
+        return compare((int) WireFields.readVarint(bytes, pos), longLiteral);
+      case INT64:
+        return compare(WireFields.readVarint(bytes, pos), longLiteral);
+      case UINT32:
+        return compare(WireFields.readVarint(bytes, pos) & 0xFFFFFFFFL, longLiteral);
+      case UINT64:
+        return compareUnsigned(WireFields.readVarint(bytes, pos), longLiteral);
+      case SINT32:
+        return compare(CodedInputStream.decodeZigZag32((int) WireFields.readVarint(bytes, pos)), longLiteral);
+      case SINT64:
+        return compare(CodedInputStream.decodeZigZag64(WireFields.readVarint(bytes, pos)), longLiteral);
+      case BOOL:
+        return compare(WireFields.readVarint(bytes, pos) != 0 ? 1 : 0, longLiteral);
+      case FIXED32:
+        return compare(WireFields.readFixed32(bytes, pos) & 0xFFFFFFFFL, longLiteral);
+      case SFIXED32:
+        return compare(WireFields.readFixed32(bytes, pos), longLiteral);
+      case FIXED64:
+        return compareUnsigned(WireFields.readFixed64(bytes, pos), longLiteral);
+      case SFIXED64:
+        return compare(WireFields.readFixed64(bytes, pos), longLiteral);
+      case FLOAT:
+        return Float.compare(Float.intBitsToFloat(WireFields.readFixed32(bytes, pos)), (float) doubleLiteral);
+      case DOUBLE:
+        return Double.compare(Double.longBitsToDouble(WireFields.readFixed64(bytes, pos)), doubleLiteral);
+      case STRING:
+      case BYTES:
+        int length = WireFields.readLength(bytes, pos, end);
+        int start = pos + WireFields.varintSize(bytes, pos, end);
+        return WritableComparator.compareBytes(bytes, start, length, bytesLiteral, 0, bytesLiteral.length);
+      default:
+        throw new IllegalStateException("Cannot compare field of type " + field.getType());
+    }
+  }
+
+  private static int compare(long lhs, long rhs) {
+    return lhs < rhs ? -1 : (lhs == rhs ? 0 : 1);
+  }
+
+  private static int compareUnsigned(long lhs, long rhs) {
+    return compare(lhs ^ Long.MIN_VALUE, rhs ^ Long.MIN_VALUE);
+  }
+
+  @Override public String toString() {
+    return fieldPath + " " + operator + " " + literal;
+  }
+}
@@ -0,0 +1,129 @@
+package com.squareup.cascading2.benchmark;
+
+import cascading.tuple.StreamComparator;
+import cascading.tuple.hadoop.io.BufferedInputStream;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.Message;
+import com.squareup.cascading2.generated.Example;
+import com.squareup.cascading2.serialization.ProtobufSerialization;
+import java.io.ByteArrayOutputStream;
+import java.util.Comparator;
+import java.util.Random;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.serializer.Serializer;
+
+/**
+ * Times ProtobufSerialization's comparators the way the shuffle sort and in-memory grouping use
+ * them: the stream comparator on delimited messages in a shared buffer, and the object comparator
+ * on built messages. The stream comparator is also timed against reading each length with a new
+ * CodedInputStream, which is what it used to do.
+ *
+ * Run with: java ComparatorBenchmark [records] [comparisons]
+ */
+public class ComparatorBenchmark {
+  public static void main(String[] args) throws Exception {
+    int records = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+    int comparisons = args.length > 1 ? Integer.parseInt(args[1]) : 10000000;
+
+    ProtobufSerialization serde = new ProtobufSerialization();
+    Serializer<Message> ser = serde.getSerializer(Example.Person.class);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ser.open(bytes);
+    Example.Person[] messages = new Example.Person[records];
+    int[] offsets = new int[records];
+    Random random = new Random(0);
+    for (int i = 0; i < records; i++) {
+      offsets[i] = bytes.size();
+      messages[i] = person(random);
+      ser.serialize(messages[i]);
+    }
+    ser.close();
+    byte[] buffer = bytes.toByteArray();
+    System.out.println(records + " records, " + buffer.length + " bytes, " + comparisons
+        + " comparisons");
+
+    // the same pairs for every comparator
+    int[] lhsIndexes = new int[comparisons];
+    int[] rhsIndexes = new int[comparisons];
+    for (int i = 0; i < comparisons; i++) {
+      lhsIndexes[i] = random.nextInt(records);
+      rhsIndexes[i] = random.nextInt(records);
+    }
+
+    StreamComparator<BufferedInputStream> streamComparator =
+        (StreamComparator<BufferedInputStream>) serde.getComparator(Example.Person.class);
+    Comparator<Message> objectComparator = serde.getComparator(Example.Person.class);
+
+    // the first pass warms up the JIT
+    for (int pass = 0; pass < 2; pass++) {
+      long checksum = 0;
+      BufferedInputStream lhs = new BufferedInputStream();
+      BufferedInputStream rhs = new BufferedInputStream();
+      long start = System.nanoTime();
+      for (int i = 0; i < comparisons; i++) {
+        int l = offsets[lhsIndexes[i]];
+        int r = offsets[rhsIndexes[i]];
+        lhs.reset(buffer, l, buffer.length - l);
+        rhs.reset(buffer, r, buffer.length - r);
+        checksum += streamComparator.compare(lhs, rhs);
+      }
+      report(pass, "stream", comparisons, System.nanoTime() - start, checksum);
+
+      checksum = 0;
+      start = System.nanoTime();
+      for (int i = 0; i < comparisons; i++) {
+        int l = offsets[lhsIndexes[i]];
+        int r = offsets[rhsIndexes[i]];
+        lhs.reset(buffer, l, buffer.length - l);
+        rhs.reset(buffer, r, buffer.length - r);
+        checksum += compareWithCodedInputStreams(lhs, rhs);
+      }
+      report(pass, "stream/coded", comparisons, System.nanoTime() - start, checksum);
+
+      checksum = 0;
+      start = System.nanoTime();
+      for (int i = 0; i < comparisons; i++) {
+        checksum += objectComparator.compare(messages[lhsIndexes[i]], messages[rhsIndexes[i]]);
+      }
+      report(pass, "object", comparisons, System.nanoTime() - start, checksum);
+    }
+  }
+
+  private static int compareWithCodedInputStreams(BufferedInputStream lhs, BufferedInputStream rhs)
+      throws Exception {
+    // over the buffer rather than the stream, so the stream's position is still usable
+    CodedInputStream clhs = CodedInputStream.newInstance(lhs.getBuffer(), lhs.getPosition(),
+        lhs.available());
+    CodedInputStream crhs = CodedInputStream.newInstance(rhs.getBuffer(), rhs.getPosition(),
+        rhs.available());
+    int lhsLen = clhs.readRawVarint32();
+    int rhsLen = crhs.readRawVarint32();
+    int lhsStart = lhs.getPosition() + clhs.getTotalBytesRead();
+    int rhsStart = rhs.getPosition() + crhs.getTotalBytesRead();
+    lhs.skip(clhs.getTotalBytesRead() + lhsLen);
+    rhs.skip(crhs.getTotalBytesRead() + rhsLen);
+    return WritableComparator.compareBytes(lhs.getBuffer(), lhsStart, lhsLen, rhs.getBuffer(),
+        rhsStart, rhsLen);
+  }
+
+  private static void report(int pass, String name, int comparisons, long nanos, long checksum) {
+    if (pass == 0) {
+      return;
+    }
+    // the checksum keeps the comparisons from being optimized away
+    System.out.println(String.format("%-14s %7.1f ns/comparison  (checksum %d)",
+        name, (double) nanos / comparisons, checksum));
+  }
+
+  // many records share a prefix, so comparisons have to look past the first few bytes
+  private static Example.Person person(Random random) {
+    String name = "user" + random.nextInt(1000);
+    return Example.Person.newBuilder()
+        .setId(random.nextInt(100))
+        .setName(name)
+        .setEmail(name + "@example.com")
+        .setPosition(random.nextInt(10) == 0
+            ? Example.Person.Position.CEO : Example.Person.Position.GRUNT)
+        .build();
+  }
+}
@@ -0,0 +1,128 @@
+package com.squareup.cascading2.benchmark;
+
+import cascading.flow.hadoop.HadoopFlowProcess;
+import cascading.tap.Tap;
+import cascading.tap.hadoop.Hfs;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+import cascading.tuple.TupleEntryCollector;
+import cascading.tuple.TupleEntryIterator;
+import com.squareup.cascading2.generated.Example;
+import com.squareup.cascading2.scheme.ProtobufScheme;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile.CompressionType;
+import org.apache.hadoop.io.compress.BZip2Codec;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.mapred.JobConf;
+
+/**
+ * Writes and reads the same protobuf records through ProtobufScheme with each compression setting,
+ * and prints the size on disk and the throughput, measured against the uncompressed payload.
+ *
+ * Run with: java SinkCompressionBenchmark [records] [dir]
+ */
+public class SinkCompressionBenchmark {
+  public static void main(String[] args) throws Exception {
+    int records = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+    String dir = args.length > 1 ? args[1] : "/tmp/sink-compression-benchmark";
+
+    List<Tuple> tuples = new ArrayList<Tuple>(records);
+    long payload = 0;
+    Random random = new Random(0);
+    for (int i = 0; i < records; i++) {
+      Example.Partnership partnership = partnership(random, i);
+      payload += partnership.getSerializedSize();
+      tuples.add(new Tuple(partnership));
+    }
+    System.out.println(records + " records, " + payload + " payload bytes");
+
+    run("none", new ProtobufScheme("value", Example.Partnership.class)
+        .setCompression(CompressionType.NONE), dir, tuples, payload);
+    run("record/deflate", scheme(CompressionType.RECORD, DefaultCodec.class), dir, tuples, payload);
+    run("block/deflate", scheme(CompressionType.BLOCK, DefaultCodec.class), dir, tuples, payload);
+    run("block/deflate/4M", scheme(CompressionType.BLOCK, DefaultCodec.class)
+        .setCompressionBlockSize(4 << 20), dir, tuples, payload);
+    run("record/bzip2", scheme(CompressionType.RECORD, BZip2Codec.class), dir, tuples, payload);
+    run("block/bzip2", scheme(CompressionType.BLOCK, BZip2Codec.class), dir, tuples, payload);
+  }
+
+  private static ProtobufScheme scheme(CompressionType type, Class<? extends CompressionCodec> codec) {
+    return new ProtobufScheme("value", Example.Partnership.class).setCompression(type, codec);
+  }
+
+  private static void run(String name, ProtobufScheme scheme, String dir, List<Tuple> tuples,
+      long payload) throws Exception {
+    JobConf conf = new JobConf();
+    FileSystem fs = FileSystem.getLocal(conf);
+    Tap tap = new Hfs(scheme, "file://" + dir);
+    Fields fields = new Fields("value");
+
+    // the first pass warms up the JIT and the codec pools
+    long writeNanos = 0;
+    long readNanos = 0;
+    for (int pass = 0; pass < 2; pass++) {
+      fs.delete(new Path(dir), true);
+
+      long start = System.nanoTime();
+      TupleEntryCollector tec = tap.openForWrite(new HadoopFlowProcess(conf), null);
+      for (Tuple tuple : tuples) {
+        tec.add(new TupleEntry(fields, tuple));
+      }
+      tec.close();
+      writeNanos = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      TupleEntryIterator iter = tap.openForRead(new HadoopFlowProcess(conf), null);
+      int count = 0;
+      while (iter.hasNext()) {
+        iter.next();
+        count++;
+      }
+      iter.close();
+      readNanos = System.nanoTime() - start;
+
+      if (count != tuples.size()) {
+        throw new IllegalStateException("Read " + count + " records, wrote " + tuples.size());
+      }
+    }
+
+    long size = fs.getContentSummary(new Path(dir)).getLength();
+    System.out.println(String.format("%-18s %12d bytes %6.2fx smaller  write %7.1f MB/s  read %7.1f MB/s",
+        name, size, (double) payload / size, mbPerSecond(payload, writeNanos),
+        mbPerSecond(payload, readNanos)));
+  }
+
+  private static double mbPerSecond(long bytes, long nanos) {
+    return bytes / 1048576.0 / (nanos / 1e9);
+  }
+
+  // records with the kind of repetition real data has: a few enum values, shared email domains and
+  // small ids
+  private static Example.Partnership partnership(Random random, int i) {
+    Example.Partnership.Builder builder = Example.Partnership.newBuilder()
+        .setLeader(person(random, i))
+        .setFollower(person(random, i + 1));
+    int silent = random.nextInt(4);
+    for (int j = 0; j < silent; j++) {
+      builder.addSilent(person(random, i + 2 + j));
+    }
+    return builder.build();
+  }
+
+  private static Example.Person person(Random random, int id) {
+    String name = "user" + random.nextInt(10000);
+    return Example.Person.newBuilder()
+        .setId(id)
+        .setName(name)
+        .setEmail(name + (random.nextBoolean() ? "@example.com" : "@mail.example.org"))
+        .setPosition(random.nextInt(10) == 0
+            ? Example.Person.Position.CEO : Example.Person.Position.GRUNT)
+        .build();
+  }
+}
@@ -0,0 +1,84 @@
+package com.squareup.cascading2.benchmark;
+
+import com.google.protobuf.Message;
+import com.squareup.cascading2.generated.Example;
+import com.squareup.cascading2.serialization.ProtobufSerialization;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import org.apache.hadoop.io.serializer.Serializer;
+
+/**
+ * Writes protobuf records through ProtobufSerialization's serializer into a buffered local file,
+ * the way tuples are spilled to disk, and prints the throughput. The same records are also written
+ * with a flush after every record, which is what the serializer used to do; each flush of a
+ * BufferedOutputStream is a write to the file.
+ *
+ * Run with: java SpillBenchmark [records] [file]
+ */
+public class SpillBenchmark {
+  public static void main(String[] args) throws Exception {
+    int records = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+    String file = args.length > 1 ? args[1] : "/tmp/spill-benchmark";
+
+    Message[] messages = new Message[records];
+    long payload = 0;
+    Random random = new Random(0);
+    for (int i = 0; i < records; i++) {
+      messages[i] = person(random, i);
+      payload += messages[i].getSerializedSize();
+    }
+    System.out.println(records + " records, " + payload + " payload bytes");
+
+    // the first pass warms up the JIT
+    for (int pass = 0; pass < 2; pass++) {
+      Serializer<Message> ser = new ProtobufSerialization().getSerializer(Message.class);
+      ser.open(open(file));
+      long start = System.nanoTime();
+      for (Message message : messages) {
+        ser.serialize(message);
+      }
+      ser.close();
+      report(pass, "serializer", payload, System.nanoTime() - start);
+
+      OutputStream out = open(file);
+      start = System.nanoTime();
+      for (Message message : messages) {
+        writeAndFlush(message, out);
+      }
+      out.close();
+      report(pass, "flush/record", payload, System.nanoTime() - start);
+    }
+    new File(file).delete();
+  }
+
+  private static OutputStream open(String file) throws IOException {
+    return new BufferedOutputStream(new FileOutputStream(file), 64 * 1024);
+  }
+
+  private static void writeAndFlush(Message message, OutputStream out) throws IOException {
+    message.writeDelimitedTo(out);
+    out.flush();
+  }
+
+  private static void report(int pass, String name, long payload, long nanos) {
+    if (pass == 0) {
+      return;
+    }
+    System.out.println(String.format("%-14s %7.1f MB/s", name, payload / 1048576.0 / (nanos / 1e9)));
+  }
+
+  private static Example.Person person(Random random, int id) {
+    String name = "user" + random.nextInt(10000);
+    return Example.Person.newBuilder()
+        .setId(id)
+        .setName(name)
+        .setEmail(name + "@example.com")
+        .setPosition(random.nextInt(10) == 0
+            ? Example.Person.Position.CEO : Example.Person.Position.GRUNT)
+        .build();
+  }
+}
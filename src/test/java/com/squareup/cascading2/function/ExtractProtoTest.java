@@ -12,8 +12,10 @@ import cascading.tuple.Fields;
 import cascading.tuple.Tuple;
 import cascading.tuple.TupleEntry;
 import cascading.tuple.TupleEntryCollector;
+import com.google.protobuf.DynamicMessage;
 import com.squareup.cascading2.generated.Example;
 import com.squareup.cascading2.scheme.ProtobufScheme;
+import com.squareup.cascading2.util.DynamicMessageType;
 import junit.framework.TestCase;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
@@ -95,6 +97,13 @@ public class ExtractProtoTest extends TestCase {
         exec(new ExtractProto(Example.Partnership.class, "leader.name", "leader.email", "leader.position"), new Tuple(P3)));
   }
 
+  public void testDynamicMessage() throws Exception {
+    DynamicMessageType type = DynamicMessageType.of(Example.Partnership.getDescriptor());
+    DynamicMessage p3 = DynamicMessage.parseFrom(type.getDescriptor(), P3.toByteArray());
+    assertEquals(new Tuple("Jack", Example.Person.Position.CEO.getNumber(), null),
+        exec(new ExtractProto(type, "leader.name", "leader.position", "follower.name"), new Tuple(p3)));
+  }
+
   public void testSerialization() throws Exception {
     Pipe p = new Each("input", new ExtractProto(Example.Partnership.class, "leader.name"));
 
@@ -0,0 +1,145 @@
+package com.squareup.cascading2.scheme;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.Message;
+import com.google.protobuf.UnknownFieldSet;
+import com.squareup.cascading2.generated.Example;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import junit.framework.TestCase;
+
+public class ColumnLayoutTest extends TestCase {
+  private static final Example.Partnership BEATLES = Example.Partnership.newBuilder()
+      .setLeader(Example.Person.newBuilder().setId(1).setName("John").setEmail("john@"))
+      .setFollower(Example.Person.newBuilder().setId(2).setName("Paul")
+          .setPosition(Example.Person.Position.CEO))
+      .addSilent(Example.Person.newBuilder().setId(3).setName("George"))
+      .addSilent(Example.Person.newBuilder().setId(4).setName("Ringo"))
+      .build();
+  // an empty leader is still set, and must come back that way
+  private static final Example.Partnership DUO = Example.Partnership.newBuilder()
+      .setLeader(Example.Person.newBuilder())
+      .setFollower(Example.Person.newBuilder().setName("Art"))
+      .build();
+  private static final Example.Partnership NOBODY = Example.Partnership.newBuilder().build();
+
+  public void testRoundtrip() throws Exception {
+    List<Message> expected = Arrays.<Message>asList(BEATLES, DUO, NOBODY);
+    assertEquals(expected, roundtrip(expected));
+  }
+
+  public void testSelectedColumns() throws Exception {
+    List<Message> expected = new ArrayList<Message>();
+    expected.add(Example.Partnership.newBuilder()
+        .setLeader(Example.Person.newBuilder().setName("John"))
+        .addAllSilent(BEATLES.getSilentList())
+        .build());
+    expected.add(Example.Partnership.newBuilder()
+        .setLeader(Example.Person.newBuilder())
+        .build());
+    expected.add(NOBODY);
+
+    assertEquals(expected, roundtrip(Arrays.<Message>asList(BEATLES, DUO, NOBODY),
+        "leader.name", "silent.name"));
+  }
+
+  public void testWholeMessageColumn() throws Exception {
+    List<Message> expected = new ArrayList<Message>();
+    expected.add(Example.Partnership.newBuilder().setFollower(BEATLES.getFollower()).build());
+    expected.add(Example.Partnership.newBuilder().setFollower(DUO.getFollower()).build());
+    expected.add(NOBODY);
+
+    assertEquals(expected, roundtrip(Arrays.<Message>asList(BEATLES, DUO, NOBODY), "follower"));
+  }
+
+  public void testKeepsUnknownFields() throws Exception {
+    UnknownFieldSet unknown = UnknownFieldSet.newBuilder()
+        .addField(100, UnknownFieldSet.Field.newBuilder().addVarint(7).build())
+        .addField(101, UnknownFieldSet.Field.newBuilder()
+            .addLengthDelimited(ByteString.copyFromUtf8("extension")).build())
+        .build();
+    Example.Partnership partnership = Example.Partnership.newBuilder()
+        .setLeader(Example.Person.newBuilder().setName("John").setUnknownFields(unknown))
+        .addSilent(Example.Person.newBuilder().setId(3).setUnknownFields(unknown))
+        .setUnknownFields(unknown)
+        .build();
+    // a message field sent with the wrong wire type can't be flattened, and is kept as is
+    Message mistyped = Example.Partnership.newBuilder().setUnknownFields(UnknownFieldSet.newBuilder()
+        .addField(Example.Partnership.LEADER_FIELD_NUMBER,
+            UnknownFieldSet.Field.newBuilder().addVarint(1).build())
+        .build()).build();
+
+    List<Message> expected = Arrays.<Message>asList(partnership, mistyped);
+    assertEquals(expected, roundtrip(expected));
+
+    List<Message> leaders = new ArrayList<Message>();
+    leaders.add(Example.Partnership.newBuilder().setLeader(partnership.getLeader()).build());
+    leaders.add(NOBODY);
+    assertEquals(leaders, roundtrip(expected, "leader"));
+  }
+
+  public void testBufferedBytes() throws Exception {
+    ColumnLayout layout = new ColumnLayout(Example.Partnership.getDescriptor());
+    ColumnLayout.Writer writer = layout.new Writer();
+    writer.add(BEATLES.toByteArray(), BEATLES.getSerializedSize());
+    writer.add(DUO.toByteArray(), DUO.getSerializedSize());
+    long buffered = writer.getBufferedBytes();
+    assertTrue(buffered > BEATLES.getSerializedSize() + DUO.getSerializedSize());
+
+    byte[] rowGroup = writer.finishRowGroup();
+    ColumnarProtobufFile.Directory directory =
+        ColumnarProtobufFile.Directory.read(CodedInputStream.newInstance(rowGroup));
+    assertEquals(buffered, directory.getChunksLength());
+    assertEquals(rowGroup.length, directory.getSerializedSize() + buffered);
+    assertEquals(0, writer.getBufferedBytes());
+  }
+
+  public void testSeveralRowGroups() throws Exception {
+    ColumnLayout layout = new ColumnLayout(Example.Partnership.getDescriptor());
+    ColumnLayout.Writer writer = layout.new Writer();
+    writer.add(BEATLES.toByteArray(), BEATLES.getSerializedSize());
+    byte[] first = writer.finishRowGroup();
+    writer.add(DUO.toByteArray(), DUO.getSerializedSize());
+    byte[] second = writer.finishRowGroup();
+
+    ColumnLayout.Reader reader = layout.new Reader(layout.getColumns());
+    assertEquals(BEATLES, readAll(reader, first).get(0));
+    assertEquals(Arrays.<Message>asList(DUO), readAll(reader, second));
+  }
+
+  public void testBadPath() {
+    ColumnLayout layout = new ColumnLayout(Example.Partnership.getDescriptor());
+    try {
+      layout.select(Example.Partnership.getDescriptor(), "leader.nickname");
+      fail("should have thrown");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  private static List<Message> roundtrip(List<Message> messages, String... paths) throws Exception {
+    ColumnLayout layout = new ColumnLayout(Example.Partnership.getDescriptor());
+    ColumnLayout.Writer writer = layout.new Writer();
+    for (Message message : messages) {
+      writer.add(message.toByteArray(), message.getSerializedSize());
+    }
+    byte[] rowGroup = writer.finishRowGroup();
+
+    List<ColumnLayout.Column> columns = paths.length == 0
+        ? layout.getColumns()
+        : layout.select(Example.Partnership.getDescriptor(), paths);
+    return readAll(layout.new Reader(columns), rowGroup);
+  }
+
+  private static List<Message> readAll(ColumnLayout.Reader reader, byte[] rowGroup) throws Exception {
+    reader.reset(rowGroup, rowGroup.length);
+    List<Message> messages = new ArrayList<Message>();
+    Example.Partnership.Builder builder = Example.Partnership.newBuilder();
+    while (reader.next(builder.clear())) {
+      messages.add(builder.buildPartial());
+    }
+    return messages;
+  }
+}
@@ -0,0 +1,156 @@
+package com.squareup.cascading2.scheme;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.Message;
+import com.squareup.cascading2.generated.Example;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import junit.framework.TestCase;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.RecordWriter;
+import org.apache.hadoop.mapred.Reporter;
+
+public class ColumnarProtobufInputFormatTest extends TestCase {
+  private static final Path DIR = new Path("/tmp/columnar");
+  private static final ColumnLayout LAYOUT = new ColumnLayout(Example.Partnership.getDescriptor());
+
+  public void testSplitsReadEveryRowGroupOnce() throws Exception {
+    JobConf conf = new JobConf();
+    List<Message> expected = partnerships(2000);
+    Path file = write(conf, expected);
+
+    for (int numSplits : new int[] {1, 3, 17, 100}) {
+      InputSplit[] splits = getSplits(conf, file, numSplits);
+      assertTrue(splits.length >= numSplits);
+      assertEquals(expected, readAll(conf, splits, LAYOUT.getColumns()));
+    }
+  }
+
+  public void testOnlyReadsSelectedColumns() throws Exception {
+    JobConf conf = new JobConf();
+    List<Message> written = partnerships(100);
+    Path file = write(conf, written);
+
+    List<ColumnLayout.Column> columns =
+        LAYOUT.select(Example.Partnership.getDescriptor(), "leader.name");
+    List<String> paths = new ArrayList<String>();
+    for (ColumnLayout.Column column : columns) {
+      paths.add(column.path);
+    }
+    conf.setStrings(ColumnarProtobufFile.COLUMNS, paths.toArray(new String[paths.size()]));
+
+    List<Message> expected = new ArrayList<Message>();
+    for (Message message : written) {
+      Example.Partnership partnership = (Example.Partnership) message;
+      expected.add(Example.Partnership.newBuilder()
+          .setLeader(Example.Person.newBuilder().setName(partnership.getLeader().getName()))
+          .build());
+    }
+    InputSplit[] splits = getSplits(conf, file, 3);
+    assertEquals(expected, readAll(conf, splits, columns));
+
+    // the values hold nothing but the selected columns
+    RecordReader<NullWritable, BytesWritable> reader =
+        new ColumnarProtobufInputFormat().getRecordReader(splits[0], conf, Reporter.NULL);
+    BytesWritable value = reader.createValue();
+    assertTrue(reader.next(NullWritable.get(), value));
+    reader.close();
+    ColumnarProtobufFile.Directory directory = ColumnarProtobufFile.Directory.read(
+        CodedInputStream.newInstance(value.getBytes(), 0, value.getLength()));
+    assertEquals(paths, Arrays.asList(directory.paths));
+    assertEquals(value.getLength(), directory.getSerializedSize() + directory.getChunksLength());
+  }
+
+  public void testRejectsOtherFiles() throws Exception {
+    JobConf conf = new JobConf();
+    FileSystem fs = FileSystem.getLocal(conf);
+    fs.delete(DIR, true);
+    Path file = new Path(DIR, "other");
+    OutputStream out = fs.create(file);
+    out.write("not a columnar protobuf file".getBytes("UTF-8"));
+    out.close();
+
+    try {
+      new ColumnarProtobufInputFormat().getRecordReader(getSplits(conf, file, 1)[0], conf,
+          Reporter.NULL);
+      fail("should have thrown");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  /** Writes the messages in row groups of 50. */
+  private static Path write(JobConf conf, List<Message> messages) throws Exception {
+    FileSystem fs = FileSystem.getLocal(conf);
+    fs.delete(DIR, true);
+    FileOutputFormat.setOutputPath(conf, DIR);
+    conf.set("mapred.task.id", "attempt_200707121733_0001_m_000000_0");
+    fs.mkdirs(new Path(DIR, "_temporary"));
+
+    RecordWriter<NullWritable, BytesWritable> writer = new ColumnarProtobufOutputFormat()
+        .getRecordWriter(fs, conf, "part-00000", Reporter.NULL);
+    ColumnLayout.Writer rowGroup = LAYOUT.new Writer();
+    for (Message message : messages) {
+      rowGroup.add(message.toByteArray(), message.getSerializedSize());
+      if (rowGroup.getRowCount() == 50) {
+        writer.write(NullWritable.get(), new BytesWritable(rowGroup.finishRowGroup()));
+      }
+    }
+    if (rowGroup.getRowCount() > 0) {
+      writer.write(NullWritable.get(), new BytesWritable(rowGroup.finishRowGroup()));
+    }
+    writer.close(Reporter.NULL);
+
+    // the file stays in the task's work directory, since the task is never committed
+    return FileOutputFormat.getTaskOutputPath(conf, "part-00000");
+  }
+
+  private static InputSplit[] getSplits(JobConf conf, Path path, int numSplits) throws Exception {
+    FileInputFormat.setInputPaths(conf, path);
+    return new ColumnarProtobufInputFormat().getSplits(conf, numSplits);
+  }
+
+  private static List<Message> readAll(JobConf conf, InputSplit[] splits,
+      List<ColumnLayout.Column> columns) throws Exception {
+    List<Message> messages = new ArrayList<Message>();
+    ColumnLayout.Reader rowGroup = LAYOUT.new Reader(columns);
+    Example.Partnership.Builder builder = Example.Partnership.newBuilder();
+    for (InputSplit split : splits) {
+      RecordReader<NullWritable, BytesWritable> reader =
+          new ColumnarProtobufInputFormat().getRecordReader(split, conf, Reporter.NULL);
+      BytesWritable value = reader.createValue();
+      while (reader.next(NullWritable.get(), value)) {
+        rowGroup.reset(value.getBytes(), value.getLength());
+        while (rowGroup.next(builder.clear())) {
+          messages.add(builder.buildPartial());
+        }
+      }
+      reader.close();
+    }
+    return messages;
+  }
+
+  private static List<Message> partnerships(int count) {
+    List<Message> partnerships = new ArrayList<Message>();
+    for (int i = 0; i < count; i++) {
+      Example.Partnership.Builder builder = Example.Partnership.newBuilder()
+          .setLeader(Example.Person.newBuilder().setId(i).setName("leader" + i));
+      if (i % 3 == 0) {
+        builder.setFollower(Example.Person.newBuilder().setId(i).setEmail("follower" + i + "@"));
+      }
+      partnerships.add(builder.build());
+    }
+    return partnerships;
+  }
+}
@@ -0,0 +1,68 @@
+package com.squareup.cascading2.scheme;
+
+import com.squareup.cascading2.generated.Example;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import junit.framework.TestCase;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+
+public class CombinedProtobufInputFormatTest extends TestCase {
+  private static final Path DIR = new Path("/tmp/combined");
+
+  public void testCombinesSmallFiles() throws Exception {
+    JobConf conf = new JobConf();
+    FileSystem fs = FileSystem.getLocal(conf);
+    fs.delete(DIR, true);
+
+    List<Integer> expected = new ArrayList<Integer>();
+    for (int file = 0; file < 20; file++) {
+      SequenceFile.Writer writer = SequenceFile.createWriter(fs, conf, new Path(DIR, "part-" + file),
+          NullWritable.class, BytesWritable.class, SequenceFile.CompressionType.NONE);
+      for (int i = 0; i < 10; i++) {
+        int id = file * 10 + i;
+        writer.append(NullWritable.get(),
+            new BytesWritable(Example.Person.newBuilder().setId(id).build().toByteArray()));
+        expected.add(id);
+      }
+      writer.close();
+    }
+
+    FileInputFormat.setInputPaths(conf, DIR);
+    conf.setLong(CombinedProtobufInputFormat.MAX_SPLIT_SIZE, 64 * 1024 * 1024);
+    InputSplit[] splits = new CombinedProtobufInputFormat().getSplits(conf, 1);
+    assertEquals(1, splits.length);
+    assertEquals(expected, readAll(conf, splits));
+
+    // small max split sizes make more splits, but each record is still read once
+    long fileSize = fs.getFileStatus(new Path(DIR, "part-0")).getLen();
+    conf.setLong(CombinedProtobufInputFormat.MAX_SPLIT_SIZE, fileSize * 3);
+    splits = new CombinedProtobufInputFormat().getSplits(conf, 1);
+    assertTrue(splits.length > 1 && splits.length < 20);
+    assertEquals(expected, readAll(conf, splits));
+  }
+
+  private static List<Integer> readAll(JobConf conf, InputSplit[] splits) throws Exception {
+    List<Integer> ids = new ArrayList<Integer>();
+    for (InputSplit split : splits) {
+      RecordReader<NullWritable, BytesWritable> reader =
+          new CombinedProtobufInputFormat().getRecordReader(split, conf, Reporter.NULL);
+      BytesWritable value = reader.createValue();
+      while (reader.next(NullWritable.get(), value)) {
+        ids.add(Example.Person.newBuilder().mergeFrom(value.getBytes(), 0, value.getLength()).build().getId());
+      }
+      reader.close();
+    }
+    Collections.sort(ids);
+    return ids;
+  }
+}
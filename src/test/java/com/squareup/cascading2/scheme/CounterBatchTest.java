@@ -0,0 +1,85 @@
+package com.squareup.cascading2.scheme;
+
+import cascading.flow.hadoop.HadoopFlowProcess;
+import java.util.EnumMap;
+import java.util.Map;
+import junit.framework.TestCase;
+
+public class CounterBatchTest extends TestCase {
+  public void testBatchesIncrements() throws Exception {
+    RecordingFlowProcess flowProcess = new RecordingFlowProcess();
+    CounterBatch counters = new CounterBatch(flowProcess);
+
+    for (int i = 0; i < 999; i++) {
+      counters.recordRead(10);
+      counters.recordParsed(10);
+    }
+    assertEquals(0, flowProcess.increments);
+
+    // the 1000th record flushes
+    counters.recordRead(10);
+    assertEquals(10000L, flowProcess.get(ProtobufScheme.Counter.BYTES_READ));
+    assertEquals(1000L, flowProcess.get(ProtobufScheme.Counter.RECORDS_READ));
+    assertEquals(9990L, flowProcess.get(ProtobufScheme.Counter.BYTES_PARSED));
+
+    counters.recordParsed(10);
+    counters.recordWritten(20);
+    counters.flush();
+    assertEquals(10000L, flowProcess.get(ProtobufScheme.Counter.BYTES_PARSED));
+    assertEquals(1L, flowProcess.get(ProtobufScheme.Counter.RECORDS_WRITTEN));
+    assertEquals(20L, flowProcess.get(ProtobufScheme.Counter.BYTES_WRITTEN));
+  }
+
+  public void testMaxRecordSizeIsSharedBySourceAndSink() throws Exception {
+    RecordingFlowProcess flowProcess = new RecordingFlowProcess();
+    // the maximum is per JVM, so work relative to whatever earlier tests left behind
+    int base = (int) CounterBatch.reportedMaxRecordSize();
+    CounterBatch source = new CounterBatch(flowProcess);
+    CounterBatch sink = new CounterBatch(flowProcess);
+
+    source.recordRead(base + 100);
+    sink.recordWritten(base + 50);
+    source.flush();
+    sink.flush();
+    assertEquals(base + 100, CounterBatch.reportedMaxRecordSize());
+
+    sink.recordWritten(base + 300);
+    sink.flush();
+    source.flush();
+    assertEquals(base + 300, CounterBatch.reportedMaxRecordSize());
+
+    // a new batch in the same JVM, e.g. another scheme's decoder, doesn't start over
+    CounterBatch decoder = new CounterBatch(flowProcess);
+    decoder.recordRead(base + 200);
+    decoder.flush();
+    assertEquals(base + 300, CounterBatch.reportedMaxRecordSize());
+    assertEquals(2, flowProcess.get(ProtobufScheme.Counter.RECORDS_READ));
+  }
+
+  public void testTimesOneInInterval() throws Exception {
+    CounterBatch counters = new CounterBatch(new RecordingFlowProcess());
+    int timed = 0;
+    for (int i = 0; i < CounterBatch.TIMING_INTERVAL * 10; i++) {
+      if (counters.timeNext()) {
+        timed++;
+      }
+    }
+    assertEquals(10, timed);
+  }
+
+  private static class RecordingFlowProcess extends HadoopFlowProcess {
+    final Map<ProtobufScheme.Counter, Long> counts =
+        new EnumMap<ProtobufScheme.Counter, Long>(ProtobufScheme.Counter.class);
+    int increments;
+
+    @Override public void increment(Enum counter, long amount) {
+      increments++;
+      counts.put((ProtobufScheme.Counter) counter, get((ProtobufScheme.Counter) counter) + amount);
+    }
+
+    long get(ProtobufScheme.Counter counter) {
+      Long count = counts.get(counter);
+      return count == null ? 0 : count;
+    }
+  }
+}
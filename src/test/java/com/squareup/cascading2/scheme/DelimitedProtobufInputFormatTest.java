@@ -0,0 +1,96 @@
+package com.squareup.cascading2.scheme;
+
+import com.squareup.cascading2.generated.Example;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.TestCase;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.RecordWriter;
+import org.apache.hadoop.mapred.Reporter;
+
+public class DelimitedProtobufInputFormatTest extends TestCase {
+  private static final Path DIR = new Path("/tmp/delimited");
+
+  public void testSplitsReadEveryRecordOnce() throws Exception {
+    JobConf conf = new JobConf();
+    FileSystem fs = FileSystem.getLocal(conf);
+    fs.delete(DIR, true);
+
+    List<Example.Person> expected = people(2000);
+    conf.setInt(DelimitedProtobufFile.SYNC_INTERVAL, 500);
+    FileOutputFormat.setOutputPath(conf, DIR);
+    conf.set("mapred.task.id", "attempt_200707121733_0001_m_000000_0");
+    fs.mkdirs(new Path(DIR, "_temporary"));
+    RecordWriter<NullWritable, BytesWritable> writer = new DelimitedProtobufOutputFormat()
+        .getRecordWriter(fs, conf, "part-00000", Reporter.NULL);
+    for (Example.Person person : expected) {
+      writer.write(NullWritable.get(), new BytesWritable(person.toByteArray()));
+    }
+    writer.close(Reporter.NULL);
+
+    // the file stays in the task's work directory, since the task is never committed
+    Path file = FileOutputFormat.getTaskOutputPath(conf, "part-00000");
+    for (int numSplits : new int[] {1, 3, 17, 100}) {
+      InputSplit[] splits = getSplits(conf, file, numSplits);
+      assertTrue(splits.length >= numSplits);
+      assertEquals(expected, readAll(conf, splits));
+    }
+  }
+
+  public void testPlainDelimitedFile() throws Exception {
+    JobConf conf = new JobConf();
+    FileSystem fs = FileSystem.getLocal(conf);
+    fs.delete(DIR, true);
+
+    List<Example.Person> expected = people(500);
+    OutputStream out = fs.create(new Path(DIR, "plain"));
+    for (Example.Person person : expected) {
+      person.writeDelimitedTo(out);
+    }
+    out.close();
+
+    InputSplit[] splits = getSplits(conf, DIR, 10);
+    assertEquals(1, splits.length);
+    assertEquals(expected, readAll(conf, splits));
+  }
+
+  private static InputSplit[] getSplits(JobConf conf, Path path, int numSplits) throws Exception {
+    FileInputFormat.setInputPaths(conf, path);
+    return new DelimitedProtobufInputFormat().getSplits(conf, numSplits);
+  }
+
+  private static List<Example.Person> readAll(JobConf conf, InputSplit[] splits) throws Exception {
+    List<Example.Person> people = new ArrayList<Example.Person>();
+    for (InputSplit split : splits) {
+      RecordReader<NullWritable, BytesWritable> reader =
+          new DelimitedProtobufInputFormat().getRecordReader(split, conf, Reporter.NULL);
+      BytesWritable value = reader.createValue();
+      while (reader.next(NullWritable.get(), value)) {
+        people.add(Example.Person.newBuilder().mergeFrom(value.getBytes(), 0, value.getLength()).build());
+      }
+      reader.close();
+    }
+    return people;
+  }
+
+  private static List<Example.Person> people(int count) {
+    List<Example.Person> people = new ArrayList<Example.Person>();
+    for (int i = 0; i < count; i++) {
+      Example.Person.Builder builder = Example.Person.newBuilder().setId(i).setName("person" + i);
+      if (i % 3 == 0) {
+        builder.setEmail("person" + i + "@mail.com");
+      }
+      people.add(builder.build());
+    }
+    return people;
+  }
+}
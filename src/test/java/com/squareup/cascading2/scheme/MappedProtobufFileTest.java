@@ -0,0 +1,112 @@
+package com.squareup.cascading2.scheme;
+
+import com.squareup.cascading2.generated.Example;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.TestCase;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+
+public class MappedProtobufFileTest extends TestCase {
+  public void testSequenceFile() throws Exception {
+    Configuration conf = new Configuration();
+    FileSystem fs = FileSystem.getLocal(conf);
+    Path path = new Path("/tmp/mapped/sequence");
+    fs.delete(path, true);
+
+    List<Example.Person> expected = people(1000);
+    SequenceFile.Writer writer = SequenceFile.createWriter(fs, conf, path, NullWritable.class,
+        BytesWritable.class, SequenceFile.CompressionType.NONE);
+    for (Example.Person person : expected) {
+      writer.append(NullWritable.get(), new BytesWritable(person.toByteArray()));
+    }
+    writer.close();
+
+    FileInputStream in = new FileInputStream("/tmp/mapped/sequence");
+    try {
+      assertEquals(expected, readAll(new MappedProtobufFile(MappedProtobufFile.map(in))));
+    } finally {
+      in.close();
+    }
+  }
+
+  public void testCompressedSequenceFileIsRejected() throws Exception {
+    Configuration conf = new Configuration();
+    FileSystem fs = FileSystem.getLocal(conf);
+    Path path = new Path("/tmp/mapped/compressed");
+    fs.delete(path, true);
+
+    SequenceFile.Writer writer = SequenceFile.createWriter(fs, conf, path, NullWritable.class,
+        BytesWritable.class, SequenceFile.CompressionType.BLOCK);
+    writer.append(NullWritable.get(), new BytesWritable(people(1).get(0).toByteArray()));
+    writer.close();
+
+    FileInputStream in = new FileInputStream(new File("/tmp/mapped/compressed"));
+    try {
+      new MappedProtobufFile(MappedProtobufFile.map(in));
+      fail("should have thrown");
+    } catch (IOException e) {
+      // expected
+    } finally {
+      in.close();
+    }
+  }
+
+  public void testDelimitedWithSyncMarkers() throws Exception {
+    List<Example.Person> expected = people(1000);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    DelimitedProtobufFile.Writer writer = new DelimitedProtobufFile.Writer(out, 100);
+    for (Example.Person person : expected) {
+      byte[] bytes = person.toByteArray();
+      writer.write(bytes, 0, bytes.length);
+    }
+    writer.flush();
+
+    assertEquals(expected, readAll(new MappedProtobufFile(ByteBuffer.wrap(out.toByteArray()))));
+  }
+
+  public void testPlainDelimited() throws Exception {
+    List<Example.Person> expected = people(100);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (Example.Person person : expected) {
+      person.writeDelimitedTo(out);
+    }
+
+    assertEquals(expected, readAll(new MappedProtobufFile(ByteBuffer.wrap(out.toByteArray()))));
+  }
+
+  public void testOnlyMapsFiles() throws Exception {
+    try {
+      MappedProtobufFile.map(new ByteArrayInputStream(new byte[0]));
+      fail("should have thrown");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  private static List<Example.Person> readAll(MappedProtobufFile file) throws Exception {
+    List<Example.Person> people = new ArrayList<Example.Person>();
+    while (file.next()) {
+      people.add(Example.Person.newBuilder().mergeFrom(file.getBytes(), 0, file.getLength()).build());
+    }
+    return people;
+  }
+
+  private static List<Example.Person> people(int count) {
+    List<Example.Person> people = new ArrayList<Example.Person>();
+    for (int i = 0; i < count; i++) {
+      people.add(Example.Person.newBuilder().setId(i).setName("person" + i).build());
+    }
+    return people;
+  }
+}
@@ -0,0 +1,99 @@
+package com.squareup.cascading2.scheme;
+
+import com.squareup.cascading2.generated.Example;
+import junit.framework.TestCase;
+
+public class PartitionTemplateTest extends TestCase {
+  public void testFormat() throws Exception {
+    PartitionTemplate template = PartitionTemplate.compile("leader={leader.name}/id={leader.id}",
+        Example.Partnership.getDescriptor());
+    Example.Partnership partnership = Example.Partnership.newBuilder()
+        .setLeader(Example.Person.newBuilder().setName("bryan").setId(1))
+        .build();
+    assertEquals("leader=bryan/id=1", template.format(partnership));
+
+    // unset fields render as their defaults
+    assertEquals("leader=/id=0", template.format(Example.Partnership.getDefaultInstance()));
+  }
+
+  public void testEnumsAndEscaping() throws Exception {
+    PartitionTemplate template = PartitionTemplate.compile("{position}/{name}",
+        Example.Person.getDescriptor());
+    Example.Person person = Example.Person.newBuilder()
+        .setPosition(Example.Person.Position.CEO)
+        .setName("a/b%c")
+        .build();
+    assertEquals("CEO/a%2Fb%25c", template.format(person));
+
+    // colons would make Path parse the segment as a URI scheme
+    assertEquals("CEO/12%3A30", template.format(person.toBuilder().setName("12:30").build()));
+  }
+
+  public void testEmptyValueSegments() throws Exception {
+    PartitionTemplate template = PartitionTemplate.compile("{name}/{email}",
+        Example.Person.getDescriptor());
+    // a leading empty segment would make the path absolute, and a later one would collapse
+    assertEquals("__empty__/__empty__", template.format(Example.Person.getDefaultInstance()));
+    assertEquals("a/__empty__", template.format(Example.Person.newBuilder().setName("a").build()));
+
+    // values that only make up part of a segment are left alone
+    template = PartitionTemplate.compile("name={name}", Example.Person.getDescriptor());
+    assertEquals("name=", template.format(Example.Person.getDefaultInstance()));
+  }
+
+  public void testDotValueSegments() throws Exception {
+    PartitionTemplate template = PartitionTemplate.compile("{name}/{email}",
+        Example.Person.getDescriptor());
+    assertEquals("%2E/x", template.format(
+        Example.Person.newBuilder().setName(".").setEmail("x").build()));
+    assertEquals("%2E%2E/%2E%2E", template.format(
+        Example.Person.newBuilder().setName("..").setEmail("..").build()));
+    assertEquals(".../x", template.format(
+        Example.Person.newBuilder().setName("...").setEmail("x").build()));
+
+    template = PartitionTemplate.compile("n{name}", Example.Person.getDescriptor());
+    assertEquals("n..", template.format(Example.Person.newBuilder().setName("..").build()));
+  }
+
+  public void testInvalidTemplates() throws Exception {
+    assertInvalid("/abs/{name}");
+    assertInvalid("../{name}");
+    assertInvalid("a//{name}");
+    assertInvalid("{name}/");
+    assertInvalid("./{name}");
+    assertInvalid("c:/{name}");
+    assertInvalid("no-placeholders");
+    assertInvalid("{name");
+    assertInvalid("{missing}");
+    assertInvalid("{name.first}");
+    assertInvalid("a/../{name}");
+
+    // dots are only a problem as a whole segment
+    PartitionTemplate template = PartitionTemplate.compile("v1..2/{name}", Example.Person.getDescriptor());
+    assertEquals("v1..2/a", template.format(Example.Person.newBuilder().setName("a").build()));
+  }
+
+  public void testRepeatedAndMessageFieldsAreRejected() throws Exception {
+    try {
+      PartitionTemplate.compile("{silent.name}", Example.Partnership.getDescriptor());
+      fail("should have thrown");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    try {
+      PartitionTemplate.compile("{leader}", Example.Partnership.getDescriptor());
+      fail("should have thrown");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  private static void assertInvalid(String template) {
+    try {
+      PartitionTemplate.compile(template, Example.Person.getDescriptor());
+      fail("should have thrown for " + template);
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,104 @@
+package com.squareup.cascading2.scheme;
+
+import com.squareup.cascading2.generated.Example;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import junit.framework.TestCase;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordWriter;
+import org.apache.hadoop.mapred.Reporter;
+
+public class PartitionedProtobufOutputFormatTest extends TestCase {
+  private static final Path DIR = new Path("/tmp/partitioned");
+
+  public void testEvictedPartitionsGetNewFiles() throws Exception {
+    JobConf conf = new JobConf();
+    FileSystem fs = FileSystem.getLocal(conf);
+    fs.delete(DIR, true);
+
+    conf.setInt(PartitionedProtobufOutputFormat.MAX_OPEN_PARTITIONS, 2);
+    FileOutputFormat.setOutputPath(conf, DIR);
+    conf.set("mapred.task.id", "attempt_200707121733_0001_m_000000_0");
+    fs.mkdirs(new Path(DIR, "_temporary"));
+    RecordWriter<Text, BytesWritable> writer = new PartitionedProtobufOutputFormat()
+        .getRecordWriter(fs, conf, "part-00000", Reporter.NULL);
+
+    // a is evicted by c, then reopened
+    Text partition = new Text();
+    String[] partitions = {"dt=1/a", "dt=1/b", "dt=2/c", "dt=1/a"};
+    for (int i = 0; i < partitions.length; i++) {
+      partition.set(partitions[i]);
+      writer.write(partition, new BytesWritable(Example.Person.newBuilder().setId(i).build().toByteArray()));
+    }
+    writer.close(Reporter.NULL);
+
+    Path work = FileOutputFormat.getTaskOutputPath(conf, "part-00000").getParent();
+    assertEquals(ids(0, 3), read(fs, conf, fs.listStatus(new Path(work, "dt=1/a"))));
+    assertEquals(ids(1), read(fs, conf, fs.listStatus(new Path(work, "dt=1/b"))));
+    assertEquals(ids(2), read(fs, conf, fs.listStatus(new Path(work, "dt=2/c"))));
+    assertTrue(fs.exists(new Path(work, "dt=1/a/part-00000-1")));
+  }
+
+  public void testEscapedValuesStayInTheWorkDirectory() throws Exception {
+    JobConf conf = new JobConf();
+    FileSystem fs = FileSystem.getLocal(conf);
+    fs.delete(DIR, true);
+
+    FileOutputFormat.setOutputPath(conf, DIR);
+    conf.set("mapred.task.id", "attempt_200707121733_0001_m_000000_0");
+    fs.mkdirs(new Path(DIR, "_temporary"));
+    RecordWriter<Text, BytesWritable> writer = new PartitionedProtobufOutputFormat()
+        .getRecordWriter(fs, conf, "part-00000", Reporter.NULL);
+
+    PartitionTemplate template = PartitionTemplate.compile("{name}/{email}",
+        Example.Person.getDescriptor());
+    String[][] values = {{"", "12:30"}, {".", ".."}};
+    for (int i = 0; i < values.length; i++) {
+      Example.Person person = Example.Person.newBuilder()
+          .setId(i).setName(values[i][0]).setEmail(values[i][1]).build();
+      writer.write(new Text(template.format(person)), new BytesWritable(person.toByteArray()));
+    }
+    writer.close(Reporter.NULL);
+
+    Path work = FileOutputFormat.getTaskOutputPath(conf, "part-00000").getParent();
+    assertEquals(ids(0), read(fs, conf, fs.listStatus(new Path(work, "__empty__/12%3A30"))));
+    assertEquals(ids(1), read(fs, conf, fs.listStatus(new Path(work, "%2E/%2E%2E"))));
+  }
+
+  private static List<Integer> ids(int... ids) {
+    List<Integer> list = new ArrayList<Integer>();
+    for (int id : ids) {
+      list.add(id);
+    }
+    return list;
+  }
+
+  private static List<Integer> read(FileSystem fs, JobConf conf, FileStatus[] files) throws Exception {
+    List<Integer> ids = new ArrayList<Integer>();
+    Arrays.sort(files);
+    for (FileStatus file : files) {
+      if (file.getPath().getName().startsWith(".")) {
+        continue;
+      }
+      SequenceFile.Reader reader = new SequenceFile.Reader(fs, file.getPath(), conf);
+      try {
+        BytesWritable value = new BytesWritable();
+        while (reader.next(NullWritable.get(), value)) {
+          ids.add(Example.Person.newBuilder().mergeFrom(value.getBytes(), 0, value.getLength()).build().getId());
+        }
+      } finally {
+        reader.close();
+      }
+    }
+    return ids;
+  }
+}
@@ -0,0 +1,153 @@
+package com.squareup.cascading2.scheme;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.TestCase;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapred.RecordReader;
+
+public class PrefetchingReaderTest extends TestCase {
+  private static final PrefetchingReader.Decoder TO_INT = new PrefetchingReader.Decoder() {
+    @Override public Object decode(BytesWritable value) {
+      return (int) value.getBytes()[0];
+    }
+  };
+
+  public void testKeepsInputOrder() throws Exception {
+    PrefetchingReader reader = new PrefetchingReader(new FakeReader(100, -1), 3, TO_INT);
+    List<Object> records = new ArrayList<Object>();
+    Object record;
+    while ((record = reader.next()) != null) {
+      records.add(record);
+    }
+    reader.close();
+
+    assertEquals(100, records.size());
+    for (int i = 0; i < 100; i++) {
+      assertEquals(i, records.get(i));
+    }
+    // stays exhausted
+    assertNull(reader.next());
+  }
+
+  public void testManyDecodersKeepInputOrder() throws Exception {
+    // decoders that take longer on some records than others, so they finish out of order
+    PrefetchingReader.Decoder[] decoders = new PrefetchingReader.Decoder[4];
+    for (int i = 0; i < decoders.length; i++) {
+      decoders[i] = new PrefetchingReader.Decoder() {
+        @Override public Object decode(BytesWritable value) throws IOException {
+          int record = value.getBytes()[0];
+          try {
+            Thread.sleep(record % 3);
+          } catch (InterruptedException e) {
+            throw new IOException(e);
+          }
+          return record;
+        }
+      };
+    }
+
+    PrefetchingReader reader = new PrefetchingReader(new FakeReader(100, -1), 8, decoders);
+    for (int i = 0; i < 100; i++) {
+      assertEquals(i, reader.next());
+    }
+    assertNull(reader.next());
+    reader.close();
+  }
+
+  public void testDroppedRecords() throws Exception {
+    PrefetchingReader reader = new PrefetchingReader(new FakeReader(100, -1), 4,
+        new PrefetchingReader.Decoder() {
+          @Override public Object decode(BytesWritable value) {
+            int i = value.getBytes()[0];
+            return i % 10 == 0 ? i : null;
+          }
+        });
+    for (int i = 0; i < 100; i += 10) {
+      assertEquals(i, reader.next());
+    }
+    assertNull(reader.next());
+    reader.close();
+  }
+
+  public void testReadErrorsAreRethrown() throws Exception {
+    PrefetchingReader reader = new PrefetchingReader(new FakeReader(100, 5), 2, TO_INT);
+    for (int i = 0; i < 5; i++) {
+      assertEquals(i, reader.next());
+    }
+    try {
+      reader.next();
+      fail("should have thrown");
+    } catch (IOException e) {
+      assertEquals("failed at 5", e.getMessage());
+    }
+    reader.close();
+  }
+
+  public void testDecodeErrorsAreRethrown() throws Exception {
+    PrefetchingReader reader = new PrefetchingReader(new FakeReader(10, -1), 2,
+        new PrefetchingReader.Decoder() {
+          @Override public Object decode(BytesWritable value) {
+            throw new IllegalStateException("bad record");
+          }
+        });
+    try {
+      reader.next();
+      fail("should have thrown");
+    } catch (IllegalStateException e) {
+      assertEquals("bad record", e.getMessage());
+    }
+    reader.close();
+  }
+
+  public void testCloseBeforeEnd() throws Exception {
+    PrefetchingReader reader = new PrefetchingReader(new FakeReader(1000, -1), 2, TO_INT);
+    assertEquals(0, reader.next());
+    // must not hang on the background threads blocked on full buffers
+    reader.close();
+  }
+
+  /** Reads single-byte records 0, 1, 2... and fails at {@code failAt}. */
+  private static class FakeReader implements RecordReader<NullWritable, BytesWritable> {
+    private final int count;
+    private final int failAt;
+    private int position;
+
+    FakeReader(int count, int failAt) {
+      this.count = count;
+      this.failAt = failAt;
+    }
+
+    @Override public boolean next(NullWritable key, BytesWritable value) throws IOException {
+      if (position == failAt) {
+        throw new IOException("failed at " + position);
+      }
+      if (position == count) {
+        return false;
+      }
+      value.set(new byte[] {(byte) position++}, 0, 1);
+      return true;
+    }
+
+    @Override public NullWritable createKey() {
+      return NullWritable.get();
+    }
+
+    @Override public BytesWritable createValue() {
+      return new BytesWritable();
+    }
+
+    @Override public long getPos() {
+      return position;
+    }
+
+    @Override public void close() {
+    }
+
+    @Override public float getProgress() {
+      return (float) position / count;
+    }
+  }
+}
@@ -0,0 +1,94 @@
+package com.squareup.cascading2.scheme;
+
+import com.google.protobuf.DescriptorProtos;
+import com.google.protobuf.Message;
+import com.squareup.cascading2.generated.Example;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.TestCase;
+
+public class RepeatedFieldReaderTest extends TestCase {
+  public void testTopLevelField() throws Exception {
+    Example.Partnership partnership = Example.Partnership.newBuilder()
+        .setLeader(person(1))
+        .addSilent(person(2))
+        .addSilent(person(3))
+        .setFollower(person(4))
+        .addSilent(person(5))
+        .build();
+    RepeatedFieldReader reader = new RepeatedFieldReader(
+        RepeatedFieldReader.resolve("silent", Example.Partnership.getDescriptor()), null);
+
+    List<Message> expected = new ArrayList<Message>();
+    expected.add(person(2));
+    expected.add(person(3));
+    expected.add(person(5));
+    assertEquals(expected, readAll(reader, partnership.toByteArray(), Example.Person.newBuilder()));
+
+    assertTrue(readAll(reader, Example.Partnership.getDefaultInstance().toByteArray(),
+        Example.Person.newBuilder()).isEmpty());
+  }
+
+  public void testNestedField() throws Exception {
+    DescriptorProtos.DescriptorProto first = DescriptorProtos.DescriptorProto.newBuilder()
+        .setName("first")
+        .setOptions(DescriptorProtos.MessageOptions.newBuilder()
+            .setMessageSetWireFormat(true)
+            .addUninterpretedOption(option("a"))
+            .addUninterpretedOption(option("b")))
+        .addField(DescriptorProtos.FieldDescriptorProto.newBuilder().setName("ignored"))
+        .build();
+    DescriptorProtos.DescriptorProto second = DescriptorProtos.DescriptorProto.newBuilder()
+        .setOptions(DescriptorProtos.MessageOptions.newBuilder()
+            .addUninterpretedOption(option("c")))
+        .build();
+    // a parser would merge both occurrences of options, so the elements of both are read
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    first.writeTo(bytes);
+    second.writeTo(bytes);
+
+    RepeatedFieldReader reader = new RepeatedFieldReader(RepeatedFieldReader.resolve(
+        "options.uninterpreted_option", DescriptorProtos.DescriptorProto.getDescriptor()), null);
+    List<Message> expected = new ArrayList<Message>();
+    expected.add(option("a"));
+    expected.add(option("b"));
+    expected.add(option("c"));
+    assertEquals(expected, readAll(reader, bytes.toByteArray(),
+        DescriptorProtos.UninterpretedOption.newBuilder()));
+  }
+
+  public void testInvalidPaths() throws Exception {
+    assertInvalid("missing");
+    assertInvalid("leader");
+    assertInvalid("silent.id");
+    assertInvalid("leader.name");
+  }
+
+  private static void assertInvalid(String path) {
+    try {
+      RepeatedFieldReader.resolve(path, Example.Partnership.getDescriptor());
+      fail("should have thrown for " + path);
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  private static List<Message> readAll(RepeatedFieldReader reader, byte[] bytes,
+      Message.Builder builder) throws Exception {
+    reader.reset(bytes, bytes.length);
+    List<Message> elements = new ArrayList<Message>();
+    while (reader.next(builder.clear())) {
+      elements.add(builder.buildPartial());
+    }
+    return elements;
+  }
+
+  private static Example.Person person(int id) {
+    return Example.Person.newBuilder().setId(id).build();
+  }
+
+  private static DescriptorProtos.UninterpretedOption option(String identifier) {
+    return DescriptorProtos.UninterpretedOption.newBuilder().setIdentifierValue(identifier).build();
+  }
+}
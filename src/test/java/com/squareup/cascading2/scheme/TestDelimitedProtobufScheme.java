@@ -0,0 +1,84 @@
+package com.squareup.cascading2.scheme;
+
+import cascading.flow.hadoop.HadoopFlowProcess;
+import cascading.tap.Tap;
+import cascading.tap.hadoop.Hfs;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+import cascading.tuple.TupleEntryCollector;
+import cascading.tuple.TupleEntryIterator;
+import com.squareup.cascading2.generated.Example;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.TestCase;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapred.JobConf;
+
+public class TestDelimitedProtobufScheme extends TestCase {
+  public void testRoundtrip() throws Exception {
+    FileSystem.get(new Configuration()).delete(new Path("/tmp/input"), true);
+
+    List<Tuple> expected = new ArrayList<Tuple>();
+    for (int i = 0; i < 100; i++) {
+      expected.add(new Tuple(Example.Person.newBuilder().setId(i).setName("person" + i).build()));
+    }
+
+    Tap tap = new Hfs(new DelimitedProtobufScheme("value", Example.Person.class).setSyncInterval(100),
+        "/tmp/input");
+    TupleEntryCollector tec = tap.openForWrite(new HadoopFlowProcess(), null);
+    for (Tuple t : expected) {
+      tec.add(new TupleEntry(new Fields("value"), t));
+    }
+    tec.close();
+
+    assertEquals(expected, read(new DelimitedProtobufScheme("value", Example.Person.class)));
+  }
+
+  public void testReadsPlainDelimitedStreams() throws Exception {
+    FileSystem fs = FileSystem.get(new Configuration());
+    fs.delete(new Path("/tmp/input"), true);
+
+    List<Tuple> expected = new ArrayList<Tuple>();
+    OutputStream out = fs.create(new Path("/tmp/input/stream"));
+    for (int i = 0; i < 10; i++) {
+      Example.Person person = Example.Person.newBuilder().setId(i).build();
+      person.writeDelimitedTo(out);
+      expected.add(new Tuple(person));
+    }
+    out.close();
+
+    assertEquals(expected, read(new DelimitedProtobufScheme("value", Example.Person.class)));
+  }
+
+  public void testTakesTheRecordOptions() throws Exception {
+    DelimitedProtobufScheme scheme = new DelimitedProtobufScheme("value", Example.Person.class)
+        .setLazy(true)
+        .setPartial(true)
+        .setSample(0.5, 7)
+        .setSyncInterval(100);
+    scheme.sourceConfInit(null, null, new JobConf());
+
+    try {
+      new DelimitedProtobufScheme("value", Example.Person.class)
+          .setDecodeThreads(4)
+          .setPrefetch(0)
+          .sourceConfInit(null, null, new JobConf());
+      fail("should have thrown");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+  }
+
+  private static List<Tuple> read(DelimitedProtobufScheme scheme) throws Exception {
+    TupleEntryIterator iter = new Hfs(scheme, "/tmp/input").openForRead(new HadoopFlowProcess(), null);
+    List<Tuple> tuples = new ArrayList<Tuple>();
+    while (iter.hasNext()) {
+      tuples.add(iter.next().getTupleCopy());
+    }
+    return tuples;
+  }
+}
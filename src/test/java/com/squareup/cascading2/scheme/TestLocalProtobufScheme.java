@@ -0,0 +1,91 @@
+package com.squareup.cascading2.scheme;
+
+import cascading.flow.local.LocalFlowProcess;
+import cascading.tap.SinkMode;
+import cascading.tap.Tap;
+import cascading.tap.local.FileTap;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+import cascading.tuple.TupleEntryCollector;
+import cascading.tuple.TupleEntryIterator;
+import com.google.protobuf.DescriptorProtos;
+import com.google.protobuf.Descriptors;
+import com.squareup.cascading2.generated.Example;
+import com.squareup.cascading2.util.ExtensionRegistries;
+import com.squareup.cascading2.util.ExtensionRegistriesTest;
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.TestCase;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+
+public class TestLocalProtobufScheme extends TestCase {
+  public void testRoundtrip() throws Exception {
+    List<Tuple> expected = new ArrayList<Tuple>();
+    expected.add(new Tuple(Example.Person.newBuilder().setId(1).setName("bryan").build()));
+    expected.add(new Tuple(Example.Person.newBuilder().setId(2).setEmail("lucas@mail.com").build()));
+
+    Tap tap = new FileTap(new LocalProtobufScheme("value", Example.Person.class), "/tmp/local-input",
+        SinkMode.REPLACE);
+    TupleEntryCollector tec = tap.openForWrite(new LocalFlowProcess(), null);
+    for (Tuple t : expected) {
+      tec.add(new TupleEntry(new Fields("value"), t));
+    }
+    tec.close();
+
+    assertEquals(expected, read(tap));
+  }
+
+  public void testReadsSequenceFiles() throws Exception {
+    Configuration conf = new Configuration();
+    FileSystem fs = FileSystem.getLocal(conf);
+    fs.delete(new Path("/tmp/local-input"), true);
+
+    List<Tuple> expected = new ArrayList<Tuple>();
+    SequenceFile.Writer writer = SequenceFile.createWriter(fs, conf, new Path("/tmp/local-input"),
+        NullWritable.class, BytesWritable.class, SequenceFile.CompressionType.NONE);
+    for (int i = 0; i < 10; i++) {
+      Example.Person person = Example.Person.newBuilder().setId(i).build();
+      writer.append(NullWritable.get(), new BytesWritable(person.toByteArray()));
+      expected.add(new Tuple(person));
+    }
+    writer.close();
+
+    assertEquals(expected,
+        read(new FileTap(new LocalProtobufScheme("value", Example.Person.class), "/tmp/local-input")));
+  }
+
+  public void testExtensions() throws Exception {
+    String extensionClassName = ExtensionRegistriesTest.TestExtensions.class.getName();
+    Descriptors.FieldDescriptor myOption = ExtensionRegistries.forClassNames(extensionClassName)
+        .findExtensionByName("test.my_option").descriptor;
+    DescriptorProtos.FieldOptions options = DescriptorProtos.FieldOptions.newBuilder()
+        .setField(myOption, 42)
+        .build();
+
+    Tap tap = new FileTap(new LocalProtobufScheme("value", DescriptorProtos.FieldOptions.class)
+        .setExtensions(ExtensionRegistriesTest.TestExtensions.class), "/tmp/local-input",
+        SinkMode.REPLACE);
+    TupleEntryCollector tec = tap.openForWrite(new LocalFlowProcess(), null);
+    tec.add(new TupleEntry(new Fields("value"), new Tuple(options)));
+    tec.close();
+
+    DescriptorProtos.FieldOptions parsed = (DescriptorProtos.FieldOptions) read(tap).get(0).getObject(0);
+    assertEquals(42, parsed.getField(myOption));
+    assertTrue(parsed.getUnknownFields().asMap().isEmpty());
+  }
+
+  private static List<Tuple> read(Tap tap) throws Exception {
+    TupleEntryIterator iter = tap.openForRead(new LocalFlowProcess(), null);
+    List<Tuple> tuples = new ArrayList<Tuple>();
+    while (iter.hasNext()) {
+      tuples.add(iter.next().getTupleCopy());
+    }
+    return tuples;
+  }
+}
@@ -0,0 +1,85 @@
+package com.squareup.cascading2.scheme;
+
+import cascading.flow.hadoop.HadoopFlowProcess;
+import cascading.tap.Tap;
+import cascading.tap.hadoop.Hfs;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+import cascading.tuple.TupleEntryCollector;
+import cascading.tuple.TupleEntryIterator;
+import com.squareup.cascading2.generated.Example;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import junit.framework.TestCase;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+public class TestPartitionedProtobufScheme extends TestCase {
+  public void testWritesEachPartition() throws Exception {
+    FileSystem.get(new Configuration()).delete(new Path("/tmp/partitioned"), true);
+
+    Tap tap = new Hfs(new PartitionedProtobufScheme("value", Example.Person.class, "position={position}")
+        .setMaxOpenPartitions(1), "/tmp/partitioned");
+    TupleEntryCollector tec = tap.openForWrite(new HadoopFlowProcess(), null);
+    tec.add(new TupleEntry(new Fields("value"), person(1, Example.Person.Position.CEO)));
+    tec.add(new TupleEntry(new Fields("value"), person(2, Example.Person.Position.GRUNT)));
+    tec.add(new TupleEntry(new Fields("value"), person(3, Example.Person.Position.GRUNT)));
+    tec.add(new TupleEntry(new Fields("value"), person(4, Example.Person.Position.CEO)));
+    tec.close();
+
+    List<Tuple> ceos = new ArrayList<Tuple>();
+    ceos.add(person(1, Example.Person.Position.CEO));
+    ceos.add(person(4, Example.Person.Position.CEO));
+    // CEO went to two files, since it was evicted by GRUNT
+    assertEquals(new HashSet<Tuple>(ceos), new HashSet<Tuple>(read("/tmp/partitioned/position=CEO")));
+
+    List<Tuple> grunts = new ArrayList<Tuple>();
+    grunts.add(person(2, Example.Person.Position.GRUNT));
+    grunts.add(person(3, Example.Person.Position.GRUNT));
+    assertEquals(grunts, read("/tmp/partitioned/position=GRUNT"));
+  }
+
+  public void testSharedSchemeSinksToSeveralTaps() throws Exception {
+    FileSystem fs = FileSystem.get(new Configuration());
+    fs.delete(new Path("/tmp/partitioned"), true);
+    fs.delete(new Path("/tmp/partitioned2"), true);
+
+    PartitionedProtobufScheme scheme =
+        new PartitionedProtobufScheme("value", Example.Person.class, "position={position}");
+    TupleEntryCollector first = new Hfs(scheme, "/tmp/partitioned").openForWrite(new HadoopFlowProcess(), null);
+    TupleEntryCollector second = new Hfs(scheme, "/tmp/partitioned2").openForWrite(new HadoopFlowProcess(), null);
+    first.add(new TupleEntry(new Fields("value"), person(1, Example.Person.Position.CEO)));
+    second.add(new TupleEntry(new Fields("value"), person(2, Example.Person.Position.GRUNT)));
+    first.close();
+    // the second tap still has its own template and key
+    second.add(new TupleEntry(new Fields("value"), person(3, Example.Person.Position.CEO)));
+    second.close();
+
+    List<Tuple> expected = new ArrayList<Tuple>();
+    expected.add(person(1, Example.Person.Position.CEO));
+    assertEquals(expected, read("/tmp/partitioned/position=CEO"));
+    expected.clear();
+    expected.add(person(2, Example.Person.Position.GRUNT));
+    assertEquals(expected, read("/tmp/partitioned2/position=GRUNT"));
+    expected.clear();
+    expected.add(person(3, Example.Person.Position.CEO));
+    assertEquals(expected, read("/tmp/partitioned2/position=CEO"));
+  }
+
+  private static List<Tuple> read(String path) throws Exception {
+    Tap tap = new Hfs(new ProtobufScheme("value", Example.Person.class), path);
+    TupleEntryIterator iter = tap.openForRead(new HadoopFlowProcess(), null);
+    List<Tuple> tuples = new ArrayList<Tuple>();
+    while (iter.hasNext()) {
+      tuples.add(iter.next().getTupleCopy());
+    }
+    return tuples;
+  }
+
+  private static Tuple person(int id, Example.Person.Position position) {
+    return new Tuple(Example.Person.newBuilder().setId(id).setPosition(position).build());
+  }
+}
@@ -0,0 +1,78 @@
+package com.squareup.cascading2.scheme;
+
+import cascading.flow.hadoop.HadoopFlowProcess;
+import cascading.tap.Tap;
+import cascading.tap.hadoop.Hfs;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+import cascading.tuple.TupleEntryCollector;
+import cascading.tuple.TupleEntryIterator;
+import com.squareup.cascading2.generated.Example;
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.TestCase;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+public class TestProtobufColumnarScheme extends TestCase {
+  public void testRoundtrip() throws Exception {
+    FileSystem.get(new Configuration()).delete(new Path("/tmp/input"), true);
+
+    List<Tuple> expected = new ArrayList<Tuple>();
+    for (int i = 0; i < 5; i++) {
+      expected.add(fixture("leader" + i, "follower" + i, i));
+    }
+    // spread the records over several row groups
+    write(new ProtobufColumnarScheme("value", Example.Partnership.class).setRowGroupBytes(100), expected);
+
+    assertEquals(expected, read(new ProtobufColumnarScheme("value", Example.Partnership.class)));
+  }
+
+  public void testSelectedFields() throws Exception {
+    FileSystem.get(new Configuration()).delete(new Path("/tmp/input"), true);
+
+    List<Tuple> written = new ArrayList<Tuple>();
+    written.add(fixture("john", "paul", 1));
+    written.add(fixture("simon", "art", 2));
+    write(new ProtobufColumnarScheme("value", Example.Partnership.class), written);
+
+    List<Tuple> expected = new ArrayList<Tuple>();
+    expected.add(new Tuple(Example.Partnership.newBuilder()
+        .setLeader(Example.Person.newBuilder().setName("john"))
+        .build()));
+    expected.add(new Tuple(Example.Partnership.newBuilder()
+        .setLeader(Example.Person.newBuilder().setName("simon"))
+        .build()));
+    assertEquals(expected,
+        read(new ProtobufColumnarScheme("value", Example.Partnership.class, "leader.name")));
+  }
+
+  private static void write(ProtobufColumnarScheme scheme, List<Tuple> tuples) throws Exception {
+    Tap tap = new Hfs(scheme, "/tmp/input");
+    TupleEntryCollector tec = tap.openForWrite(new HadoopFlowProcess(), null);
+    for (Tuple t : tuples) {
+      tec.add(new TupleEntry(new Fields("value"), t));
+    }
+    tec.close();
+  }
+
+  private static List<Tuple> read(ProtobufColumnarScheme scheme) throws Exception {
+    Tap tap = new Hfs(scheme, "/tmp/input");
+    TupleEntryIterator iter = tap.openForRead(new HadoopFlowProcess(), null);
+    List<Tuple> tuples = new ArrayList<Tuple>();
+    while (iter.hasNext()) {
+      tuples.add(iter.next().getTupleCopy());
+    }
+    return tuples;
+  }
+
+  private static Tuple fixture(String leader, String follower, int id) {
+    return new Tuple(Example.Partnership.newBuilder()
+        .setLeader(Example.Person.newBuilder().setId(id).setName(leader))
+        .setFollower(Example.Person.newBuilder().setId(id).setName(follower))
+        .addSilent(Example.Person.newBuilder().setId(id + 100))
+        .build());
+  }
+}
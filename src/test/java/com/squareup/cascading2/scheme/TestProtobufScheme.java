@@ -8,14 +8,34 @@ import cascading.tuple.Tuple;
 import cascading.tuple.TupleEntry;
 import cascading.tuple.TupleEntryCollector;
 import cascading.tuple.TupleEntryIterator;
+import com.google.protobuf.DescriptorProtos;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.Message;
 import com.squareup.cascading2.generated.Example;
+import com.squareup.cascading2.serialization.ProtobufSerialization;
+import com.squareup.cascading2.util.DynamicMessageType;
+import com.squareup.cascading2.util.ExtensionRegistries;
+import com.squareup.cascading2.util.ExtensionRegistriesTest;
+import com.squareup.cascading2.util.LazyMessage;
+import com.squareup.cascading2.util.WirePredicate;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import junit.framework.TestCase;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.compress.BZip2Codec;
+import org.apache.hadoop.io.serializer.Deserializer;
+import org.apache.hadoop.io.serializer.Serializer;
+import org.apache.hadoop.mapred.JobConf;
 
 public class TestProtobufScheme extends TestCase {
   public void testRoundtrip() throws Exception {
@@ -46,6 +66,463 @@ public class TestProtobufScheme extends TestCase {
     assertEquals(new HashSet<Tuple>(expected), new HashSet<Tuple>(tuples));
   }
 
+  public void testRoundtripWithShrinkingRecords() throws Exception {
+    FileSystem.get(new Configuration()).delete(new Path("/tmp/input"), true);
+
+    // the read and write paths each reuse one value buffer, so a short record following a long one
+    // must not pick up the long record's trailing bytes
+    List<Tuple> expected = new ArrayList<Tuple>();
+    expected.add(fixture("a much longer name than the rest", "someone.with.a.long.address@mail.com", 1));
+    expected.add(fixture("bo", "b@", 2));
+    expected.add(fixture(null, null, 3));
+
+    Tap tap = new Hfs(new ProtobufScheme("value", Example.Person.class), "/tmp/input");
+    TupleEntryCollector tec = tap.openForWrite(new HadoopFlowProcess(), null);
+    for (Tuple t : expected) {
+      tec.add(new TupleEntry(new Fields("value"), t));
+    }
+    tec.close();
+
+    TupleEntryIterator iter = tap.openForRead(new HadoopFlowProcess(), null);
+    List<Tuple> tuples = new ArrayList<Tuple>();
+    while (iter.hasNext()) {
+      tuples.add(iter.next().getTupleCopy());
+    }
+
+    assertEquals(expected, tuples);
+  }
+
+  public void testSharedSchemeSinksToSeveralTaps() throws Exception {
+    FileSystem fs = FileSystem.get(new Configuration());
+    fs.delete(new Path("/tmp/input"), true);
+    fs.delete(new Path("/tmp/input2"), true);
+
+    // both collectors are open at once, and closing one mustn't affect the other
+    ProtobufScheme scheme = new ProtobufScheme("value", Example.Person.class);
+    TupleEntryCollector first = new Hfs(scheme, "/tmp/input").openForWrite(new HadoopFlowProcess(), null);
+    TupleEntryCollector second = new Hfs(scheme, "/tmp/input2").openForWrite(new HadoopFlowProcess(), null);
+    first.add(new TupleEntry(new Fields("value"), fixture("bryan", "bryan.duxbury@mail.com", 1)));
+    second.add(new TupleEntry(new Fields("value"), fixture("lucas", "lucas@mail.com", 2)));
+    first.close();
+    second.add(new TupleEntry(new Fields("value"), fixture("vida", null, 3)));
+    second.close();
+
+    List<Tuple> expected = new ArrayList<Tuple>();
+    expected.add(fixture("bryan", "bryan.duxbury@mail.com", 1));
+    assertEquals(expected, readAll(new ProtobufScheme("value", Example.Person.class)));
+
+    expected.clear();
+    expected.add(fixture("lucas", "lucas@mail.com", 2));
+    expected.add(fixture("vida", null, 3));
+    TupleEntryIterator iter = new Hfs(new ProtobufScheme("value", Example.Person.class), "/tmp/input2")
+        .openForRead(new HadoopFlowProcess(), null);
+    List<Tuple> tuples = new ArrayList<Tuple>();
+    while (iter.hasNext()) {
+      tuples.add(iter.next().getTupleCopy());
+    }
+    assertEquals(expected, tuples);
+  }
+
+  public void testLazyRoundtrip() throws Exception {
+    FileSystem.get(new Configuration()).delete(new Path("/tmp/input"), true);
+
+    List<Tuple> expected = new ArrayList<Tuple>();
+    expected.add(fixture("bryan", "bryan.duxbury@mail.com", 1));
+    expected.add(fixture("lucas", "lucas@mail.com", 2));
+
+    Tap tap = new Hfs(new ProtobufScheme("value", Example.Person.class), "/tmp/input");
+    TupleEntryCollector tec = tap.openForWrite(new HadoopFlowProcess(), null);
+    for (Tuple t : expected) {
+      tec.add(new TupleEntry(new Fields("value"), t));
+    }
+    tec.close();
+
+    Tap lazyTap = new Hfs(new ProtobufScheme("value", Example.Person.class).setLazy(true), "/tmp/input");
+    TupleEntryIterator iter = lazyTap.openForRead(new HadoopFlowProcess(), null);
+    List<Tuple> tuples = new ArrayList<Tuple>();
+    while (iter.hasNext()) {
+      Tuple tuple = iter.next().getTupleCopy();
+      LazyMessage message = (LazyMessage) tuple.getObject(0);
+      assertFalse(message.isParsed());
+      tuples.add(new Tuple(message.getMessage()));
+    }
+
+    assertEquals(expected, tuples);
+  }
+
+  public void testPassThrough() throws Exception {
+    FileSystem.get(new Configuration()).delete(new Path("/tmp/input"), true);
+    FileSystem.get(new Configuration()).delete(new Path("/tmp/output"), true);
+
+    List<Tuple> expected = new ArrayList<Tuple>();
+    expected.add(fixture("bryan", "bryan.duxbury@mail.com", 1));
+    expected.add(fixture("lucas", "lucas@mail.com", 2));
+
+    Tap tap = new Hfs(new ProtobufScheme("value", Example.Person.class), "/tmp/input");
+    TupleEntryCollector tec = tap.openForWrite(new HadoopFlowProcess(), null);
+    for (Tuple t : expected) {
+      tec.add(new TupleEntry(new Fields("value"), t));
+    }
+    tec.close();
+
+    // parse every record, then write it back out
+    Tap passThroughTap = new Hfs(new ProtobufScheme("value", Example.Person.class).setPassThrough(true), "/tmp/input");
+    TupleEntryIterator iter = passThroughTap.openForRead(new HadoopFlowProcess(), null);
+    Tap outputTap = new Hfs(new ProtobufScheme("value", Example.Person.class), "/tmp/output");
+    tec = outputTap.openForWrite(new HadoopFlowProcess(), null);
+    while (iter.hasNext()) {
+      TupleEntry entry = iter.next();
+      LazyMessage message = (LazyMessage) entry.getObject("value");
+      message.getMessage();
+      assertTrue(message.isParsed());
+      assertTrue(message.isPassThrough());
+      tec.add(entry);
+    }
+    tec.close();
+
+    iter = outputTap.openForRead(new HadoopFlowProcess(), null);
+    List<Tuple> tuples = new ArrayList<Tuple>();
+    while (iter.hasNext()) {
+      tuples.add(iter.next().getTupleCopy());
+    }
+    assertEquals(expected, tuples);
+  }
+
+  public void testProjection() throws Exception {
+    FileSystem.get(new Configuration()).delete(new Path("/tmp/input"), true);
+
+    Tap tap = new Hfs(new ProtobufScheme("value", Example.Person.class), "/tmp/input");
+    TupleEntryCollector tec = tap.openForWrite(new HadoopFlowProcess(), null);
+    tec.add(new TupleEntry(new Fields("value"), fixture("bryan", "bryan.duxbury@mail.com", 1)));
+    tec.add(new TupleEntry(new Fields("value"), fixture("lucas", "lucas@mail.com", 2)));
+    tec.close();
+
+    Tap projectedTap = new Hfs(new ProtobufScheme("value", Example.Person.class).setProjection("id", "email"), "/tmp/input");
+    TupleEntryIterator iter = projectedTap.openForRead(new HadoopFlowProcess(), null);
+    List<Tuple> tuples = new ArrayList<Tuple>();
+    while (iter.hasNext()) {
+      tuples.add(iter.next().getTupleCopy());
+    }
+
+    List<Tuple> expected = new ArrayList<Tuple>();
+    expected.add(fixture(null, "bryan.duxbury@mail.com", 1));
+    expected.add(fixture(null, "lucas@mail.com", 2));
+    assertEquals(expected, tuples);
+  }
+
+  public void testProjectionConflicts() throws Exception {
+    assertConflict(new ProtobufScheme("value", Example.Person.class).setLazy(true), "lazy");
+    assertConflict(new ProtobufScheme("value", Example.Person.class).setPassThrough(true),
+        "pass-through");
+    try {
+      new ProtobufScheme("value", Example.Person.class).setProjection("id").setPassThrough(true);
+      fail("should have thrown");
+    } catch (IllegalStateException e) {
+      assertEquals("A scheme can't be both pass-through and projected", e.getMessage());
+    }
+  }
+
+  public void testPredicate() throws Exception {
+    FileSystem.get(new Configuration()).delete(new Path("/tmp/input"), true);
+
+    Tap tap = new Hfs(new ProtobufScheme("value", Example.Person.class), "/tmp/input");
+    TupleEntryCollector tec = tap.openForWrite(new HadoopFlowProcess(), null);
+    tec.add(new TupleEntry(new Fields("value"), fixture("bryan", "bryan.duxbury@mail.com", 1)));
+    tec.add(new TupleEntry(new Fields("value"), fixture("lucas", "lucas@mail.com", 2)));
+    tec.add(new TupleEntry(new Fields("value"), fixture("vida", null, 3)));
+    tec.close();
+
+    ProtobufScheme scheme = new ProtobufScheme("value", Example.Person.class)
+        .setPredicate(new WirePredicate("id", WirePredicate.Operator.GE, 2));
+    TupleEntryIterator iter = new Hfs(scheme, "/tmp/input").openForRead(new HadoopFlowProcess(), null);
+    List<Tuple> tuples = new ArrayList<Tuple>();
+    while (iter.hasNext()) {
+      tuples.add(iter.next().getTupleCopy());
+    }
+
+    List<Tuple> expected = new ArrayList<Tuple>();
+    expected.add(fixture("lucas", "lucas@mail.com", 2));
+    expected.add(fixture("vida", null, 3));
+    assertEquals(expected, tuples);
+  }
+
+  public void testSample() throws Exception {
+    FileSystem.get(new Configuration()).delete(new Path("/tmp/input"), true);
+
+    List<Tuple> written = new ArrayList<Tuple>();
+    Tap tap = new Hfs(new ProtobufScheme("value", Example.Person.class), "/tmp/input");
+    TupleEntryCollector tec = tap.openForWrite(new HadoopFlowProcess(), null);
+    for (int i = 0; i < 1000; i++) {
+      Tuple tuple = fixture("person" + i, null, i);
+      written.add(tuple);
+      tec.add(new TupleEntry(new Fields("value"), tuple));
+    }
+    tec.close();
+
+    List<Tuple> sample = readAll(new ProtobufScheme("value", Example.Person.class).setSample(0.1, 42));
+    assertTrue(sample.size() > 50 && sample.size() < 150);
+    assertTrue(written.containsAll(sample));
+
+    // the same seed picks the same records
+    assertEquals(sample, readAll(new ProtobufScheme("value", Example.Person.class).setSample(0.1, 42)));
+    assertEquals(written, readAll(new ProtobufScheme("value", Example.Person.class).setSample(1, 42)));
+  }
+
+  public void testPrefetch() throws Exception {
+    FileSystem.get(new Configuration()).delete(new Path("/tmp/input"), true);
+
+    List<Tuple> expected = new ArrayList<Tuple>();
+    Tap tap = new Hfs(new ProtobufScheme("value", Example.Person.class), "/tmp/input");
+    TupleEntryCollector tec = tap.openForWrite(new HadoopFlowProcess(), null);
+    for (int i = 0; i < 1000; i++) {
+      Tuple tuple = fixture("person" + i, null, i);
+      expected.add(tuple);
+      tec.add(new TupleEntry(new Fields("value"), tuple));
+    }
+    tec.close();
+
+    assertEquals(expected, readAll(new ProtobufScheme("value", Example.Person.class).setPrefetch(16)));
+
+    assertEquals(expected, readAll(new ProtobufScheme("value", Example.Person.class).setDecodeThreads(4)));
+
+    ProtobufScheme filtered = new ProtobufScheme("value", Example.Person.class)
+        .setPrefetch(4)
+        .setPredicate(new WirePredicate("id", WirePredicate.Operator.GE, 990));
+    assertEquals(expected.subList(990, 1000), readAll(filtered));
+  }
+
+  public void testPrefetchSettingsDontDependOnOrder() throws Exception {
+    assertEquals(0, new ProtobufScheme("value", Example.Person.class).prefetchBuffers());
+    assertEquals(0, new ProtobufScheme("value", Example.Person.class).setPrefetch(0).prefetchBuffers());
+    assertEquals(16, new ProtobufScheme("value", Example.Person.class).setPrefetch(16).prefetchBuffers());
+
+    // the default follows the last thread count, not the first
+    assertEquals(ProtobufScheme.DEFAULT_BUFFERS_PER_THREAD * 8,
+        new ProtobufScheme("value", Example.Person.class)
+            .setDecodeThreads(2)
+            .setDecodeThreads(8)
+            .prefetchBuffers());
+    assertEquals(6, new ProtobufScheme("value", Example.Person.class)
+        .setPrefetch(6)
+        .setDecodeThreads(4)
+        .prefetchBuffers());
+    assertEquals(6, new ProtobufScheme("value", Example.Person.class)
+        .setDecodeThreads(4)
+        .setPrefetch(6)
+        .prefetchBuffers());
+  }
+
+  public void testRejectsTooFewPrefetchBuffers() throws Exception {
+    try {
+      new ProtobufScheme("value", Example.Person.class)
+          .setDecodeThreads(4)
+          .setPrefetch(0)
+          .prefetchBuffers();
+      fail("should have thrown");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+    try {
+      new ProtobufScheme("value", Example.Person.class)
+          .setPrefetch(2)
+          .setDecodeThreads(4)
+          .prefetchBuffers();
+      fail("should have thrown");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+  }
+
+  public void testCombineSplits() throws Exception {
+    FileSystem.get(new Configuration()).delete(new Path("/tmp/input"), true);
+
+    List<Tuple> expected = new ArrayList<Tuple>();
+    for (int i = 0; i < 5; i++) {
+      // each write makes a separate small file
+      Tap tap = new Hfs(new ProtobufScheme("value", Example.Person.class), "/tmp/input/" + i);
+      TupleEntryCollector tec = tap.openForWrite(new HadoopFlowProcess(), null);
+      Tuple tuple = fixture("person" + i, null, i);
+      expected.add(tuple);
+      tec.add(new TupleEntry(new Fields("value"), tuple));
+      tec.close();
+    }
+
+    ProtobufScheme scheme = new ProtobufScheme("value", Example.Person.class)
+        .setCombineSplits(64 * 1024 * 1024);
+    TupleEntryIterator iter = new Hfs(scheme, "/tmp/input/*").openForRead(new HadoopFlowProcess(), null);
+    List<Tuple> tuples = new ArrayList<Tuple>();
+    while (iter.hasNext()) {
+      tuples.add(iter.next().getTupleCopy());
+    }
+    assertEquals(new HashSet<Tuple>(expected), new HashSet<Tuple>(tuples));
+  }
+
+  public void testDynamicMessages() throws Exception {
+    FileSystem.get(new Configuration()).delete(new Path("/tmp/input"), true);
+
+    DynamicMessageType type = DynamicMessageType.of(Example.Person.getDescriptor());
+    Tap tap = new Hfs(new ProtobufScheme("value", type), "/tmp/input");
+    TupleEntryCollector tec = tap.openForWrite(new HadoopFlowProcess(), null);
+    tec.add(new TupleEntry(new Fields("value"), new Tuple(
+        DynamicMessage.parseFrom(type.getDescriptor(), fixtureMessage("bryan", "bryan.duxbury@mail.com", 1)))));
+    tec.add(new TupleEntry(new Fields("value"), new Tuple(
+        DynamicMessage.parseFrom(type.getDescriptor(), fixtureMessage("lucas", "lucas@mail.com", 2)))));
+    tec.add(new TupleEntry(new Fields("value"), new Tuple(
+        DynamicMessage.parseFrom(type.getDescriptor(), fixtureMessage("bart", "bart@mail.com", 3)))));
+    tec.close();
+
+    // written dynamically, read back with the generated class
+    List<Tuple> expected = new ArrayList<Tuple>();
+    expected.add(fixture("bryan", "bryan.duxbury@mail.com", 1));
+    expected.add(fixture("lucas", "lucas@mail.com", 2));
+    expected.add(fixture("bart", "bart@mail.com", 3));
+    assertEquals(expected, readAll(new ProtobufScheme("value", Example.Person.class)));
+
+    // every record gets its own builder, since dynamic builders can't be reused after build()
+    List<Tuple> tuples = readAll(new ProtobufScheme("value", type));
+    assertEquals(3, tuples.size());
+    for (int i = 0; i < tuples.size(); i++) {
+      assertTrue(type.isInstance(tuples.get(i).getObject(0)));
+      assertEquals(((Message) expected.get(i).getObject(0)).toByteString(),
+          ((Message) tuples.get(i).getObject(0)).toByteString());
+    }
+
+    tuples = readAll(new ProtobufScheme("value", type).setProjection("id"));
+    assertEquals(3, tuples.size());
+    for (int i = 0; i < tuples.size(); i++) {
+      assertEquals(i + 1, ((Message) tuples.get(i).getObject(0)).getField(
+          type.getDescriptor().findFieldByName("id")));
+    }
+  }
+
+  public void testExtensionsAreSerializable() throws Exception {
+    ProtobufScheme scheme = new ProtobufScheme("value", Example.Person.class)
+        .setExtensions(Example.class);
+    ObjectOutputStream out = new ObjectOutputStream(new ByteArrayOutputStream());
+    out.writeObject(scheme);
+    out.close();
+
+    try {
+      new ProtobufScheme("value", Example.Person.class).setExtensions(Example.Person.class);
+      fail("should have thrown");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  public void testExtensionsAreAddedToTheSerialization() throws Exception {
+    JobConf conf = new JobConf();
+    conf.set(ProtobufSerialization.EXTENSIONS, "com.example.Other");
+    new ProtobufScheme("value", Example.Person.class).setExtensions(Example.class)
+        .sourceConfInit(null, null, conf);
+    new ProtobufScheme("value", Example.Person.class).setExtensions(Example.class)
+        .sinkConfInit(null, null, conf);
+    new DelimitedProtobufScheme("value", Example.Person.class)
+        .setExtensions(ExtensionRegistriesTest.TestExtensions.class)
+        .sourceConfInit(null, null, conf);
+    assertEquals(Arrays.asList("com.example.Other", Example.class.getName(),
+        ExtensionRegistriesTest.TestExtensions.class.getName()),
+        Arrays.asList(conf.getStrings(ProtobufSerialization.EXTENSIONS)));
+  }
+
+  public void testExtensionsSurviveTheSerialization() throws Exception {
+    String extensionClassName = ExtensionRegistriesTest.TestExtensions.class.getName();
+    Descriptors.FieldDescriptor myOption = ExtensionRegistries.forClassNames(extensionClassName)
+        .findExtensionByName("test.my_option").descriptor;
+    DescriptorProtos.FieldOptions options = DescriptorProtos.FieldOptions.newBuilder()
+        .setField(myOption, 42)
+        .build();
+
+    JobConf conf = new JobConf();
+    new ProtobufScheme("value", DescriptorProtos.FieldOptions.class)
+        .setExtensions(ExtensionRegistriesTest.TestExtensions.class)
+        .sinkConfInit(null, null, conf);
+    ProtobufSerialization serde = new ProtobufSerialization();
+    serde.setConf(conf);
+
+    Serializer<DescriptorProtos.FieldOptions> ser =
+        serde.getSerializer(DescriptorProtos.FieldOptions.class);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ser.open(bytes);
+    ser.serialize(options);
+    ser.close();
+    Deserializer<DescriptorProtos.FieldOptions> de =
+        serde.getDeserializer(DescriptorProtos.FieldOptions.class);
+    de.open(new ByteArrayInputStream(bytes.toByteArray()));
+    DescriptorProtos.FieldOptions parsed = de.deserialize(null);
+    assertEquals(42, parsed.getField(myOption));
+    assertTrue(parsed.getUnknownFields().asMap().isEmpty());
+
+    Serializer<LazyMessage> lazySer = serde.getSerializer(LazyMessage.class);
+    bytes = new ByteArrayOutputStream();
+    lazySer.open(bytes);
+    lazySer.serialize(new LazyMessage(options, options.toByteArray(), null));
+    lazySer.close();
+    Deserializer<LazyMessage> lazyDe = serde.getDeserializer(LazyMessage.class);
+    lazyDe.open(new ByteArrayInputStream(bytes.toByteArray()));
+    Message lazyParsed = lazyDe.deserialize(null).getMessage();
+    assertEquals(42, lazyParsed.getField(myOption));
+    assertTrue(lazyParsed.getUnknownFields().asMap().isEmpty());
+  }
+
+  public void testBlockCompression() throws Exception {
+    FileSystem fs = FileSystem.get(new Configuration());
+    fs.delete(new Path("/tmp/input"), true);
+
+    List<Tuple> expected = new ArrayList<Tuple>();
+    expected.add(fixture("bryan", "bryan.duxbury@mail.com", 1));
+    expected.add(fixture("lucas", "lucas@mail.com", 2));
+
+    ProtobufScheme scheme = new ProtobufScheme("value", Example.Person.class)
+        .setCompression(SequenceFile.CompressionType.BLOCK, BZip2Codec.class)
+        .setCompressionBlockSize(4096);
+    Tap tap = new Hfs(scheme, "/tmp/input");
+    TupleEntryCollector tec = tap.openForWrite(new HadoopFlowProcess(), null);
+    for (Tuple t : expected) {
+      tec.add(new TupleEntry(new Fields("value"), t));
+    }
+    tec.close();
+
+    FileStatus[] parts = fs.globStatus(new Path("/tmp/input/part-*"));
+    assertEquals(1, parts.length);
+    SequenceFile.Reader reader = new SequenceFile.Reader(fs, parts[0].getPath(), new Configuration());
+    try {
+      assertTrue(reader.isBlockCompressed());
+      assertEquals(BZip2Codec.class, reader.getCompressionCodec().getClass());
+    } finally {
+      reader.close();
+    }
+
+    TupleEntryIterator iter = tap.openForRead(new HadoopFlowProcess(), null);
+    List<Tuple> tuples = new ArrayList<Tuple>();
+    while (iter.hasNext()) {
+      tuples.add(iter.next().getTupleCopy());
+    }
+    assertEquals(expected, tuples);
+  }
+
+  private static void assertConflict(ProtobufScheme scheme, String option) {
+    try {
+      scheme.setProjection("id");
+      fail("should have thrown");
+    } catch (IllegalStateException e) {
+      assertEquals("A scheme can't be both " + option + " and projected", e.getMessage());
+    }
+  }
+
+  private List<Tuple> readAll(ProtobufScheme scheme) throws Exception {
+    TupleEntryIterator iter = new Hfs(scheme, "/tmp/input").openForRead(new HadoopFlowProcess(), null);
+    List<Tuple> tuples = new ArrayList<Tuple>();
+    while (iter.hasNext()) {
+      tuples.add(iter.next().getTupleCopy());
+    }
+    return tuples;
+  }
+
+  private byte[] fixtureMessage(String name, String email, int id) {
+    return ((Message) fixture(name, email, id).getObject(0)).toByteArray();
+  }
+
   private Tuple fixture(String name, String email, int id) {
     Example.Person.Builder builder = Example.Person.newBuilder();
     builder.setId(id);
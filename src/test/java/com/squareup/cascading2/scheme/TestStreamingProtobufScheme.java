@@ -0,0 +1,128 @@
+package com.squareup.cascading2.scheme;
+
+import cascading.flow.hadoop.HadoopFlowProcess;
+import cascading.tap.Tap;
+import cascading.tap.hadoop.Hfs;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+import cascading.tuple.TupleEntryCollector;
+import cascading.tuple.TupleEntryIterator;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.Message;
+import com.google.protobuf.UnknownFieldSet;
+import com.squareup.cascading2.generated.Example;
+import com.squareup.cascading2.util.DynamicMessageType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import junit.framework.TestCase;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+public class TestStreamingProtobufScheme extends TestCase {
+  public void testEmitsEachElement() throws Exception {
+    FileSystem.get(new Configuration()).delete(new Path("/tmp/input"), true);
+
+    Tap inputTap = new Hfs(new ProtobufScheme("value", Example.Market.class), "/tmp/input");
+    TupleEntryCollector tec = inputTap.openForWrite(new HadoopFlowProcess(), null);
+    tec.add(new TupleEntry(new Fields("value"), new Tuple(Example.Market.newBuilder()
+        .addSellers(person(1))
+        .addBuyers(person(2))
+        .addSellers(person(3))
+        .build())));
+    // no sellers, so no tuples
+    tec.add(new TupleEntry(new Fields("value"), new Tuple(Example.Market.newBuilder()
+        .addBuyers(person(4))
+        .build())));
+    tec.add(new TupleEntry(new Fields("value"), new Tuple(Example.Market.newBuilder()
+        .addSellers(person(5))
+        .build())));
+    tec.close();
+
+    Tap outputTap = new Hfs(new StreamingProtobufScheme("seller", Example.Market.class, "sellers"),
+        "/tmp/input");
+    TupleEntryIterator iter = outputTap.openForRead(new HadoopFlowProcess(), null);
+    List<Tuple> tuples = new ArrayList<Tuple>();
+    while (iter.hasNext()) {
+      tuples.add(iter.next().getTupleCopy());
+    }
+
+    List<Tuple> expected = new ArrayList<Tuple>();
+    expected.add(new Tuple(person(1)));
+    expected.add(new Tuple(person(3)));
+    expected.add(new Tuple(person(5)));
+    assertEquals(expected, tuples);
+  }
+
+  public void testDynamicMessages() throws Exception {
+    FileSystem.get(new Configuration()).delete(new Path("/tmp/input"), true);
+
+    Tap inputTap = new Hfs(new ProtobufScheme("value", Example.Market.class), "/tmp/input");
+    TupleEntryCollector tec = inputTap.openForWrite(new HadoopFlowProcess(), null);
+    tec.add(new TupleEntry(new Fields("value"), new Tuple(Example.Market.newBuilder()
+        .addSellers(person(1))
+        .addSellers(person(2))
+        .build())));
+    tec.add(new TupleEntry(new Fields("value"), new Tuple(Example.Market.newBuilder()
+        .addSellers(person(3))
+        .build())));
+    tec.close();
+
+    DynamicMessageType type = DynamicMessageType.of(Example.Market.getDescriptor());
+    Tap outputTap = new Hfs(new StreamingProtobufScheme("seller", type, "sellers"), "/tmp/input");
+    TupleEntryIterator iter = outputTap.openForRead(new HadoopFlowProcess(), null);
+    List<ByteString> sellers = new ArrayList<ByteString>();
+    while (iter.hasNext()) {
+      Message seller = (Message) iter.next().getObject(0);
+      assertTrue(seller instanceof DynamicMessage);
+      sellers.add(seller.toByteString());
+    }
+
+    assertEquals(Arrays.asList(person(1).toByteString(), person(2).toByteString(),
+        person(3).toByteString()), sellers);
+  }
+
+  public void testRejectsInvalidPaths() throws Exception {
+    try {
+      new StreamingProtobufScheme("value", Example.Market.class, "sellers.id");
+      fail("should have thrown");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  public void testBuildsEachElementAsConfigured() throws Exception {
+    FileSystem.get(new Configuration()).delete(new Path("/tmp/input"), true);
+
+    Example.Person withUnknownField = person(1).toBuilder()
+        .setUnknownFields(UnknownFieldSet.newBuilder()
+            .addField(100, UnknownFieldSet.Field.newBuilder().addVarint(7).build())
+            .build())
+        .build();
+    Tap inputTap = new Hfs(new ProtobufScheme("value", Example.Market.class), "/tmp/input");
+    TupleEntryCollector tec = inputTap.openForWrite(new HadoopFlowProcess(), null);
+    tec.add(new TupleEntry(new Fields("value"), new Tuple(Example.Market.newBuilder()
+        .addSellers(withUnknownField)
+        .build())));
+    tec.close();
+
+    // the options it shares with ProtobufScheme chain like ProtobufScheme's
+    StreamingProtobufScheme scheme = new StreamingProtobufScheme("seller", Example.Market.class, "sellers")
+        .setExtensions(Example.class)
+        .setPartial(true)
+        .setDiscardUnknownFields(true)
+        .setCombineSplits(1 << 20);
+    TupleEntryIterator iter = new Hfs(scheme, "/tmp/input").openForRead(new HadoopFlowProcess(), null);
+    Example.Person seller = (Example.Person) iter.next().getObject("seller");
+    assertEquals(person(1), seller);
+    assertTrue(seller.getUnknownFields().asMap().isEmpty());
+    assertFalse(iter.hasNext());
+  }
+
+  private static Example.Person person(int id) {
+    return Example.Person.newBuilder().setId(id).build();
+  }
+}
@@ -0,0 +1,167 @@
+package com.squareup.cascading2.serialization;
+
+import cascading.tuple.hadoop.io.BufferedInputStream;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.DescriptorProtos;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.Message;
+import com.squareup.cascading2.generated.Example;
+import com.squareup.cascading2.util.DynamicMessageType;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import junit.framework.TestCase;
+import org.apache.hadoop.io.serializer.Serializer;
+
+public class ProtobufFieldComparatorTest extends TestCase {
+  public void testSortsByFieldsInOrder() throws Exception {
+    // by position, then by id; unset positions are the first value, CEO
+    List<Message> sorted = new ArrayList<Message>();
+    sorted.add(Example.Person.newBuilder().setId(-10).setName("b").build());
+    sorted.add(Example.Person.newBuilder().setPosition(Example.Person.Position.CEO).setId(-5).build());
+    sorted.add(Example.Person.newBuilder().setPosition(Example.Person.Position.CEO).setId(2).build());
+    sorted.add(Example.Person.newBuilder().setPosition(Example.Person.Position.GRUNT).setId(1).build());
+
+    assertSorted(new ProtobufFieldComparator(Example.Person.class, "position", "id"), sorted);
+  }
+
+  public void testIgnoresOtherFields() throws Exception {
+    ProtobufFieldComparator comparator = new ProtobufFieldComparator(Example.Person.class, "id");
+    Example.Person a = Example.Person.newBuilder().setId(1).setName("a").build();
+    Example.Person b = Example.Person.newBuilder().setId(1).setName("b").setEmail("b@mail.com").build();
+    assertEquals(0, comparator.compare(a, b));
+    assertEquals(0, compareSerialized(comparator, a, b));
+    assertEquals(comparator.hashCode(a), comparator.hashCode(b));
+  }
+
+  public void testNestedFields() throws Exception {
+    List<Message> sorted = new ArrayList<Message>();
+    sorted.add(Example.Partnership.getDefaultInstance());
+    sorted.add(Example.Partnership.newBuilder()
+        .setLeader(Example.Person.newBuilder().setName("alice")).build());
+    sorted.add(Example.Partnership.newBuilder()
+        .setLeader(Example.Person.newBuilder().setName("bob"))
+        .setFollower(Example.Person.newBuilder().setName("aaron")).build());
+    // a supplementary character sorts after U+FFFD in UTF-8, but before it in UTF-16
+    sorted.add(Example.Partnership.newBuilder()
+        .setLeader(Example.Person.newBuilder().setName("bob\uFFFD")).build());
+    sorted.add(Example.Partnership.newBuilder()
+        .setLeader(Example.Person.newBuilder().setName("bob\uD83D\uDE00")).build());
+
+    assertSorted(new ProtobufFieldComparator(Example.Partnership.class, "leader.name"), sorted);
+
+    DynamicMessageType type = DynamicMessageType.of(Example.Partnership.getDescriptor());
+    List<Message> dynamic = new ArrayList<Message>();
+    for (Message message : sorted) {
+      dynamic.add(DynamicMessage.parseFrom(type.getDescriptor(), message.toByteString()));
+    }
+    assertSorted(new ProtobufFieldComparator(type, "leader.name"), dynamic);
+  }
+
+  public void testNumericTypes() throws Exception {
+    // uint64, compared as unsigned
+    List<Message> sorted = new ArrayList<Message>();
+    for (long value : new long[] {0, 1, Long.MAX_VALUE, Long.MIN_VALUE, -1}) {
+      sorted.add(DescriptorProtos.UninterpretedOption.newBuilder().setPositiveIntValue(value).build());
+    }
+    assertSorted(new ProtobufFieldComparator(DescriptorProtos.UninterpretedOption.class,
+        "positive_int_value"), sorted);
+
+    // int64
+    sorted.clear();
+    for (long value : new long[] {Long.MIN_VALUE, -1, 0, 1, Long.MAX_VALUE}) {
+      sorted.add(DescriptorProtos.UninterpretedOption.newBuilder().setNegativeIntValue(value).build());
+    }
+    assertSorted(new ProtobufFieldComparator(DescriptorProtos.UninterpretedOption.class,
+        "negative_int_value"), sorted);
+
+    // double
+    sorted.clear();
+    for (double value : new double[] {Double.NEGATIVE_INFINITY, -2.5, -0.0, 0.0, 1e-10, 3,
+        Double.POSITIVE_INFINITY, Double.NaN}) {
+      sorted.add(DescriptorProtos.UninterpretedOption.newBuilder().setDoubleValue(value).build());
+    }
+    assertSorted(new ProtobufFieldComparator(DescriptorProtos.UninterpretedOption.class,
+        "double_value"), sorted);
+
+    // bytes, compared as unsigned
+    sorted.clear();
+    for (byte[] value : new byte[][] {{}, {0}, {1, 2}, {1, 2, 0}, {(byte) 0x80}, {(byte) 0xFF}}) {
+      sorted.add(DescriptorProtos.UninterpretedOption.newBuilder()
+          .setStringValue(ByteString.copyFrom(value)).build());
+    }
+    assertSorted(new ProtobufFieldComparator(DescriptorProtos.UninterpretedOption.class,
+        "string_value"), sorted);
+  }
+
+  public void testInvalidPaths() throws Exception {
+    assertInvalid(Example.Partnership.class);
+    assertInvalid(Example.Partnership.class, "missing");
+    assertInvalid(Example.Partnership.class, "leader");
+    assertInvalid(Example.Partnership.class, "silent.name");
+    assertInvalid(Example.Person.class, "name.length");
+  }
+
+  public void testSerializable() throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(new ProtobufFieldComparator(Example.Person.class, "id"));
+    out.close();
+    ProtobufFieldComparator comparator = (ProtobufFieldComparator) new ObjectInputStream(
+        new ByteArrayInputStream(bytes.toByteArray())).readObject();
+    assertTrue(comparator.compare(Example.Person.newBuilder().setId(1).build(),
+        Example.Person.newBuilder().setId(2).build()) < 0);
+  }
+
+  private static void assertInvalid(Class<? extends Message> messageClass, String... paths) {
+    try {
+      new ProtobufFieldComparator(messageClass, paths);
+      fail("should have thrown for " + Arrays.toString(paths));
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  /** Checks both the object and the stream comparisons of every pair against the expected order. */
+  private static void assertSorted(ProtobufFieldComparator comparator, List<Message> sorted)
+      throws Exception {
+    for (int i = 0; i < sorted.size(); i++) {
+      for (int j = 0; j < sorted.size(); j++) {
+        int expected = i < j ? -1 : (i == j ? 0 : 1);
+        String pair = sorted.get(i) + " vs " + sorted.get(j);
+        assertEquals(pair, expected, Integer.signum(comparator.compare(sorted.get(i), sorted.get(j))));
+        assertEquals(pair, expected, Integer.signum(compareSerialized(comparator, sorted.get(i),
+            sorted.get(j))));
+      }
+    }
+  }
+
+  private static int compareSerialized(ProtobufFieldComparator comparator, Message lhs, Message rhs)
+      throws Exception {
+    byte[] lhsBytes = serialize(lhs);
+    byte[] rhsBytes = serialize(rhs);
+    BufferedInputStream lhsStream = new BufferedInputStream();
+    lhsStream.reset(lhsBytes, 0, lhsBytes.length);
+    BufferedInputStream rhsStream = new BufferedInputStream();
+    rhsStream.reset(rhsBytes, 0, rhsBytes.length);
+
+    int result = comparator.compare(lhsStream, rhsStream);
+    // both streams are left after their messages
+    assertEquals(0, lhsStream.available());
+    assertEquals(0, rhsStream.available());
+    return result;
+  }
+
+  private static byte[] serialize(Message message) throws Exception {
+    Serializer<Message> ser = new ProtobufSerialization().getSerializer(Message.class);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ser.open(bytes);
+    ser.serialize(message);
+    ser.close();
+    return bytes.toByteArray();
+  }
+}
@@ -6,6 +6,8 @@ import cascading.operation.Insert;
 import cascading.pipe.Each;
 import cascading.pipe.GroupBy;
 import cascading.pipe.Pipe;
+import cascading.tuple.StreamComparator;
+import cascading.tuple.hadoop.io.BufferedInputStream;
 import cascading.tap.Tap;
 import cascading.tap.hadoop.Hfs;
 import cascading.tuple.Fields;
@@ -13,11 +15,25 @@ import cascading.tuple.Tuple;
 import cascading.tuple.TupleEntry;
 import cascading.tuple.TupleEntryCollector;
 import cascading.tuple.TupleEntryIterator;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.DescriptorProtos;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.DynamicMessage;
 import com.google.protobuf.Message;
+import com.google.protobuf.UninitializedMessageException;
+import com.google.protobuf.UnknownFieldSet;
 import com.squareup.cascading2.generated.Example;
 import com.squareup.cascading2.scheme.ProtobufScheme;
+import com.squareup.cascading2.util.DynamicMessageType;
+import com.squareup.cascading2.util.ExtensionRegistries;
+import com.squareup.cascading2.util.ExtensionRegistriesTest;
+import com.squareup.cascading2.util.LazyMessage;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -53,6 +69,416 @@ public class TestProtobufSerialization extends TestCase {
     assertEquals(2, person.getId());
   }
 
+  public void testPartialAndDiscardUnknownFields() throws Exception {
+    // name_part and is_extension are both required
+    DescriptorProtos.UninterpretedOption.NamePart partial = DescriptorProtos.UninterpretedOption.NamePart.newBuilder()
+        .setNamePart("name")
+        .setUnknownFields(UnknownFieldSet.newBuilder()
+            .addField(100, UnknownFieldSet.Field.newBuilder().addVarint(7).build())
+            .build())
+        .buildPartial();
+
+    ProtobufSerialization serde = new ProtobufSerialization();
+    Serializer<DescriptorProtos.UninterpretedOption.NamePart> ser =
+        serde.getSerializer(DescriptorProtos.UninterpretedOption.NamePart.class);
+    ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+    ser.open(byteArrayOutputStream);
+    ser.serialize(partial);
+    ser.close();
+
+    Deserializer<DescriptorProtos.UninterpretedOption.NamePart> de =
+        serde.getDeserializer(DescriptorProtos.UninterpretedOption.NamePart.class);
+    de.open(new ByteArrayInputStream(byteArrayOutputStream.toByteArray()));
+    try {
+      de.deserialize(null);
+      fail("should have thrown");
+    } catch (UninitializedMessageException e) {
+      // expected
+    }
+
+    Configuration conf = new Configuration();
+    conf.setBoolean(ProtobufSerialization.PARTIAL, true);
+    conf.setBoolean(ProtobufSerialization.DISCARD_UNKNOWN_FIELDS, true);
+    serde.setConf(conf);
+    de = serde.getDeserializer(DescriptorProtos.UninterpretedOption.NamePart.class);
+    de.open(new ByteArrayInputStream(byteArrayOutputStream.toByteArray()));
+    DescriptorProtos.UninterpretedOption.NamePart namePart = de.deserialize(null);
+    assertEquals("name", namePart.getNamePart());
+    assertFalse(namePart.hasIsExtension());
+    assertTrue(namePart.getUnknownFields().asMap().isEmpty());
+
+    // lazy messages are built partially too
+    Serializer<LazyMessage> lazySer = serde.getSerializer(LazyMessage.class);
+    byteArrayOutputStream = new ByteArrayOutputStream();
+    lazySer.open(byteArrayOutputStream);
+    lazySer.serialize(new LazyMessage(DescriptorProtos.UninterpretedOption.NamePart.getDefaultInstance(),
+        partial.toByteArray(), null, true));
+    lazySer.close();
+    Deserializer<LazyMessage> lazyDe = serde.getDeserializer(LazyMessage.class);
+    lazyDe.open(new ByteArrayInputStream(byteArrayOutputStream.toByteArray()));
+    assertEquals("name", lazyDe.deserialize(null)
+        .getField(DescriptorProtos.UninterpretedOption.NamePart.getDescriptor().findFieldByName("name_part")));
+  }
+
+  public void testSerializerOnlyFlushesOnClose() throws Exception {
+    final int[] flushes = new int[1];
+    ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream() {
+      @Override public void flush() {
+        flushes[0]++;
+      }
+    };
+    Example.Person bryan = Example.Person.newBuilder().setName("bryan").setId(1).build();
+
+    Serializer<Example.Person> ser = new ProtobufSerialization().getSerializer(Example.Person.class);
+    ser.open(byteArrayOutputStream);
+    ser.serialize(bryan);
+    // other serializers write to the same stream, so each message has to reach it right away
+    assertEquals(1 + bryan.getSerializedSize(), byteArrayOutputStream.size());
+    ser.serialize(bryan);
+    assertEquals(2 * (1 + bryan.getSerializedSize()), byteArrayOutputStream.size());
+    assertEquals(0, flushes[0]);
+    ser.close();
+
+    Deserializer<Example.Person> de = new ProtobufSerialization().getDeserializer(Example.Person.class);
+    de.open(new ByteArrayInputStream(byteArrayOutputStream.toByteArray()));
+    assertEquals(bryan, de.deserialize(null));
+    assertEquals(bryan, de.deserialize(null));
+  }
+
+  public void testDoesNotReadPastMessage() throws Exception {
+    ProtobufSerialization serde = new ProtobufSerialization();
+    ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(byteArrayOutputStream);
+    Example.Person.newBuilder().setName("bryan").setId(1).build().writeDelimitedTo(out);
+    out.writeInt(42);
+    Example.Person.newBuilder().setName("lucas").setId(2).build().writeDelimitedTo(out);
+    out.writeInt(43);
+    out.close();
+
+    // other serializers read from the same stream, as they do for the elements of a tuple
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(byteArrayOutputStream.toByteArray()));
+    Deserializer<Example.Person> de = serde.getDeserializer(Example.Person.class);
+    de.open(in);
+    assertEquals("bryan", de.deserialize(null).getName());
+    assertEquals(42, in.readInt());
+    assertEquals("lucas", de.deserialize(null).getName());
+    assertEquals(43, in.readInt());
+  }
+
+  public void testSizeLimit() throws Exception {
+    ProtobufSerialization serde = new ProtobufSerialization();
+    Configuration conf = new Configuration();
+    conf.setInt(ProtobufSerialization.SIZE_LIMIT, 20);
+    serde.setConf(conf);
+
+    Serializer<Example.Person> ser = serde.getSerializer(Example.Person.class);
+    ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+    ser.open(byteArrayOutputStream);
+    ser.serialize(Example.Person.newBuilder().setName("bryan").setId(1).build());
+    ser.serialize(Example.Person.newBuilder().setName("a name well over the limit").setId(2).build());
+    ser.close();
+
+    Deserializer<Example.Person> de = serde.getDeserializer(Example.Person.class);
+    de.open(new ByteArrayInputStream(byteArrayOutputStream.toByteArray()));
+    assertEquals("bryan", de.deserialize(null).getName());
+    try {
+      de.deserialize(null);
+      fail("should have thrown");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  public void testLazySizeLimit() throws Exception {
+    ProtobufSerialization serde = new ProtobufSerialization();
+    Configuration conf = new Configuration();
+    conf.setInt(ProtobufSerialization.SIZE_LIMIT, 20);
+    serde.setConf(conf);
+
+    Example.Person small = Example.Person.newBuilder().setName("bryan").setId(1).build();
+    Example.Person large = Example.Person.newBuilder().setName("a name well over the limit").setId(2).build();
+    Serializer<LazyMessage> ser = serde.getSerializer(LazyMessage.class);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ser.open(bytes);
+    ser.serialize(new LazyMessage(Example.Person.getDefaultInstance(), small.toByteArray(), null));
+    ser.serialize(new LazyMessage(Example.Person.getDefaultInstance(), large.toByteArray(), null));
+    ser.close();
+
+    Deserializer<LazyMessage> de = serde.getDeserializer(LazyMessage.class);
+    de.open(new ByteArrayInputStream(bytes.toByteArray()));
+    assertEquals(small, de.deserialize(null).getMessage());
+    try {
+      de.deserialize(null);
+      fail("should have thrown");
+    } catch (IOException e) {
+      // expected
+    }
+
+    // a corrupt, negative length
+    ByteArrayOutputStream corrupt = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(corrupt);
+    out.writeByte(0);
+    out.writeUTF(Example.Person.class.getName());
+    CodedOutputStream coded = CodedOutputStream.newInstance(out);
+    coded.writeRawVarint32(-1);
+    coded.flush();
+    de = serde.getDeserializer(LazyMessage.class);
+    de.open(new ByteArrayInputStream(corrupt.toByteArray()));
+    try {
+      de.deserialize(null);
+      fail("should have thrown");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  public void testComparator() throws Exception {
+    Example.Person bryan = Example.Person.newBuilder().setName("bryan").setId(1).build();
+    Example.Person lucas = Example.Person.newBuilder().setName("lucas").setId(1).build();
+    // bigger than the comparator's initial buffer
+    StringBuilder longName = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      longName.append('z');
+    }
+    Example.Person zed = Example.Person.newBuilder().setName(longName.toString()).build();
+
+    ProtobufSerialization serde = new ProtobufSerialization();
+    Comparator<Message> comparator = serde.getComparator(Example.Person.class);
+    assertEquals(0, comparator.compare(bryan, bryan));
+    assertEquals(0, comparator.compare(bryan, Example.Person.newBuilder(bryan).build()));
+    assertTrue(comparator.compare(bryan, lucas) < 0);
+    assertTrue(comparator.compare(lucas, bryan) > 0);
+    // the same messages again, and then on the other sides
+    assertTrue(comparator.compare(lucas, bryan) > 0);
+    assertTrue(comparator.compare(bryan, lucas) < 0);
+    // id is field 1, so every id sorts before every name
+    assertTrue(comparator.compare(bryan, zed) < 0);
+    assertTrue(comparator.compare(zed, lucas) > 0);
+    assertTrue(comparator.compare(zed, Example.Person.newBuilder().setName("zz").build()) > 0);
+  }
+
+  public void testStreamComparator() throws Exception {
+    ProtobufSerialization serde = new ProtobufSerialization();
+    Serializer<Example.Person> ser = serde.getSerializer(Example.Person.class);
+    ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+    // some leading bytes, so the messages don't start at the beginning of the buffer
+    byteArrayOutputStream.write(new byte[] {7, 7, 7});
+    ser.open(byteArrayOutputStream);
+    Example.Person bryan = Example.Person.newBuilder().setName("bryan").setId(1).build();
+    ser.serialize(bryan);
+    ser.serialize(Example.Person.newBuilder().setName("lucas").setId(2).build());
+    ser.serialize(bryan);
+    ser.close();
+    byte[] bytes = byteArrayOutputStream.toByteArray();
+
+    StreamComparator<BufferedInputStream> comparator =
+        (StreamComparator<BufferedInputStream>) serde.getComparator(Example.Person.class);
+    BufferedInputStream lhs = new BufferedInputStream();
+    BufferedInputStream rhs = new BufferedInputStream();
+    lhs.reset(bytes, 3, bytes.length - 3);
+    rhs.reset(bytes, 3, bytes.length - 3);
+    // each comparison leaves both streams after their messages
+    assertEquals(0, comparator.compare(lhs, rhs));
+    assertEquals(0, comparator.compare(lhs, rhs));
+    assertEquals(0, comparator.compare(lhs, rhs));
+    assertEquals(0, lhs.available());
+    assertEquals(0, rhs.available());
+
+    lhs.reset(bytes, 3, bytes.length - 3);
+    rhs.reset(bytes, 3, bytes.length - 3);
+    rhs.skip(1 + bryan.getSerializedSize());
+    assertTrue(comparator.compare(lhs, rhs) < 0);
+    assertTrue(comparator.compare(lhs, rhs) > 0);
+  }
+
+  public void testLazyMessageRoundtrip() throws Exception {
+    Example.Person bryan = Example.Person.newBuilder().setName("bryan").setId(1).build();
+
+    ProtobufSerialization serde = new ProtobufSerialization();
+    Serializer<LazyMessage> ser = serde.getSerializer(LazyMessage.class);
+    ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+    ser.open(byteArrayOutputStream);
+    ser.serialize(new LazyMessage(Example.Person.getDefaultInstance(), bryan.toByteArray(), null));
+    ser.close();
+
+    Deserializer<LazyMessage> de = serde.getDeserializer(LazyMessage.class);
+    de.open(new ByteArrayInputStream(byteArrayOutputStream.toByteArray()));
+    LazyMessage person = de.deserialize(null);
+    assertFalse(person.isParsed());
+    assertEquals(bryan, person.getMessage());
+  }
+
+  public void testPassThroughLazyMessageRoundtrip() throws Exception {
+    Example.Person bryan = Example.Person.newBuilder().setName("bryan").setId(1).build();
+
+    ProtobufSerialization serde = new ProtobufSerialization();
+    Serializer<LazyMessage> ser = serde.getSerializer(LazyMessage.class);
+    ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+    ser.open(byteArrayOutputStream);
+    ser.serialize(new LazyMessage(Example.Person.getDefaultInstance(), bryan.toByteArray(), null, true));
+    ser.serialize(new LazyMessage(Example.Person.getDefaultInstance(), bryan.toByteArray(), null));
+    ser.close();
+
+    Deserializer<LazyMessage> de = serde.getDeserializer(LazyMessage.class);
+    de.open(new ByteArrayInputStream(byteArrayOutputStream.toByteArray()));
+    assertTrue(de.deserialize(null).isPassThrough());
+    assertFalse(de.deserialize(null).isPassThrough());
+  }
+
+  public void testLazyMessageTypeFingerprints() throws Exception {
+    Example.Person bryan = Example.Person.newBuilder().setName("bryan").setId(1).build();
+    ProtobufSerialization serde = new ProtobufSerialization();
+    byte[] byClassName = serializeLazy(serde, bryan);
+
+    Map<Object, Object> properties = new HashMap<Object, Object>();
+    ProtobufSerialization.addMessageTypes(properties, Example.Person.class);
+    Configuration conf = new Configuration();
+    conf.set(ProtobufSerialization.MESSAGE_TYPES, (String) properties.get(ProtobufSerialization.MESSAGE_TYPES));
+    serde.setConf(conf);
+    byte[] byFingerprint = serializeLazy(serde, bryan);
+    // a flags byte and 4 byte fingerprint rather than the class name
+    assertEquals(1 + 4 + 1 + bryan.getSerializedSize(), byFingerprint.length);
+    assertTrue(byFingerprint.length < byClassName.length);
+
+    Deserializer<LazyMessage> de = serde.getDeserializer(LazyMessage.class);
+    de.open(new ByteArrayInputStream(byFingerprint));
+    assertEquals(bryan, de.deserialize(null).getMessage());
+
+    // values written by class name can still be read
+    de.open(new ByteArrayInputStream(byClassName));
+    assertEquals(bryan, de.deserialize(null).getMessage());
+
+    // but a fingerprint is useless to a reader that doesn't list the type
+    de = new ProtobufSerialization().getDeserializer(LazyMessage.class);
+    de.open(new ByteArrayInputStream(byFingerprint));
+    try {
+      de.deserialize(null);
+      fail("should have thrown");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  public void testDynamicMessageRoundtrip() throws Exception {
+    DynamicMessageType type = DynamicMessageType.of(Example.Person.getDescriptor());
+    Descriptors.FieldDescriptor name = type.getDescriptor().findFieldByName("name");
+    Message bryan = type.newBuilder().setField(name, "bryan").build();
+    Message lucas = type.newBuilder().setField(name, "lucas").build();
+
+    try {
+      Serializer<Message> ser = new ProtobufSerialization().getSerializer((Class) DynamicMessage.class);
+      ser.open(new ByteArrayOutputStream());
+      ser.serialize(bryan);
+      fail("should have thrown");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+
+    ProtobufSerialization serde = new ProtobufSerialization();
+    Configuration conf = new Configuration();
+    ProtobufSerialization.addMessageTypes(conf, type);
+    // adding the same type again is harmless
+    ProtobufSerialization.addMessageTypes(conf, type);
+    serde.setConf(conf);
+
+    Serializer<Message> ser = serde.getSerializer((Class) DynamicMessage.class);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ser.open(bytes);
+    ser.serialize(bryan);
+    ser.serialize(lucas);
+    ser.close();
+
+    Deserializer<Message> de = serde.getDeserializer((Class) DynamicMessage.class);
+    de.open(new ByteArrayInputStream(bytes.toByteArray()));
+    Message parsed = de.deserialize(null);
+    assertTrue(type.isInstance(parsed));
+    assertEquals("bryan", parsed.getField(name));
+    assertEquals("lucas", de.deserialize(null).getField(name));
+
+    // the fingerprint isn't compared
+    StreamComparator<BufferedInputStream> comparator =
+        (StreamComparator<BufferedInputStream>) serde.getComparator((Class) DynamicMessage.class);
+    byte[] serialized = bytes.toByteArray();
+    BufferedInputStream lhs = new BufferedInputStream();
+    BufferedInputStream rhs = new BufferedInputStream();
+    lhs.reset(serialized, 0, serialized.length);
+    rhs.reset(serialized, 0, serialized.length);
+    rhs.skip(4 + 1 + bryan.getSerializedSize());
+    assertTrue(comparator.compare(lhs, rhs) < 0);
+    assertEquals(0, rhs.available());
+    assertTrue(((Comparator<Message>) comparator).compare(bryan, lucas) < 0);
+
+    // lazy messages of a dynamic type go by the same fingerprint
+    Serializer<LazyMessage> lazySer = serde.getSerializer(LazyMessage.class);
+    bytes = new ByteArrayOutputStream();
+    lazySer.open(bytes);
+    lazySer.serialize(new LazyMessage(bryan, bryan.toByteArray(), null));
+    lazySer.close();
+    Deserializer<LazyMessage> lazyDe = serde.getDeserializer(LazyMessage.class);
+    lazyDe.open(new ByteArrayInputStream(bytes.toByteArray()));
+    assertEquals("bryan", lazyDe.deserialize(null).getField(name));
+  }
+
+  public void testLazyMessageComparatorIgnoresOriginalEncoding() throws Exception {
+    Example.Person bryan = Example.Person.newBuilder().setName("bryan").setId(1).build();
+    // the same fields, but written name first rather than in field order
+    ByteArrayOutputStream reordered = new ByteArrayOutputStream();
+    CodedOutputStream coded = CodedOutputStream.newInstance(reordered);
+    coded.writeString(2, "bryan");
+    coded.writeInt32(1, 1);
+    coded.flush();
+    LazyMessage inOrder = new LazyMessage(Example.Person.getDefaultInstance(), bryan.toByteArray(), null);
+    LazyMessage outOfOrder = new LazyMessage(Example.Person.getDefaultInstance(), reordered.toByteArray(), null);
+    assertEquals(inOrder, outOfOrder);
+
+    Comparator<LazyMessage> comparator = new ProtobufSerialization().getComparator(LazyMessage.class);
+    assertEquals(0, comparator.compare(inOrder, outOfOrder));
+    assertEquals(0, comparator.compare(outOfOrder, inOrder));
+    LazyMessage lucas = new LazyMessage(Example.Person.getDefaultInstance(),
+        Example.Person.newBuilder().setName("lucas").setId(1).build().toByteArray(), null);
+    assertTrue(comparator.compare(outOfOrder, lucas) < 0);
+    assertTrue(comparator.compare(lucas, inOrder) > 0);
+  }
+
+  public void testExtensionsSurviveRoundtrip() throws Exception {
+    String extensionClassName = ExtensionRegistriesTest.TestExtensions.class.getName();
+    Descriptors.FieldDescriptor myOption = ExtensionRegistries.forClassNames(extensionClassName)
+        .findExtensionByName("test.my_option").descriptor;
+    DescriptorProtos.FieldOptions options = DescriptorProtos.FieldOptions.newBuilder()
+        .setField(myOption, 42)
+        .build();
+
+    ProtobufSerialization serde = new ProtobufSerialization();
+    Configuration conf = new Configuration();
+    conf.setStrings(ProtobufSerialization.EXTENSIONS, extensionClassName);
+    serde.setConf(conf);
+
+    Serializer<DescriptorProtos.FieldOptions> ser =
+        serde.getSerializer(DescriptorProtos.FieldOptions.class);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ser.open(bytes);
+    ser.serialize(options);
+    ser.close();
+    Deserializer<DescriptorProtos.FieldOptions> de =
+        serde.getDeserializer(DescriptorProtos.FieldOptions.class);
+    de.open(new ByteArrayInputStream(bytes.toByteArray()));
+    DescriptorProtos.FieldOptions parsed = de.deserialize(null);
+    assertEquals(42, parsed.getField(myOption));
+    assertTrue(parsed.getUnknownFields().asMap().isEmpty());
+
+    Serializer<LazyMessage> lazySer = serde.getSerializer(LazyMessage.class);
+    bytes = new ByteArrayOutputStream();
+    lazySer.open(bytes);
+    lazySer.serialize(new LazyMessage(DescriptorProtos.FieldOptions.getDefaultInstance(),
+        options.toByteArray(), null));
+    lazySer.close();
+    Deserializer<LazyMessage> lazyDe = serde.getDeserializer(LazyMessage.class);
+    lazyDe.open(new ByteArrayInputStream(bytes.toByteArray()));
+    Message lazyParsed = lazyDe.deserialize(null).getMessage();
+    assertEquals(42, lazyParsed.getField(myOption));
+    assertTrue(lazyParsed.getUnknownFields().asMap().isEmpty());
+  }
+
   public void testAsGroupByValue() throws Exception {
     FileSystem.get(new Configuration()).delete(new Path("/tmp/input"), true);
     FileSystem.get(new Configuration()).delete(new Path("/tmp/output"), true);
@@ -126,4 +552,13 @@ public class TestProtobufSerialization extends TestCase {
 
     assertEquals(expectedTuples, tuples);
   }
+
+  private static byte[] serializeLazy(ProtobufSerialization serde, Message message) throws IOException {
+    Serializer<LazyMessage> ser = serde.getSerializer(LazyMessage.class);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ser.open(bytes);
+    ser.serialize(new LazyMessage(message, message.toByteArray(), null));
+    ser.close();
+    return bytes.toByteArray();
+  }
 }
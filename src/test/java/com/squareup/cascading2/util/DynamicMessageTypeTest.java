@@ -0,0 +1,61 @@
+package com.squareup.cascading2.util;
+
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.Message;
+import com.squareup.cascading2.generated.Example;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import junit.framework.TestCase;
+
+public class DynamicMessageTypeTest extends TestCase {
+  private static final Example.Partnership PARTNERSHIP = Example.Partnership.newBuilder()
+      .setLeader(Example.Person.newBuilder().setId(1).setName("John")
+          .setPosition(Example.Person.Position.CEO))
+      .addSilent(Example.Person.newBuilder().setId(3).setName("George"))
+      .build();
+
+  public void testParsesLikeGeneratedCode() throws Exception {
+    DynamicMessageType type = DynamicMessageType.of(Example.Partnership.getDescriptor());
+    Message message = type.newBuilder().mergeFrom(PARTNERSHIP.toByteArray()).build();
+
+    assertTrue(message instanceof DynamicMessage);
+    assertEquals(PARTNERSHIP.toString(), message.toString());
+    assertEquals(PARTNERSHIP.toByteString(), message.toByteString());
+  }
+
+  public void testNestedTypes() throws Exception {
+    byte[] descriptorSet = DescriptorSets.toDescriptorSet(Example.Partnership.getDescriptor());
+    DynamicMessageType type = new DynamicMessageType(descriptorSet, "com.squareup.cascading2.generated.Person");
+    assertEquals("Person", type.getDescriptor().getName());
+    assertNotNull(type.getDescriptor().findFieldByName("position").getEnumType());
+  }
+
+  public void testDescriptorsAreCachedPerDescriptorSet() throws Exception {
+    DynamicMessageType type = DynamicMessageType.of(Example.Partnership.getDescriptor());
+    DynamicMessageType copy = roundtrip(type);
+
+    assertSame(type.getDescriptor(), copy.getDescriptor());
+    assertTrue(copy.isInstance(type.newBuilder().build()));
+    assertFalse(copy.isInstance(PARTNERSHIP));
+  }
+
+  public void testUnknownType() throws Exception {
+    byte[] descriptorSet = DescriptorSets.toDescriptorSet(Example.Partnership.getDescriptor());
+    try {
+      new DynamicMessageType(descriptorSet, "com.squareup.cascading2.generated.Nobody");
+      fail("should have thrown");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  private static DynamicMessageType roundtrip(DynamicMessageType type) throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(type);
+    out.close();
+    return (DynamicMessageType) new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+  }
+}
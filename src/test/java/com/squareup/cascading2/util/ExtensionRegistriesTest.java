@@ -0,0 +1,67 @@
+package com.squareup.cascading2.util;
+
+import com.google.protobuf.DescriptorProtos;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.ExtensionRegistry;
+import com.squareup.cascading2.generated.Example;
+import junit.framework.TestCase;
+
+public class ExtensionRegistriesTest extends TestCase {
+  public void testRegistersExtensions() throws Exception {
+    ExtensionRegistry registry = ExtensionRegistries.forClassNames(TestExtensions.class.getName());
+    assertNotNull(registry.findExtensionByName("test.my_option"));
+
+    // built once per JVM
+    assertSame(registry, ExtensionRegistries.forClassNames(TestExtensions.class.getName()));
+    assertNotSame(registry, ExtensionRegistries.forClassNames(TestExtensions.class.getName(),
+        Example.class.getName()));
+  }
+
+  public void testParsesExtensions() throws Exception {
+    DescriptorProtos.FieldOptions options = DescriptorProtos.FieldOptions.newBuilder()
+        .setField(TestExtensions.MY_OPTION, 42)
+        .build();
+    ExtensionRegistry registry = ExtensionRegistries.forClassNames(TestExtensions.class.getName());
+    DescriptorProtos.FieldOptions parsed =
+        DescriptorProtos.FieldOptions.parseFrom(options.toByteArray(), registry);
+    assertEquals(42, parsed.getField(TestExtensions.MY_OPTION));
+  }
+
+  public void testNotAGeneratedOuterClass() throws Exception {
+    try {
+      ExtensionRegistries.forClassNames(Example.Person.class.getName());
+      fail("should have thrown");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  /** Stands in for a protoc generated outer class that declares an extension. */
+  public static final class TestExtensions {
+    static final Descriptors.FieldDescriptor MY_OPTION;
+
+    static {
+      DescriptorProtos.FileDescriptorProto proto = DescriptorProtos.FileDescriptorProto.newBuilder()
+          .setName("test.proto")
+          .setPackage("test")
+          .addDependency("google/protobuf/descriptor.proto")
+          .addExtension(DescriptorProtos.FieldDescriptorProto.newBuilder()
+              .setName("my_option")
+              .setNumber(50000)
+              .setLabel(DescriptorProtos.FieldDescriptorProto.Label.LABEL_OPTIONAL)
+              .setType(DescriptorProtos.FieldDescriptorProto.Type.TYPE_INT32)
+              .setExtendee(".google.protobuf.FieldOptions"))
+          .build();
+      try {
+        MY_OPTION = Descriptors.FileDescriptor.buildFrom(proto,
+            new Descriptors.FileDescriptor[] {DescriptorProtos.getDescriptor()}).getExtensions().get(0);
+      } catch (Descriptors.DescriptorValidationException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    public static void registerAllExtensions(ExtensionRegistry registry) {
+      registry.add(MY_OPTION);
+    }
+  }
+}
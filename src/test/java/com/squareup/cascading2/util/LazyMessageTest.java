@@ -0,0 +1,81 @@
+package com.squareup.cascading2.util;
+
+import com.google.protobuf.DescriptorProtos;
+import com.google.protobuf.UninitializedMessageException;
+import com.squareup.cascading2.generated.Example;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import junit.framework.TestCase;
+
+public class LazyMessageTest extends TestCase {
+  private static final Example.Person BRYAN = Example.Person.newBuilder()
+      .setId(1)
+      .setName("bryan")
+      .setEmail("bryan@mail.com")
+      .build();
+
+  public void testParsesOnFirstFieldAccess() throws Exception {
+    LazyMessage lazy = new LazyMessage(Example.Person.getDefaultInstance(), BRYAN.toByteArray(), null);
+    assertEquals(Example.Person.getDescriptor(), lazy.getDescriptorForType());
+    assertFalse(lazy.isParsed());
+
+    assertEquals("bryan", lazy.getField(Example.Person.getDescriptor().findFieldByName("name")));
+    assertTrue(lazy.isParsed());
+    assertEquals(BRYAN, lazy.getMessage());
+  }
+
+  public void testWritesBytesWithoutParsing() throws Exception {
+    byte[] bytes = BRYAN.toByteArray();
+    LazyMessage lazy = new LazyMessage(Example.Person.getDefaultInstance(), bytes, null);
+
+    assertEquals(bytes.length, lazy.getSerializedSize());
+    assertTrue(Arrays.equals(bytes, lazy.toByteArray()));
+    assertFalse(lazy.isParsed());
+  }
+
+  public void testPassThroughKeepsBytes() throws Exception {
+    // serialized out of field order, so re-serializing would give different bytes
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Example.Person.newBuilder().setName("bryan").build().writeTo(out);
+    Example.Person.newBuilder().setId(1).build().writeTo(out);
+    byte[] bytes = out.toByteArray();
+    LazyMessage lazy = new LazyMessage(Example.Person.getDefaultInstance(), bytes, null, true);
+
+    assertEquals(1, lazy.getMessage().getField(Example.Person.getDescriptor().findFieldByName("id")));
+    assertTrue(lazy.isParsed());
+    assertTrue(Arrays.equals(bytes, lazy.toByteArray()));
+
+    LazyMessage dropped = new LazyMessage(Example.Person.getDefaultInstance(), bytes, null);
+    dropped.getMessage();
+    assertFalse(Arrays.equals(bytes, dropped.toByteArray()));
+  }
+
+  public void testPartial() throws Exception {
+    // is_extension is required
+    DescriptorProtos.UninterpretedOption.NamePart partial =
+        DescriptorProtos.UninterpretedOption.NamePart.newBuilder().setNamePart("name").buildPartial();
+    LazyMessage lazy = new LazyMessage(DescriptorProtos.UninterpretedOption.NamePart.getDefaultInstance(),
+        partial.toByteArray(), null, true);
+    try {
+      lazy.getMessage();
+      fail("should have thrown");
+    } catch (UninitializedMessageException e) {
+      // expected
+    }
+
+    lazy = new LazyMessage(DescriptorProtos.UninterpretedOption.NamePart.getDefaultInstance(),
+        partial.toByteArray(), null, true, true);
+    assertEquals(partial, lazy.getMessage());
+    assertFalse(lazy.isInitialized());
+  }
+
+  public void testEqualsUnderlyingMessage() throws Exception {
+    LazyMessage lazy = new LazyMessage(Example.Person.getDefaultInstance(), BRYAN.toByteArray(), null);
+    LazyMessage other = new LazyMessage(Example.Person.getDefaultInstance(), BRYAN.toByteArray(), null);
+
+    assertEquals(BRYAN, lazy);
+    assertEquals(lazy, BRYAN);
+    assertEquals(lazy, other);
+    assertEquals(BRYAN.hashCode(), lazy.hashCode());
+  }
+}
@@ -0,0 +1,96 @@
+package com.squareup.cascading2.util;
+
+import com.google.protobuf.Message;
+import com.squareup.cascading2.generated.Example;
+import junit.framework.TestCase;
+
+public class ProjectionTest extends TestCase {
+  private static final Example.Partnership PARTNERSHIP = Example.Partnership.newBuilder()
+      .setLeader(Example.Person.newBuilder().setId(1).setName("John").setEmail("john@"))
+      .setFollower(Example.Person.newBuilder().setId(2).setName("Paul").setEmail("paul@"))
+      .addSilent(Example.Person.newBuilder().setId(3).setName("George").setEmail("george@"))
+      .addSilent(Example.Person.newBuilder().setId(4).setName("Ringo").setEmail("ringo@"))
+      .build();
+
+  public void testTopLevelField() throws Exception {
+    Example.Partnership expected = Example.Partnership.newBuilder()
+        .setFollower(PARTNERSHIP.getFollower())
+        .build();
+    assertEquals(expected, project(PARTNERSHIP, "follower"));
+  }
+
+  public void testNestedFields() throws Exception {
+    Example.Partnership expected = Example.Partnership.newBuilder()
+        .setLeader(Example.Person.newBuilder().setName("John"))
+        .addSilent(Example.Person.newBuilder().setId(3).setName("George"))
+        .addSilent(Example.Person.newBuilder().setId(4).setName("Ringo"))
+        .build();
+    assertEquals(expected, project(PARTNERSHIP, "leader.name", "silent.name", "silent.id"));
+  }
+
+  public void testWholeFieldTrumpsNestedField() throws Exception {
+    Example.Partnership expected = Example.Partnership.newBuilder()
+        .setLeader(PARTNERSHIP.getLeader())
+        .build();
+    assertEquals(expected, project(PARTNERSHIP, "leader.name", "leader"));
+    assertEquals(expected, project(PARTNERSHIP, "leader", "leader.name"));
+  }
+
+  public void testMergesRepeatedOccurrences() throws Exception {
+    // a singular message field serialized twice is merged, just like a full parse would
+    byte[] first = Example.Partnership.newBuilder()
+        .setLeader(Example.Person.newBuilder().setId(1).setName("John"))
+        .build().toByteArray();
+    byte[] second = Example.Partnership.newBuilder()
+        .setLeader(Example.Person.newBuilder().setEmail("john@").setName("Johnny"))
+        .build().toByteArray();
+    byte[] both = new byte[first.length + second.length];
+    System.arraycopy(first, 0, both, 0, first.length);
+    System.arraycopy(second, 0, both, first.length, second.length);
+
+    Example.Partnership.Builder builder = Example.Partnership.newBuilder();
+    Projection.of(Example.Partnership.getDescriptor(), "leader.id", "leader.name")
+        .merge(both, 0, both.length, builder, null);
+
+    Example.Partnership expected = Example.Partnership.newBuilder()
+        .setLeader(Example.Person.newBuilder().setId(1).setName("Johnny"))
+        .build();
+    assertEquals(expected, builder.build());
+  }
+
+  public void testHonorsOffset() throws Exception {
+    byte[] bytes = PARTNERSHIP.toByteArray();
+    byte[] padded = new byte[bytes.length + 7];
+    System.arraycopy(bytes, 0, padded, 3, bytes.length);
+
+    Example.Partnership.Builder builder = Example.Partnership.newBuilder();
+    Projection.of(Example.Partnership.getDescriptor(), "silent.email")
+        .merge(padded, 3, bytes.length, builder, null);
+
+    assertEquals(2, builder.getSilentCount());
+    assertEquals("ringo@", builder.getSilent(1).getEmail());
+    assertFalse(builder.getSilent(1).hasName());
+  }
+
+  public void testValidatesPaths() throws Exception {
+    try {
+      Projection.of(Example.Partnership.getDescriptor(), "leader.has_mind_powers");
+      fail("Expected an exception!");
+    } catch (IllegalArgumentException e) {
+      // yay!
+    }
+    try {
+      Projection.of(Example.Partnership.getDescriptor(), "leader.name.first");
+      fail("Expected an exception!");
+    } catch (IllegalArgumentException e) {
+      // yay!
+    }
+  }
+
+  private static Message project(Message message, String... paths) throws Exception {
+    byte[] bytes = message.toByteArray();
+    Message.Builder builder = message.newBuilderForType();
+    Projection.of(message.getDescriptorForType(), paths).merge(bytes, 0, bytes.length, builder, null);
+    return builder.build();
+  }
+}
@@ -1,6 +1,8 @@
 package com.squareup.cascading2.util;
 
+import com.google.protobuf.DescriptorProtos;
 import com.google.protobuf.Descriptors;
+import com.google.protobuf.UnknownFieldSet;
 import com.squareup.cascading2.generated.Example;
 import junit.framework.TestCase;
 
@@ -9,4 +11,59 @@ public class UtilTest extends TestCase {
     Descriptors.FieldDescriptor desc = Example.Partnership.getDescriptor().findFieldByName("leader");
     assertEquals(Example.Person.class, Util.messageClassFromFieldDesc(Example.Partnership.class.getName(), desc));
   }
+
+  public void testDiscardUnknownFields() throws Exception {
+    UnknownFieldSet unknown = UnknownFieldSet.newBuilder()
+        .addField(100, UnknownFieldSet.Field.newBuilder().addVarint(7).build())
+        .build();
+    Example.Person bryan = Example.Person.newBuilder().setId(1).setUnknownFields(unknown).build();
+    Example.Person lucas = Example.Person.newBuilder().setId(2).build();
+    Example.Partnership partnership = Example.Partnership.newBuilder()
+        .setLeader(bryan)
+        .setFollower(lucas)
+        .addSilent(lucas)
+        .addSilent(bryan)
+        .setUnknownFields(unknown)
+        .build();
+
+    Example.Partnership.Builder builder = partnership.toBuilder();
+    Util.discardUnknownFields(builder);
+    Example.Partnership discarded = builder.build();
+
+    Example.Person bryanWithout = bryan.toBuilder().setUnknownFields(UnknownFieldSet.getDefaultInstance()).build();
+    assertEquals(Example.Partnership.newBuilder()
+        .setLeader(bryanWithout)
+        .setFollower(lucas)
+        .addSilent(lucas)
+        .addSilent(bryanWithout)
+        .build(), discarded);
+    // sub-messages without unknown fields are reused as they are
+    assertSame(lucas, discarded.getFollower());
+  }
+
+  public void testDiscardsDeeplyNestedUnknownFields() throws Exception {
+    UnknownFieldSet unknown = UnknownFieldSet.newBuilder()
+        .addField(100, UnknownFieldSet.Field.newBuilder().addVarint(7).build())
+        .build();
+    DescriptorProtos.DescriptorProto clean = DescriptorProtos.DescriptorProto.newBuilder()
+        .setName("Clean")
+        .addField(DescriptorProtos.FieldDescriptorProto.newBuilder().setName("a"))
+        .build();
+    DescriptorProtos.FileDescriptorProto file = DescriptorProtos.FileDescriptorProto.newBuilder()
+        .addMessageType(clean)
+        .addMessageType(DescriptorProtos.DescriptorProto.newBuilder()
+            .setName("Dirty")
+            .addField(DescriptorProtos.FieldDescriptorProto.newBuilder()
+                .setName("b")
+                .setOptions(DescriptorProtos.FieldOptions.newBuilder().setUnknownFields(unknown))))
+        .build();
+
+    DescriptorProtos.FileDescriptorProto.Builder builder = file.toBuilder();
+    Util.discardUnknownFields(builder);
+    DescriptorProtos.FileDescriptorProto discarded = builder.build();
+
+    assertTrue(discarded.getMessageType(1).getField(0).getOptions().getUnknownFields().asMap().isEmpty());
+    assertEquals("b", discarded.getMessageType(1).getField(0).getName());
+    assertSame(clean, discarded.getMessageType(0));
+  }
 }
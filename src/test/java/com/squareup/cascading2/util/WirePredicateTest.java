@@ -0,0 +1,101 @@
+package com.squareup.cascading2.util;
+
+import com.google.protobuf.Message;
+import com.squareup.cascading2.generated.Example;
+import junit.framework.TestCase;
+
+public class WirePredicateTest extends TestCase {
+  private static final Example.Partnership P1 = Example.Partnership.newBuilder()
+      .setLeader(Example.Person.newBuilder()
+          .setId(-5)
+          .setName("Jack")
+          .setPosition(Example.Person.Position.CEO))
+      .setFollower(Example.Person.newBuilder().setId(7).setName("Andy"))
+      .build();
+
+  public void testComparesNumbers() throws Exception {
+    assertTrue(matches(P1, "leader.id", WirePredicate.Operator.EQ, -5));
+    assertTrue(matches(P1, "leader.id", WirePredicate.Operator.LT, 0));
+    assertFalse(matches(P1, "leader.id", WirePredicate.Operator.GT, -5));
+    assertTrue(matches(P1, "leader.id", WirePredicate.Operator.GE, -5L));
+    assertTrue(matches(P1, "follower.id", WirePredicate.Operator.NE, -5));
+  }
+
+  public void testComparesStrings() throws Exception {
+    assertTrue(matches(P1, "leader.name", WirePredicate.Operator.EQ, "Jack"));
+    assertFalse(matches(P1, "leader.name", WirePredicate.Operator.EQ, "Jac"));
+    assertTrue(matches(P1, "leader.name", WirePredicate.Operator.GT, "Jac"));
+    assertTrue(matches(P1, "follower.name", WirePredicate.Operator.LT, "Jack"));
+  }
+
+  public void testComparesEnums() throws Exception {
+    assertTrue(matches(P1, "leader.position", WirePredicate.Operator.EQ, "CEO"));
+    assertTrue(matches(P1, "leader.position", WirePredicate.Operator.EQ, Example.Person.Position.CEO));
+    assertTrue(matches(P1, "leader.position", WirePredicate.Operator.LT, Example.Person.Position.GRUNT.getNumber()));
+  }
+
+  public void testUnsetFieldNeverMatches() throws Exception {
+    assertFalse(matches(P1, "follower.email", WirePredicate.Operator.EQ, "andy@"));
+    assertFalse(matches(P1, "follower.email", WirePredicate.Operator.NE, "andy@"));
+    assertFalse(matches(Example.Partnership.getDefaultInstance(), "leader.id", WirePredicate.Operator.NE, 1));
+  }
+
+  public void testLastOccurrenceWins() throws Exception {
+    // a singular message field serialized twice is merged, so the leader's id is 2
+    byte[] first = Example.Partnership.newBuilder()
+        .setLeader(Example.Person.newBuilder().setId(1).setName("John"))
+        .build().toByteArray();
+    byte[] second = Example.Partnership.newBuilder()
+        .setLeader(Example.Person.newBuilder().setId(2))
+        .build().toByteArray();
+    byte[] both = new byte[first.length + second.length];
+    System.arraycopy(first, 0, both, 0, first.length);
+    System.arraycopy(second, 0, both, first.length, second.length);
+
+    WirePredicate idIs2 = new WirePredicate("leader.id", WirePredicate.Operator.EQ, 2);
+    idIs2.bind(Example.Partnership.getDescriptor());
+    assertTrue(idIs2.matches(both, 0, both.length));
+
+    WirePredicate nameIsJohn = new WirePredicate("leader.name", WirePredicate.Operator.EQ, "John");
+    nameIsJohn.bind(Example.Partnership.getDescriptor());
+    assertTrue(nameIsJohn.matches(both, 0, both.length));
+  }
+
+  public void testValidatesLiteral() throws Exception {
+    try {
+      new WirePredicate("leader.id", WirePredicate.Operator.EQ, "five").bind(Example.Partnership.getDescriptor());
+      fail("Expected an exception!");
+    } catch (IllegalArgumentException e) {
+      // yay!
+    }
+    try {
+      new WirePredicate("leader.position", WirePredicate.Operator.EQ, "INTERN").bind(Example.Partnership.getDescriptor());
+      fail("Expected an exception!");
+    } catch (IllegalArgumentException e) {
+      // yay!
+    }
+  }
+
+  public void testValidatesPath() throws Exception {
+    try {
+      new WirePredicate("silent.id", WirePredicate.Operator.EQ, 1).bind(Example.Partnership.getDescriptor());
+      fail("Expected an exception!");
+    } catch (IllegalArgumentException e) {
+      // yay!
+    }
+    try {
+      new WirePredicate("leader", WirePredicate.Operator.EQ, 1).bind(Example.Partnership.getDescriptor());
+      fail("Expected an exception!");
+    } catch (IllegalArgumentException e) {
+      // yay!
+    }
+  }
+
+  private static boolean matches(Message message, String path, WirePredicate.Operator operator, Object literal)
+      throws Exception {
+    WirePredicate predicate = new WirePredicate(path, operator, literal);
+    predicate.bind(message.getDescriptorForType());
+    byte[] bytes = message.toByteArray();
+    return predicate.matches(bytes, 0, bytes.length);
+  }
+}